@@ -0,0 +1,84 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.bench;
+
+import io.idx.rtree.BoundingBox;
+import io.idx.rtree.IndexRecord;
+import io.idx.rtree.RTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Time to build a whole tree: one insert at a time, or packed by bulkLoad.
+ * The score is the time of a build, the insert throughput is size / score
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BuildBenchmark {
+
+	@Param({"16", "50"})
+	public int fanout;
+
+	@Param({"100000", "1000000"})
+	public int size;
+
+	@Param({"UNIFORM", "CLUSTERED", "REALISTIC"})
+	public Dataset.Distribution distribution;
+
+	private Dataset data;
+	private List<IndexRecord<Integer>> records;
+
+
+	@Setup
+	public void setup() {
+		data = Dataset.generate(distribution, size);
+		records = new ArrayList<IndexRecord<Integer>>(size);
+		int i;
+		for(i = 0; i < size; i++) {
+			records.add(new IndexRecord<Integer>(new BoundingBox(RTree.increaseUnit(data.longitudes[i]), RTree.increaseUnit(data.latitudes[i])), i));
+		}
+	}
+
+	@Benchmark
+	public RTree<Integer> insert() {
+		RTree<Integer> tree = new RTree<Integer>(fanout);
+		int i;
+		for(i = 0; i < size; i++) {
+			tree.addIndex(i, data.longitudes[i], data.latitudes[i]);
+		}
+		return tree;
+	}
+
+	@Benchmark
+	public RTree<Integer> bulkLoad() {
+		RTree<Integer> tree = new RTree<Integer>(fanout);
+		tree.bulkLoad(records);
+		return tree;
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.bench;
+
+import io.idx.rtree.RTree;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Mixed reads and writes on a concurrent tree: 3 threads search windows
+ * while 1 thread inserts points and deletes older ones, so the size of the tree stays stable
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConcurrentBenchmark {
+
+	private final static int QUERIES = 4096;
+	private final static double WINDOW_DEGREES = 0.1;
+	// the writer deletes the point it inserted this many writes before
+	private final static int WRITE_WINDOW = 4096;
+
+	@Param({"16", "50"})
+	public int fanout;
+
+	@Param({"100000", "1000000"})
+	public int size;
+
+	@Param({"UNIFORM", "CLUSTERED", "REALISTIC"})
+	public Dataset.Distribution distribution;
+
+	private Dataset data;
+	private RTree<Integer> tree;
+	private double[] longitudes;
+	private double[] latitudes;
+	private final AtomicInteger nextQuery = new AtomicInteger();
+	// only the writer thread uses it
+	private long writes;
+
+
+	@Setup
+	public void setup() {
+		data = Dataset.generate(distribution, size);
+		tree = new RTree<Integer>(fanout, null, true);
+		// the first half is loaded, the writer cycles on the second one
+		int i;
+		for(i = 0; i < size / 2; i++) {
+			tree.addIndex(i, data.longitudes[i], data.latitudes[i]);
+		}
+
+		Random rnd = new Random(1);
+		longitudes = new double[QUERIES];
+		latitudes = new double[QUERIES];
+		for(i = 0; i < QUERIES; i++) {
+			int p = rnd.nextInt(size);
+			longitudes[i] = data.longitudes[p];
+			latitudes[i] = data.latitudes[p];
+		}
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(3)
+	public int read() {
+		int q = nextQuery.incrementAndGet() & (QUERIES - 1);
+		double half = WINDOW_DEGREES / 2;
+		return tree.searchWindow(longitudes[q] - half, latitudes[q] - half, longitudes[q] + half, latitudes[q] + half).size();
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public boolean write() {
+		int half = size / 2;
+		int cycle = size - half;
+		int i = half + (int)(writes % cycle);
+		tree.addIndex(i, data.longitudes[i], data.latitudes[i]);
+		writes++;
+		if(writes <= WRITE_WINDOW) {
+			return false;
+		}
+		// the point is deleted long before the cycle comes back to it
+		int old = half + (int)((writes - 1 - WRITE_WINDOW) % cycle);
+		return tree.delete(old, data.longitudes[old], data.latitudes[old]);
+	}
+}
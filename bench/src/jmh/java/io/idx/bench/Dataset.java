@@ -0,0 +1,131 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.bench;
+
+import java.util.Random;
+
+/*
+ * Datasets of points shared by the benchmarks, generated with a fixed seed
+ * so every run and every index sees the same points.
+ */
+public final class Dataset {
+
+	/*
+	 * UNIFORM: the whole Earth, every point equally likely
+	 * CLUSTERED: a few dense gaussian clusters and nothing else
+	 * REALISTIC: many cities with sizes following a power law, a sparse countryside
+	 *            on the inhabited latitudes and a few points anywhere
+	 */
+	public enum Distribution {
+		UNIFORM, CLUSTERED, REALISTIC
+	}
+
+	private final static long SEED = 42;
+	private final static int CLUSTERS = 10;
+	private final static int CITIES = 200;
+
+	public final double[] longitudes;
+	public final double[] latitudes;
+
+
+	private Dataset(int size) {
+		longitudes = new double[size];
+		latitudes = new double[size];
+	}
+
+	public int size() {
+		return longitudes.length;
+	}
+
+	public static Dataset generate(Distribution distribution, int size) {
+		Dataset data = new Dataset(size);
+		Random rnd = new Random(SEED);
+		switch(distribution) {
+		case UNIFORM:
+			data.uniform(rnd);
+			break;
+		case CLUSTERED:
+			data.clustered(rnd);
+			break;
+		default:
+			data.realistic(rnd);
+		}
+		return data;
+	}
+
+	private void uniform(Random rnd) {
+		int i;
+		for(i = 0; i < longitudes.length; i++) {
+			longitudes[i] = rnd.nextDouble() * 360 - 180;
+			latitudes[i] = rnd.nextDouble() * 180 - 90;
+		}
+	}
+
+	private void clustered(Random rnd) {
+		double[][] centers = Dataset.centers(rnd, CLUSTERS);
+		int i;
+		for(i = 0; i < longitudes.length; i++) {
+			double[] center = centers[rnd.nextInt(CLUSTERS)];
+			this.set(i, center[0] + rnd.nextGaussian(), center[1] + rnd.nextGaussian());
+		}
+	}
+
+	private void realistic(Random rnd) {
+		double[][] cities = Dataset.centers(rnd, CITIES);
+		// the weight of the city of rank r is 1 / r
+		double[] cumulative = new double[CITIES];
+		double total = 0;
+		int c;
+		for(c = 0; c < CITIES; c++) {
+			total += 1.0 / (c + 1);
+			cumulative[c] = total;
+		}
+
+		int i;
+		for(i = 0; i < longitudes.length; i++) {
+			double kind = rnd.nextDouble();
+			if(kind < 0.75) {
+				double pick = rnd.nextDouble() * total;
+				for(c = 0; cumulative[c] < pick; c++) {
+					// find the city of the point
+				}
+				// the big cities spread more
+				double radius = 0.3 / Math.sqrt(c + 1);
+				this.set(i, cities[c][0] + rnd.nextGaussian() * radius, cities[c][1] + rnd.nextGaussian() * radius);
+			} else if(kind < 0.95) {
+				this.set(i, rnd.nextDouble() * 360 - 180, rnd.nextDouble() * 100 - 40);
+			} else {
+				this.set(i, rnd.nextDouble() * 360 - 180, rnd.nextDouble() * 180 - 90);
+			}
+		}
+	}
+
+	private static double[][] centers(Random rnd, int count) {
+		double[][] centers = new double[count][];
+		int i;
+		for(i = 0; i < count; i++) {
+			centers[i] = new double[] {rnd.nextDouble() * 340 - 170, rnd.nextDouble() * 120 - 60};
+		}
+		return centers;
+	}
+
+	// keep the point on the Earth
+	private void set(int i, double longitude, double latitude) {
+		longitudes[i] = Math.max(-180, Math.min(180, longitude));
+		latitudes[i] = Math.max(-90, Math.min(90, latitude));
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.bench;
+
+import io.idx.SpatialIndex;
+import io.idx.quadtree.QuadTree;
+import io.idx.rtree.RTree;
+import io.idx.zorder.ZOrderIndex;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * The indexes of the project on the same points: time of a build by inserts,
+ * throughput of the small windows and of the k nearest, on the skewed datasets
+ * where dividing the space and adapting to the data differ the most
+ */
+@State(Scope.Benchmark)
+public class IndexBenchmark {
+
+	private final static int QUERIES = 4096;
+	private final static int NEAREST = 10;
+	private final static int FANOUT = 50;
+
+	public enum Index {
+		RTREE, QUADTREE, ZORDER
+	}
+
+	@Param({"RTREE", "QUADTREE", "ZORDER"})
+	public Index index;
+
+	@Param({"1000000"})
+	public int size;
+
+	@Param({"CLUSTERED", "REALISTIC"})
+	public Dataset.Distribution distribution;
+
+	// side of the windows
+	@Param({"0.01"})
+	public double windowDegrees;
+
+	private Dataset data;
+	private SpatialIndex<Integer> built;
+	private double[] longitudes;
+	private double[] latitudes;
+	private int next;
+	private final QueryBenchmark.Counter counter = new QueryBenchmark.Counter();
+
+
+	@Setup
+	public void setup() {
+		data = Dataset.generate(distribution, size);
+		built = this.build();
+
+		Random rnd = new Random(1);
+		longitudes = new double[QUERIES];
+		latitudes = new double[QUERIES];
+		int i;
+		for(i = 0; i < QUERIES; i++) {
+			int p = rnd.nextInt(size);
+			longitudes[i] = data.longitudes[p];
+			latitudes[i] = data.latitudes[p];
+		}
+	}
+
+	private SpatialIndex<Integer> create() {
+		switch(index) {
+		case QUADTREE:
+			return new QuadTree<Integer>();
+		case ZORDER:
+			return new ZOrderIndex<Integer>();
+		default:
+			return new RTree<Integer>(FANOUT);
+		}
+	}
+
+	// the next query point, the same sequence in every iteration
+	private int nextQuery() {
+		next = (next + 1) & (QUERIES - 1);
+		return next;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public SpatialIndex<Integer> build() {
+		SpatialIndex<Integer> created = this.create();
+		int i;
+		for(i = 0; i < size; i++) {
+			created.addIndex(i, data.longitudes[i], data.latitudes[i]);
+		}
+		return created;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public int window() {
+		int q = this.nextQuery();
+		double half = windowDegrees / 2;
+		counter.count = 0;
+		built.searchWindow(longitudes[q] - half, latitudes[q] - half, longitudes[q] + half, latitudes[q] + half, counter);
+		return counter.count;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public List<Integer> nearest() {
+		int q = this.nextQuery();
+		return built.nearest(longitudes[q], latitudes[q], NEAREST);
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.bench;
+
+import io.idx.RecordVisitor;
+import io.idx.rtree.RTree;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Searches on a tree built by inserts: point lookup, window and k nearest.
+ * The queries are centered on points of the dataset, so they go where the data is
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class QueryBenchmark {
+
+	private final static int QUERIES = 4096;
+	private final static int NEAREST = 10;
+
+	@Param({"16", "50"})
+	public int fanout;
+
+	@Param({"100000", "1000000"})
+	public int size;
+
+	@Param({"UNIFORM", "CLUSTERED", "REALISTIC"})
+	public Dataset.Distribution distribution;
+
+	// side of the windows
+	@Param({"0.01", "0.1"})
+	public double windowDegrees;
+
+	private RTree<Integer> tree;
+	private double[] longitudes;
+	private double[] latitudes;
+	private int next;
+	private final Counter counter = new Counter();
+
+
+	@Setup
+	public void setup() {
+		Dataset data = Dataset.generate(distribution, size);
+		tree = new RTree<Integer>(fanout);
+		int i;
+		for(i = 0; i < size; i++) {
+			tree.addIndex(i, data.longitudes[i], data.latitudes[i]);
+		}
+
+		Random rnd = new Random(1);
+		longitudes = new double[QUERIES];
+		latitudes = new double[QUERIES];
+		for(i = 0; i < QUERIES; i++) {
+			int p = rnd.nextInt(size);
+			longitudes[i] = data.longitudes[p];
+			latitudes[i] = data.latitudes[p];
+		}
+	}
+
+	// the next query point, the same sequence in every iteration
+	private int nextQuery() {
+		next = (next + 1) & (QUERIES - 1);
+		return next;
+	}
+
+	@Benchmark
+	public List<Integer> point() {
+		int q = this.nextQuery();
+		return tree.search(longitudes[q], latitudes[q]);
+	}
+
+	@Benchmark
+	public int window() {
+		int q = this.nextQuery();
+		double half = windowDegrees / 2;
+		counter.count = 0;
+		tree.searchWindow(longitudes[q] - half, latitudes[q] - half, longitudes[q] + half, latitudes[q] + half, counter);
+		return counter.count;
+	}
+
+	@Benchmark
+	public List<Integer> nearest() {
+		int q = this.nextQuery();
+		return tree.nearest(longitudes[q], latitudes[q], NEAREST);
+	}
+
+	/*
+	 * Visitor counting the records, so the window measures the search and not a result list
+	 */
+	static class Counter implements RecordVisitor<Integer> {
+		int count;
+
+		@Override
+		public boolean visit(Integer record) {
+			count++;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx;
+
+/*
+ * Callback used by the queries which stream their results
+ * instead of collecting them in a list.
+ * The same visitor instance can be reused for many queries, so the caller
+ * decides if and where the results are stored.
+ */
+public interface RecordVisitor<T> {
+
+	/** 
+	 *  Called once for every record matching the query
+	 *
+	 * @param  record the indexed record
+	 * @return      true to continue the search, false to stop it
+	 */
+	boolean visit(T record);
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx;
+
+import java.util.List;
+
+/*
+ * Operations shared by all the indexes of the library.
+ * The coordinates are in degrees, X is the longitude and Y is the latitude.
+ * Each index stores them in the integer units of RTree.increaseUnit (1 / 100000 of degree),
+ * so two points closer than a unit are the same point.
+ */
+public interface SpatialIndex<T> {
+
+	/** 
+	 *  Add a record to the index
+	 *
+	 * @param  record the object to index
+	 * @param  longitude the longitude of the record
+	 * @param  latitude the latitude of the record
+	 * @return      void
+	 */
+	void addIndex(T record, double longitude, double latitude);
+
+	/** 
+	 *  Delete a record from the index
+	 *
+	 * @param  record the object to delete, compared with equals
+	 * @param  longitude the longitude the record has been added with
+	 * @param  latitude the latitude the record has been added with
+	 * @return      true if the record was found and deleted
+	 */
+	boolean delete(T record, double longitude, double latitude);
+
+	/** 
+	 *  Search the records at a point
+	 *
+	 * @param  longitude the longitude of the point
+	 * @param  latitude the latitude of the point
+	 * @return      the records added at the point
+	 */
+	List<T> search(double longitude, double latitude);
+
+	/** 
+	 *  Search all the records inside a window, the borders are included
+	 *
+	 * @param  minLongitude the west border of the window
+	 * @param  minLatitude the south border of the window
+	 * @param  maxLongitude the east border of the window
+	 * @param  maxLatitude the north border of the window
+	 * @param  visitor the callback receiving the records
+	 * @return      false if the visitor stopped the search, true otherwise
+	 */
+	boolean searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude,
+			RecordVisitor<? super T> visitor);
+
+	/** 
+	 *  Search the k records closest to a point.
+	 *  The distance is the equirectangular approximation at the latitude of the point
+	 *
+	 * @param  longitude the longitude of the point
+	 * @param  latitude the latitude of the point
+	 * @param  k the number of records to return
+	 * @return      at most k records, the closest first
+	 */
+	List<T> nearest(double longitude, double latitude, int k);
+}
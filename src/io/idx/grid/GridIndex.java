@@ -0,0 +1,341 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.grid;
+
+import io.idx.RecordVisitor;
+import io.idx.SpatialIndex;
+import io.idx.rtree.RTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/*
+ * Uniform grid over an area known up front.
+ *
+ * The area is cut in square cells of a fixed size in units, so the cell of a point is
+ * computed with 2 divisions: an insert, a delete or a point query touch a single cell,
+ * and a small window only the few cells it overlaps. There is no tree to descend or to rebalance,
+ * which suits a high rate of updates and small windows.
+ *
+ * Every cell holds its points in primitive arrays of coordinates, with the records aside.
+ * The points outside of the area cannot be indexed. This class is not thread safe.
+ */
+public class GridIndex<T> implements SpatialIndex<T> {
+
+	private final static int INITIAL_CELL_CAPACITY = 4;
+
+	// low corner of the area and size of a cell, in units
+	private final int originX;
+	private final int originY;
+	private final int cellSize;
+	private final int columns;
+	private final int rows;
+
+	// the postings of every cell, indexed by row * columns + column
+	private final int[][] xs;
+	private final int[][] ys;
+	private final Object[][] records;
+	private final int[] sizes;
+	private int size;
+
+
+	/*
+	 * Grid on the area, with cells of cellDegrees degrees on both sides
+	 */
+	public GridIndex(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, double cellDegrees) {
+		int x0 = RTree.increaseUnit(Math.min(minLongitude, maxLongitude));
+		int y0 = RTree.increaseUnit(Math.min(minLatitude, maxLatitude));
+		int x1 = RTree.increaseUnit(Math.max(minLongitude, maxLongitude));
+		int y1 = RTree.increaseUnit(Math.max(minLatitude, maxLatitude));
+		cellSize = Math.max(1, RTree.increaseUnit(cellDegrees));
+		originX = x0;
+		originY = y0;
+		columns = (int)(((long) x1 - x0) / cellSize) + 1;
+		rows = (int)(((long) y1 - y0) / cellSize) + 1;
+		if((long) columns * rows > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("too many cells: " + columns + " x " + rows);
+		}
+		int cells = columns * rows;
+		xs = new int[cells][];
+		ys = new int[cells][];
+		records = new Object[cells][];
+		sizes = new int[cells];
+	}
+
+	/*
+	 * Number of records in the grid
+	 */
+	public int size() {
+		return size;
+	}
+
+	// the cell of a point, -1 if it is outside of the area
+	private int cell(int x, int y) {
+		long column = ((long) x - originX) / cellSize;
+		long row = ((long) y - originY) / cellSize;
+		if(x < originX || y < originY || column >= columns || row >= rows) {
+			return -1;
+		}
+		return (int) row * columns + (int) column;
+	}
+
+	@Override
+	public void addIndex(T record, double longitude, double latitude) {
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		int c = this.cell(x, y);
+		if(c < 0) {
+			throw new IllegalArgumentException("point outside of the grid: " + longitude + ", " + latitude);
+		}
+
+		int n = sizes[c];
+		if(xs[c] == null) {
+			xs[c] = new int[INITIAL_CELL_CAPACITY];
+			ys[c] = new int[INITIAL_CELL_CAPACITY];
+			records[c] = new Object[INITIAL_CELL_CAPACITY];
+		} else if(n == xs[c].length) {
+			xs[c] = Arrays.copyOf(xs[c], n * 2);
+			ys[c] = Arrays.copyOf(ys[c], n * 2);
+			records[c] = Arrays.copyOf(records[c], n * 2);
+		}
+		xs[c][n] = x;
+		ys[c][n] = y;
+		records[c][n] = record;
+		sizes[c] = n + 1;
+		size++;
+	}
+
+	@Override
+	public boolean delete(T record, double longitude, double latitude) {
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		int c = this.cell(x, y);
+		if(c < 0) {
+			return false;
+		}
+
+		int n = sizes[c];
+		int i;
+		for(i = 0; i < n; i++) {
+			if(xs[c][i] == x && ys[c][i] == y && record.equals(records[c][i])) {
+				// the last posting takes the place of the deleted one
+				int last = n - 1;
+				xs[c][i] = xs[c][last];
+				ys[c][i] = ys[c][last];
+				records[c][i] = records[c][last];
+				records[c][last] = null;
+				sizes[c] = last;
+				size--;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<T> search(double longitude, double latitude) {
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		List<T> result = new ArrayList<T>();
+		int c = this.cell(x, y);
+		if(c < 0) {
+			return result;
+		}
+		int n = sizes[c];
+		int i;
+		for(i = 0; i < n; i++) {
+			if(xs[c][i] == x && ys[c][i] == y) {
+				result.add((T) records[c][i]);
+			}
+		}
+		return result;
+	}
+
+	/** 
+	 *  This method search all the records inside a window, see SpatialIndex.searchWindow
+	 *
+	 * @param  minLongitude the west border of the window
+	 * @param  minLatitude the south border of the window
+	 * @param  maxLongitude the east border of the window
+	 * @param  maxLatitude the north border of the window
+	 * @return      a list of the records
+	 */
+	public List<T> searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude) {
+		final List<T> result = new ArrayList<T>();
+		this.searchWindow(minLongitude, minLatitude, maxLongitude, maxLatitude, new RecordVisitor<T>() {
+			public boolean visit(T record) {
+				result.add(record);
+				return true;
+			}
+		});
+		return result;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude,
+			RecordVisitor<? super T> visitor) {
+		int x0 = RTree.increaseUnit(Math.min(minLongitude, maxLongitude));
+		int y0 = RTree.increaseUnit(Math.min(minLatitude, maxLatitude));
+		int x1 = RTree.increaseUnit(Math.max(minLongitude, maxLongitude));
+		int y1 = RTree.increaseUnit(Math.max(minLatitude, maxLatitude));
+
+		// the cells overlapped by the window, clamped to the area
+		long firstColumn = Math.max(0, GridIndex.floorDiv((long) x0 - originX, cellSize));
+		long lastColumn = Math.min(columns - 1, GridIndex.floorDiv((long) x1 - originX, cellSize));
+		long firstRow = Math.max(0, GridIndex.floorDiv((long) y0 - originY, cellSize));
+		long lastRow = Math.min(rows - 1, GridIndex.floorDiv((long) y1 - originY, cellSize));
+
+		long row;
+		for(row = firstRow; row <= lastRow; row++) {
+			// the points of a cell inside the window on this axis need no check on it
+			boolean rowInside = row > firstRow && row < lastRow;
+			long column;
+			for(column = firstColumn; column <= lastColumn; column++) {
+				int c = (int)(row * columns + column);
+				int n = sizes[c];
+				if(n == 0) {
+					continue;
+				}
+				boolean inside = rowInside && column > firstColumn && column < lastColumn;
+				int[] cx = xs[c];
+				int[] cy = ys[c];
+				int i;
+				for(i = 0; i < n; i++) {
+					if((inside || (x0 <= cx[i] && cx[i] <= x1 && y0 <= cy[i] && cy[i] <= y1))
+							&& !visitor.visit((T) records[c][i])) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/** 
+	 *  This method search the k records closest to a point, see RTree.nearest.
+	 *  The cells are visited in rings around the cell of the point, and the search stops
+	 *  when the next ring cannot contain a point closer than the k found
+	 *
+	 * @param  longitude the longitude of the point
+	 * @param  latitude the latitude of the point
+	 * @param  k the number of records to return
+	 * @return      at most k records, the closest first
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<T> nearest(double longitude, double latitude, int k) {
+		List<T> result = new ArrayList<T>();
+		if(k <= 0 || size == 0) {
+			return result;
+		}
+
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		double xScale = Math.cos(Math.toRadians(latitude));
+		// the closest a point of the ring r can be is (r - 1) cells on the shortest scaled side
+		double ringStep = cellSize * Math.min(1, xScale);
+
+		long centerColumn = GridIndex.floorDiv((long) x - originX, cellSize);
+		long centerRow = GridIndex.floorDiv((long) y - originY, cellSize);
+		// the ring beyond which there are no cells
+		long maxRing = Math.max(Math.max(centerColumn, columns - 1 - centerColumn), Math.max(centerRow, rows - 1 - centerRow));
+
+		// the k closest so far, the farthest at the head
+		PriorityQueue<Candidate> closest = new PriorityQueue<Candidate>();
+		long ring;
+		for(ring = 0; ring <= maxRing; ring++) {
+			if(closest.size() == k) {
+				double bound = (ring - 1) * ringStep;
+				if(bound > 0 && bound * bound >= closest.peek().distance) {
+					break;
+				}
+			}
+			long row;
+			for(row = centerRow - ring; row <= centerRow + ring; row++) {
+				if(row < 0 || row >= rows) {
+					continue;
+				}
+				// inside the ring only the first and the last column, on its border rows all of them
+				long step = row == centerRow - ring || row == centerRow + ring ? 1 : Math.max(1, 2 * ring);
+				long column;
+				for(column = centerColumn - ring; column <= centerColumn + ring; column += step) {
+					if(column >= 0 && column < columns) {
+						this.collect((int)(row * columns + column), x, y, xScale, closest, k);
+					}
+				}
+			}
+		}
+
+		Object[] sorted = new Object[closest.size()];
+		int i;
+		for(i = sorted.length - 1; i >= 0; i--) {
+			sorted[i] = closest.poll().record;
+		}
+		for(Object record : sorted) {
+			result.add((T) record);
+		}
+		return result;
+	}
+
+	// keep in closest the k points closest to (x, y), among the ones found so far and the points of the cell
+	private void collect(int c, int x, int y, double xScale, PriorityQueue<Candidate> closest, int k) {
+		int n = sizes[c];
+		int i;
+		for(i = 0; i < n; i++) {
+			double dx = ((long) xs[c][i] - x) * xScale;
+			double dy = (long) ys[c][i] - y;
+			double distance = dx * dx + dy * dy;
+			if(closest.size() < k) {
+				closest.add(new Candidate(records[c][i], distance));
+			} else if(distance < closest.peek().distance) {
+				closest.poll();
+				closest.add(new Candidate(records[c][i], distance));
+			}
+		}
+	}
+
+	// division rounded down, so the points on the west or south of the area get negative cells
+	private static long floorDiv(long a, long b) {
+		long q = a / b;
+		if(a % b != 0 && (a < 0) != (b < 0)) {
+			q--;
+		}
+		return q;
+	}
+
+	/*
+	 * A record found by the nearest search, the queue orders them from the farthest
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+		final Object record;
+		final double distance;
+
+		Candidate(Object record, double distance) {
+			this.record = record;
+			this.distance = distance;
+		}
+
+		@Override
+		public int compareTo(Candidate o) {
+			return Double.compare(o.distance, distance);
+		}
+	}
+}
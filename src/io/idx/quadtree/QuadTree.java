@@ -0,0 +1,416 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.quadtree;
+
+import io.idx.RecordVisitor;
+import io.idx.SpatialIndex;
+import io.idx.rtree.RTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/*
+ * Point-region quadtree.
+ * Reference for the implementation:
+ * Samet - The Quadtree and Related Hierarchical Data Structures
+ *
+ * The plane is cut in square cells by halving them, whatever the points are:
+ * a leaf holds up to bucketSize points, when it overflows it is split in its 4 quadrants
+ * and its points go to the quadrant they fall in. So an insert never compares boxes
+ * like the split of an RTree, and the dense areas get small cells while the sparse ones stay coarse.
+ * When a delete leaves the 4 children of a cell with few points they are merged back in a leaf.
+ *
+ * The points of a leaf are stored in primitive arrays of coordinates.
+ * A cell which cannot be halved any more (side of 1 unit) keeps growing its bucket.
+ * Only points can be indexed. This class is not thread safe.
+ */
+public class QuadTree<T> implements SpatialIndex<T> {
+
+	private final static int DEFAULT_BUCKET_SIZE = 32;
+	// the root covers -2^ROOT_LEVEL ... 2^ROOT_LEVEL - 1 units on both axes, more than the whole Earth
+	private final static int ROOT_LEVEL = 25;
+
+	private final int bucketSize;
+	private final Cell root;
+	private int size;
+
+
+	public QuadTree() {
+		this(DEFAULT_BUCKET_SIZE);
+	}
+
+	/*
+	 * Constructor with the number of points a leaf holds before being split
+	 */
+	public QuadTree(int bucketSize) {
+		if(bucketSize <= 0) {
+			this.bucketSize = DEFAULT_BUCKET_SIZE;
+		} else {
+			this.bucketSize = bucketSize;
+		}
+		root = new Cell(-(1 << ROOT_LEVEL), -(1 << ROOT_LEVEL), ROOT_LEVEL + 1, this.bucketSize);
+	}
+
+	/*
+	 * Number of records in the tree
+	 */
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void addIndex(T record, double longitude, double latitude) {
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		if(!root.contains(x, y)) {
+			throw new IllegalArgumentException("coordinate out of range: " + longitude + ", " + latitude);
+		}
+
+		Cell cell = root;
+		while(cell.children != null) {
+			cell = cell.children[cell.quadrant(x, y)];
+		}
+		cell.add(x, y, record);
+		size++;
+
+		// split the overflowing leaf, again if all the points fall in the same quadrant
+		while(cell.size > bucketSize && cell.level > 0) {
+			cell.split();
+			cell = cell.children[cell.quadrant(x, y)];
+		}
+	}
+
+	@Override
+	public boolean delete(T record, double longitude, double latitude) {
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		if(!root.contains(x, y)) {
+			return false;
+		}
+
+		// the path from the root, to merge the cells left with few points
+		List<Cell> path = new ArrayList<Cell>();
+		Cell cell = root;
+		while(cell.children != null) {
+			path.add(cell);
+			cell = cell.children[cell.quadrant(x, y)];
+		}
+
+		int i;
+		for(i = 0; i < cell.size; i++) {
+			if(cell.xs[i] == x && cell.ys[i] == y && record.equals(cell.records[i])) {
+				cell.remove(i);
+				size--;
+				int p;
+				for(p = path.size() - 1; p >= 0 && path.get(p).merge(bucketSize); p--) {
+					// the parent may be mergeable now
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public List<T> search(double longitude, double latitude) {
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		final List<T> result = new ArrayList<T>();
+		this.searchWindow(root, x, y, x, y, new RecordVisitor<T>() {
+			public boolean visit(T record) {
+				result.add(record);
+				return true;
+			}
+		});
+		return result;
+	}
+
+	/** 
+	 *  This method search all the records inside a window, see SpatialIndex.searchWindow
+	 *
+	 * @param  minLongitude the west border of the window
+	 * @param  minLatitude the south border of the window
+	 * @param  maxLongitude the east border of the window
+	 * @param  maxLatitude the north border of the window
+	 * @return      a list of the records
+	 */
+	public List<T> searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude) {
+		final List<T> result = new ArrayList<T>();
+		this.searchWindow(minLongitude, minLatitude, maxLongitude, maxLatitude, new RecordVisitor<T>() {
+			public boolean visit(T record) {
+				result.add(record);
+				return true;
+			}
+		});
+		return result;
+	}
+
+	@Override
+	public boolean searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude,
+			RecordVisitor<? super T> visitor) {
+		int x0 = RTree.increaseUnit(minLongitude);
+		int y0 = RTree.increaseUnit(minLatitude);
+		int x1 = RTree.increaseUnit(maxLongitude);
+		int y1 = RTree.increaseUnit(maxLatitude);
+		return this.searchWindow(root, Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1), visitor);
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean searchWindow(Cell cell, int x0, int y0, int x1, int y1, RecordVisitor<? super T> visitor) {
+		if(cell.children != null) {
+			for(Cell child : cell.children) {
+				if(child.intersects(x0, y0, x1, y1) && !this.searchWindow(child, x0, y0, x1, y1, visitor)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		int[] xs = cell.xs;
+		int[] ys = cell.ys;
+		int i;
+		for(i = 0; i < cell.size; i++) {
+			if(x0 <= xs[i] && xs[i] <= x1 && y0 <= ys[i] && ys[i] <= y1 && !visitor.visit((T) cell.records[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** 
+	 *  This method search the k records closest to a point, see RTree.nearest.
+	 *  The cells and the points are visited in order of distance, so a cell is opened
+	 *  only when it can contain a point closer than the ones already found
+	 *
+	 * @param  longitude the longitude of the point
+	 * @param  latitude the latitude of the point
+	 * @param  k the number of records to return
+	 * @return      at most k records, the closest first
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<T> nearest(double longitude, double latitude, int k) {
+
+		List<T> result = new ArrayList<T>();
+		if(k <= 0) {
+			return result;
+		}
+
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		double xScale = Math.cos(Math.toRadians(latitude));
+
+		PriorityQueue<NearestEntry> queue = new PriorityQueue<NearestEntry>();
+		queue.add(new NearestEntry(root, false, 0));
+
+		while(!queue.isEmpty()) {
+			NearestEntry entry = queue.poll();
+
+			// a record comes out of the queue only when nothing left in the queue can be closer
+			if(entry.isRecord) {
+				result.add((T) entry.item);
+				if(result.size() == k) {
+					break;
+				}
+				continue;
+			}
+
+			Cell cell = (Cell) entry.item;
+			if(cell.children != null) {
+				for(Cell child : cell.children) {
+					if(child.children != null || child.size > 0) {
+						queue.add(new NearestEntry(child, false, child.distance(x, y, xScale)));
+					}
+				}
+			} else {
+				int i;
+				for(i = 0; i < cell.size; i++) {
+					double dx = ((long) cell.xs[i] - x) * xScale;
+					double dy = (long) cell.ys[i] - y;
+					queue.add(new NearestEntry(cell.records[i], true, dx * dx + dy * dy));
+				}
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * A square cell of side 2^level units, with the low corner (x, y).
+	 * A leaf has no children and holds its points, an internal cell has 4 children
+	 * in the order SW, SE, NW, NE
+	 */
+	private static class Cell {
+
+		final int x;
+		final int y;
+		final int level;
+
+		Cell[] children;
+
+		int[] xs;
+		int[] ys;
+		Object[] records;
+		int size;
+
+		Cell(int x, int y, int level, int capacity) {
+			this.x = x;
+			this.y = y;
+			this.level = level;
+			xs = new int[capacity];
+			ys = new int[capacity];
+			records = new Object[capacity];
+		}
+
+		// long, the side of the root does not fit in an int
+		long last() {
+			return (1L << level) - 1;
+		}
+
+		boolean contains(int px, int py) {
+			return x <= px && px <= x + this.last() && y <= py && py <= y + this.last();
+		}
+
+		boolean intersects(int x0, int y0, int x1, int y1) {
+			return x <= x1 && x0 <= x + this.last() && y <= y1 && y0 <= y + this.last();
+		}
+
+		int quadrant(int px, int py) {
+			long half = 1L << (level - 1);
+			int q = 0;
+			if(px >= x + half) {
+				q |= 1;
+			}
+			if(py >= y + half) {
+				q |= 2;
+			}
+			return q;
+		}
+
+		/*
+		 * Square distance from the point to the cell, with the X scaled
+		 */
+		double distance(int px, int py, double xScale) {
+			long dx = 0;
+			if(px < x) {
+				dx = (long) x - px;
+			} else if(px > x + this.last()) {
+				dx = px - (x + this.last());
+			}
+			long dy = 0;
+			if(py < y) {
+				dy = (long) y - py;
+			} else if(py > y + this.last()) {
+				dy = py - (y + this.last());
+			}
+			double scaledX = dx * xScale;
+			return scaledX * scaledX + (double) dy * dy;
+		}
+
+		void add(int px, int py, Object record) {
+			if(size == xs.length) {
+				int capacity = Math.max(4, size * 2);
+				xs = Arrays.copyOf(xs, capacity);
+				ys = Arrays.copyOf(ys, capacity);
+				records = Arrays.copyOf(records, capacity);
+			}
+			xs[size] = px;
+			ys[size] = py;
+			records[size++] = record;
+		}
+
+		// the last point takes the place of the removed one
+		void remove(int i) {
+			int last = --size;
+			xs[i] = xs[last];
+			ys[i] = ys[last];
+			records[i] = records[last];
+			records[last] = null;
+		}
+
+		/*
+		 * Turn the leaf in an internal cell, moving its points to the 4 quadrants
+		 */
+		void split() {
+			// the buckets grow with their points, the empty quadrants of the sparse areas cost little
+			int half = 1 << (level - 1);
+			children = new Cell[] {
+				new Cell(x, y, level - 1, 0),
+				new Cell(x + half, y, level - 1, 0),
+				new Cell(x, y + half, level - 1, 0),
+				new Cell(x + half, y + half, level - 1, 0)
+			};
+			int i;
+			for(i = 0; i < size; i++) {
+				children[this.quadrant(xs[i], ys[i])].add(xs[i], ys[i], records[i]);
+			}
+			xs = null;
+			ys = null;
+			records = null;
+			size = 0;
+		}
+
+		/*
+		 * Turn the internal cell back in a leaf if its children are leaves
+		 * holding at most half a bucket, return true if it did
+		 */
+		boolean merge(int bucketSize) {
+			int total = 0;
+			for(Cell child : children) {
+				if(child.children != null) {
+					return false;
+				}
+				total += child.size;
+			}
+			if(total > bucketSize / 2) {
+				return false;
+			}
+			xs = new int[total];
+			ys = new int[total];
+			records = new Object[total];
+			for(Cell child : children) {
+				int i;
+				for(i = 0; i < child.size; i++) {
+					this.add(child.xs[i], child.ys[i], child.records[i]);
+				}
+			}
+			children = null;
+			return true;
+		}
+	}
+
+	/*
+	 * Cell or record waiting in the queue of the nearest search
+	 */
+	private static class NearestEntry implements Comparable<NearestEntry> {
+		final Object item;
+		final boolean isRecord;
+		final double distance;
+
+		NearestEntry(Object item, boolean isRecord, double distance) {
+			this.item = item;
+			this.isRecord = isRecord;
+			this.distance = distance;
+		}
+
+		@Override
+		public int compareTo(NearestEntry o) {
+			return Double.compare(distance, o.distance);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+/*
+ * Minimum bounding box with a low (minX, minY) and a high (maxX, maxY) corner.
+ * The coordinates are the integer units produced by RTree.increaseUnit,
+ * X is the longitude and Y is the latitude.
+ *
+ * A point is a degenerated box where the low and the high corners are the same.
+ *
+ * This class is thread safe, because all the fields are immutable
+ */
+public class BoundingBox {
+
+	public final int minX;
+	public final int minY;
+	public final int maxX;
+	public final int maxY;
+
+
+	/*
+	 * Constructor
+	 */
+	public BoundingBox(int minX, int minY, int maxX, int maxY) {
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+	}
+
+	/*
+	 * Constructor for a point
+	 */
+	public BoundingBox(int x, int y) {
+		this(x, y, x, y);
+	}
+
+	/*
+	 * true if the box b is completely inside this box (borders included)
+	 */
+	public boolean contains(BoundingBox b) {
+		return minX <= b.minX && minY <= b.minY && maxX >= b.maxX && maxY >= b.maxY;
+	}
+
+	/*
+	 * true if the point is inside this box (borders included)
+	 */
+	public boolean contains(int x, int y) {
+		return minX <= x && x <= maxX && minY <= y && y <= maxY;
+	}
+
+	/*
+	 * true if the 2 boxes share at least one point (borders included)
+	 */
+	public boolean intersects(BoundingBox b) {
+		return minX <= b.maxX && b.minX <= maxX && minY <= b.maxY && b.minY <= maxY;
+	}
+
+	/*
+	 * The smallest box which contains both this box and b
+	 */
+	public BoundingBox union(BoundingBox b) {
+		if(this.contains(b)) {
+			return this;
+		}
+		return new BoundingBox(Math.min(minX, b.minX), Math.min(minY, b.minY),
+				Math.max(maxX, b.maxX), Math.max(maxY, b.maxY));
+	}
+
+	/*
+	 * Area of the box, a point has area 0
+	 * long because the product of 2 int can overflow
+	 */
+	public long area() {
+		return (long)(maxX - minX) * (long)(maxY - minY);
+	}
+
+	/*
+	 * The area which has to be added to this box in order to include b
+	 */
+	public long enlargement(BoundingBox b) {
+		if(this.contains(b)) {
+			return 0;
+		}
+		long unionArea = (long)(Math.max(maxX, b.maxX) - Math.min(minX, b.minX)) *
+				(long)(Math.max(maxY, b.maxY) - Math.min(minY, b.minY));
+		return unionArea - this.area();
+	}
+
+	/*
+	 * Area of the box (x0, y0) - (x1, y1)
+	 * this and the following static methods work on primitive bounds,
+	 * so the nodes can be scanned without creating BoundingBox objects
+	 */
+	public static long area(int x0, int y0, int x1, int y1) {
+		return (long)(x1 - x0) * (long)(y1 - y0);
+	}
+	
+	/*
+	 * The area which has to be added to the box (x0, y0) - (x1, y1)
+	 * in order to include the box (nx0, ny0) - (nx1, ny1)
+	 */
+	public static long enlargement(int x0, int y0, int x1, int y1, int nx0, int ny0, int nx1, int ny1) {
+		if(x0 <= nx0 && y0 <= ny0 && x1 >= nx1 && y1 >= ny1) {
+			return 0;
+		}
+		return area(Math.min(x0, nx0), Math.min(y0, ny0), Math.max(x1, nx1), Math.max(y1, ny1)) - area(x0, y0, x1, y1);
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if(this == o) {
+			return true;
+		}
+		if(!(o instanceof BoundingBox)) {
+			return false;
+		}
+		BoundingBox b = (BoundingBox)o;
+		return minX == b.minX && minY == b.minY && maxX == b.maxX && maxY == b.maxY;
+	}
+
+	@Override
+	public int hashCode() {
+		int h = minX;
+		h = 31 * h + minY;
+		h = 31 * h + maxX;
+		h = 31 * h + maxY;
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return "(" + minX + "," + minY + " - " + maxX + "," + maxY + ")";
+	}
+}
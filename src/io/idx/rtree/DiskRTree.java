@@ -0,0 +1,376 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.PriorityQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * RTree in a file written by PagedRTree.write, read through a bounded PageCache
+ * instead of mapping the whole file: the memory used is the capacity of the cache,
+ * whatever the size of the file.
+ *
+ * The nodes of the upper levels are kept resident in the cache the first time they are read,
+ * so a search reads from the disk only the pages of the lower levels missing in the cache.
+ *
+ * A record can be deleted: its entry is removed from the leaf page, which is written back
+ * by the cache. The boxes of the upper levels are not tightened, they still contain
+ * all the records below them, and the underfull leaves are not merged.
+ *
+ * The searches can run in parallel, a delete waits for them.
+ * A window search keeps pinned a page per level of its path, so the cache must hold the resident
+ * pages and, for every window search running, a path through the levels below them:
+ * the window searches beyond that wait for a running one to end.
+ */
+public class DiskRTree implements Closeable {
+
+	private final FileChannel channel;
+	private final PageCache cache;
+	private final int height;
+	private final long rootPage;
+	// the nodes of this level and above stay in the cache
+	private final int residentLevel;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	// a permit for every path the cache can hold next to the resident pages
+	private final Semaphore paths;
+	// records deleted since the tree was opened, the count of the header is updated on close
+	private long deleted;
+
+
+	private DiskRTree(FileChannel channel, PageCache cache, int height, long rootPage, int residentLevel, int paths) {
+		this.channel = channel;
+		this.paths = new Semaphore(paths);
+		this.cache = cache;
+		this.height = height;
+		this.rootPage = rootPage;
+		this.residentLevel = residentLevel;
+	}
+
+	/**
+	 *  Open a tree written by PagedRTree.write
+	 *
+	 * @param  file the file of the tree
+	 * @param  cachePages the capacity of the cache, in pages
+	 * @param  residentLevels the number of levels, from the root down, which are never evicted.
+	 *         Their pages must fit in the cache with room left for a path through the other levels,
+	 *         (cachePages - resident pages) / (levels below) window searches run in parallel
+	 * @return      the tree
+	 * @throws IOException if the file cannot be read or it is not a tree
+	 * @throws IllegalArgumentException if the cache cannot hold the resident pages and a path below them
+	 */
+	public static DiskRTree open(Path file, int cachePages, int residentLevels) throws IOException {
+
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(PagedRTree.MIN_PAGE_SIZE).order(PagedRTree.ORDER);
+			while(header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+				// read the first page, the header fits in the smallest page size
+			}
+			if(header.position() < PagedRTree.MIN_PAGE_SIZE) {
+				throw new IOException("not a paged rtree: " + file);
+			}
+			PagedRTree.checkHeader(header, channel.size(), file);
+			int pageSize = header.getInt(PagedRTree.HEADER_PAGE_SIZE);
+			int height = header.getInt(PagedRTree.HEADER_HEIGHT);
+			ByteBuffer level = ByteBuffer.allocate(4).order(PagedRTree.ORDER);
+			long rootLevelPosition = header.getLong(PagedRTree.HEADER_ROOT) * pageSize + PagedRTree.NODE_LEVEL;
+			while(level.hasRemaining() && channel.read(level, rootLevelPosition + level.position()) >= 0) {
+				// the level of the root page
+			}
+			if(level.hasRemaining() || level.getInt(0) != height) {
+				throw new IOException("corrupted paged rtree, root page not of height " + height + ": " + file);
+			}
+			int residentLevel = height - residentLevels + 1;
+			long resident = DiskRTree.residentPages(channel, header, residentLevel, cachePages);
+			// the pages of a path below the resident levels
+			int path = Math.max(residentLevel, 1);
+			if(cachePages - resident < path) {
+				throw new IllegalArgumentException("a cache of " + cachePages + " pages cannot hold the " + resident 
+						+ " resident pages and a path of " + path + " pages");
+			}
+			PageCache cache = new PageCache(channel, pageSize, cachePages, PagedRTree.ORDER);
+			return new DiskRTree(channel, cache, height, header.getLong(PagedRTree.HEADER_ROOT), residentLevel, 
+					(int) Math.min(Integer.MAX_VALUE, (cachePages - resident) / path));
+		} catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/*
+	 * The number of pages of the levels kept resident, counted up to limit.
+	 * The levels are written one after the other from the root, so they are the first pages
+	 */
+	private static long residentPages(FileChannel channel, ByteBuffer header, int residentLevel, int limit) 
+			throws IOException {
+		int pageSize = header.getInt(PagedRTree.HEADER_PAGE_SIZE);
+		long pages = header.getLong(PagedRTree.HEADER_PAGES);
+		ByteBuffer level = ByteBuffer.allocate(4).order(PagedRTree.ORDER);
+		long page;
+		for(page = header.getLong(PagedRTree.HEADER_ROOT); page < pages && page <= limit; page++) {
+			level.clear();
+			while(level.hasRemaining() && channel.read(level, page * pageSize + PagedRTree.NODE_LEVEL + level.position()) >= 0) {
+				// the level of the page
+			}
+			if(level.hasRemaining() || level.getInt(0) < residentLevel) {
+				break;
+			}
+		}
+		return page - header.getLong(PagedRTree.HEADER_ROOT);
+	}
+
+	/*
+	 * The cache of the pages, for its counters
+	 */
+	public PageCache cache() {
+		return cache;
+	}
+
+	/*
+	 * Pin the page of a node, keeping it resident if it belongs to the upper levels
+	 */
+	private ByteBuffer pin(long page) throws IOException {
+		ByteBuffer buffer = cache.pin(page);
+		if(buffer.getInt(PagedRTree.NODE_LEVEL) >= residentLevel) {
+			cache.keepResident(page);
+		}
+		return buffer;
+	}
+
+	/**
+	 *  This method search inside the tree for all the records inside a window.
+	 *  The borders of the window are included.
+	 *
+	 * @param  minLongitude the west border of the window
+	 * @param  minLatitude the south border of the window
+	 * @param  maxLongitude the east border of the window
+	 * @param  maxLatitude the north border of the window
+	 * @param  visitor the callback receiving the ids of the records
+	 * @return      false if the visitor stopped the search, true otherwise
+	 * @throws IOException if a page cannot be read
+	 */
+	public boolean searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude,
+			PayloadVisitor visitor) throws IOException {
+
+		int x0 = RTree.increaseUnit(minLongitude);
+		int y0 = RTree.increaseUnit(minLatitude);
+		int x1 = RTree.increaseUnit(maxLongitude);
+		int y1 = RTree.increaseUnit(maxLatitude);
+
+		paths.acquireUninterruptibly();
+		lock.readLock().lock();
+		try {
+			return this.searchWindow(rootPage, Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1), visitor);
+		} finally {
+			lock.readLock().unlock();
+			paths.release();
+		}
+	}
+
+	/*
+	 * Recursive part of the window search, the page is pinned while its entries are read
+	 */
+	private boolean searchWindow(long page, int x0, int y0, int x1, int y1, PayloadVisitor visitor) throws IOException {
+
+		ByteBuffer node = this.pin(page);
+		try {
+			boolean leaf = node.getInt(PagedRTree.NODE_LEVEL) == 0;
+			int limit = node.getInt(PagedRTree.NODE_COUNT);
+			int e = PagedRTree.NODE_ENTRIES;
+			int i;
+			for(i = 0; i < limit; i++, e += PagedRTree.ENTRY_SIZE) {
+				if(node.getInt(e + PagedRTree.ENTRY_MIN_X) <= x1 && x0 <= node.getInt(e + PagedRTree.ENTRY_MAX_X)
+						&& node.getInt(e + PagedRTree.ENTRY_MIN_Y) <= y1 && y0 <= node.getInt(e + PagedRTree.ENTRY_MAX_Y)) {
+					long child = node.getLong(e + PagedRTree.ENTRY_CHILD);
+					if(leaf) {
+						if(!visitor.visit(child)) {
+							return false;
+						}
+					} else if(!this.searchWindow(child, x0, y0, x1, y1, visitor)) {
+						return false;
+					}
+				}
+			}
+			return true;
+		} finally {
+			cache.unpin(page, false);
+		}
+	}
+
+	/**
+	 *  This method search the k records closest to a point, see RTree.nearest
+	 *
+	 * @param  longitude the longitude of the point
+	 * @param  latitude the latitude of the point
+	 * @param  k the number of records to return
+	 * @return      the ids of at most k records, the closest first
+	 * @throws IOException if a page cannot be read
+	 */
+	public long[] nearest(double longitude, double latitude, int k) throws IOException {
+
+		if(k <= 0) {
+			return new long[0];
+		}
+
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		double xScale = Math.cos(Math.toRadians(latitude));
+
+		long[] result = new long[k];
+		int found = 0;
+		PriorityQueue<RTree.NearestEntry> queue = new PriorityQueue<RTree.NearestEntry>();
+		queue.add(new RTree.NearestEntry(rootPage, false, 0));
+
+		lock.readLock().lock();
+		try {
+			while(!queue.isEmpty()) {
+
+				RTree.NearestEntry entry = queue.poll();
+				long item = (Long) entry.item;
+
+				// a record comes out of the queue only when nothing left in the queue can be closer
+				if(entry.isRecord) {
+					result[found++] = item;
+					if(found == k) {
+						break;
+					}
+					continue;
+				}
+
+				ByteBuffer node = this.pin(item);
+				try {
+					boolean leaf = node.getInt(PagedRTree.NODE_LEVEL) == 0;
+					int limit = node.getInt(PagedRTree.NODE_COUNT);
+					int e = PagedRTree.NODE_ENTRIES;
+					int i;
+					for(i = 0; i < limit; i++, e += PagedRTree.ENTRY_SIZE) {
+						long dx = 0;
+						if(x < node.getInt(e + PagedRTree.ENTRY_MIN_X)) {
+							dx = (long)node.getInt(e + PagedRTree.ENTRY_MIN_X) - x;
+						} else if(x > node.getInt(e + PagedRTree.ENTRY_MAX_X)) {
+							dx = (long)x - node.getInt(e + PagedRTree.ENTRY_MAX_X);
+						}
+						long dy = 0;
+						if(y < node.getInt(e + PagedRTree.ENTRY_MIN_Y)) {
+							dy = (long)node.getInt(e + PagedRTree.ENTRY_MIN_Y) - y;
+						} else if(y > node.getInt(e + PagedRTree.ENTRY_MAX_Y)) {
+							dy = (long)y - node.getInt(e + PagedRTree.ENTRY_MAX_Y);
+						}
+						double scaledX = dx * xScale;
+						queue.add(new RTree.NearestEntry(node.getLong(e + PagedRTree.ENTRY_CHILD), leaf,
+								scaledX * scaledX + (double)dy * dy));
+					}
+				} finally {
+					cache.unpin(item, false);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		if(found < k) {
+			long[] fewer = new long[found];
+			System.arraycopy(result, 0, fewer, 0, found);
+			return fewer;
+		}
+		return result;
+	}
+
+	/**
+	 *  Delete a record from the tree
+	 *
+	 * @param  id the id the record has been written with
+	 * @param  longitude the longitude of the record
+	 * @param  latitude the latitude of the record
+	 * @return      true if the record was found and deleted
+	 * @throws IOException if a page cannot be read
+	 */
+	public boolean delete(long id, double longitude, double latitude) throws IOException {
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		lock.writeLock().lock();
+		try {
+			return this.delete(rootPage, id, x, y);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private boolean delete(long page, long id, int x, int y) throws IOException {
+
+		ByteBuffer node = this.pin(page);
+		boolean modified = false;
+		try {
+			boolean leaf = node.getInt(PagedRTree.NODE_LEVEL) == 0;
+			int limit = node.getInt(PagedRTree.NODE_COUNT);
+			int e = PagedRTree.NODE_ENTRIES;
+			int i;
+			for(i = 0; i < limit; i++, e += PagedRTree.ENTRY_SIZE) {
+				if(node.getInt(e + PagedRTree.ENTRY_MIN_X) <= x && x <= node.getInt(e + PagedRTree.ENTRY_MAX_X)
+						&& node.getInt(e + PagedRTree.ENTRY_MIN_Y) <= y && y <= node.getInt(e + PagedRTree.ENTRY_MAX_Y)) {
+					long child = node.getLong(e + PagedRTree.ENTRY_CHILD);
+					if(leaf) {
+						if(child == id) {
+							// the last entry takes the place of the deleted one
+							int last = PagedRTree.NODE_ENTRIES + (limit - 1) * PagedRTree.ENTRY_SIZE;
+							int j;
+							for(j = 0; j < PagedRTree.ENTRY_SIZE; j += 4) {
+								node.putInt(e + j, node.getInt(last + j));
+							}
+							node.putInt(PagedRTree.NODE_COUNT, limit - 1);
+							modified = true;
+							deleted++;
+							return true;
+						}
+					} else if(this.delete(child, id, x, y)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		} finally {
+			cache.unpin(page, modified);
+		}
+	}
+
+	/*
+	 * Write back the deleted records and close the file
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			if(deleted > 0) {
+				ByteBuffer header = cache.pin(0);
+				header.putLong(PagedRTree.HEADER_RECORDS, header.getLong(PagedRTree.HEADER_RECORDS) - deleted);
+				cache.unpin(0, true);
+				deleted = 0;
+			}
+			cache.flush();
+			channel.close();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+}
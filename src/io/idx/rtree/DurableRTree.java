@@ -0,0 +1,376 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * RTree which survives a crash: every insert and delete is written to a WriteAheadLog
+ * before it is applied to the tree, which stays in memory and answers the searches.
+ *
+ * The directory holds generations of a snapshot and a log:
+ *   snapshot-<g>   image of the tree written by RTree.writeTo, missing for generation 0
+ *   log-<g>        changes made after the snapshot of the same generation
+ * Opening the tree loads the most recent snapshot and replays its log.
+ * A checkpoint writes and fsyncs the snapshot of the next generation, starts its empty log
+ * and fsyncs the directory after the rename of the snapshot, only then the old generation is deleted:
+ * a crash at any point leaves a snapshot and a log which agree.
+ *
+ * The tree is concurrent, the threads adding and deleting at the same time share the fsyncs
+ * of the log (group commit), then they apply their changes in the order of the log,
+ * so the tree is always the one a recovery would rebuild. The records are compared with equals when a delete is replayed,
+ * so the codec must read back records equal to the ones written.
+ */
+public class DurableRTree<T> implements Closeable {
+
+	private final static String SNAPSHOT = "snapshot-";
+	private final static String LOG = "log-";
+	private final static byte ADD = 1;
+	private final static byte DELETE = 2;
+
+	private final Path directory;
+	private final PayloadCodec<T> codec;
+	private final RTree<T> tree;
+	private WriteAheadLog log;
+	private long generation;
+	// shared by the changes, exclusive for a checkpoint
+	private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+	// the changes are applied to the tree in the order of the log: applied is the sequence
+	// of the last one applied, in the current log
+	private final ReentrantLock turnLock = new ReentrantLock();
+	private final Condition turn = turnLock.newCondition();
+	private long applied;
+
+
+	private DurableRTree(Path directory, PayloadCodec<T> codec, RTree<T> tree, long generation) {
+		this.directory = directory;
+		this.codec = codec;
+		this.tree = tree;
+		this.generation = generation;
+	}
+
+	/**
+	 *  Open the tree stored in a directory, recovering the changes of the log.
+	 *  The directory is created if it does not exist
+	 *
+	 * @param  directory the directory of the snapshots and of the logs
+	 * @param  nodeMaxSize the size of the nodes if there is no snapshot yet
+	 * @param  codec writes and reads the records
+	 * @return      the tree
+	 * @throws IOException if the directory cannot be read
+	 */
+	public static <T> DurableRTree<T> open(Path directory, int nodeMaxSize, PayloadCodec<T> codec) throws IOException {
+
+		Files.createDirectories(directory);
+		long generation = DurableRTree.lastGeneration(directory);
+
+		RTree<T> tree;
+		Path snapshot = directory.resolve(SNAPSHOT + generation);
+		if(Files.exists(snapshot)) {
+			InputStream in = Files.newInputStream(snapshot);
+			try {
+				tree = RTree.readFrom(in, codec, null, true);
+			} finally {
+				in.close();
+			}
+		} else {
+			tree = new RTree<T>(nodeMaxSize, null, true);
+		}
+
+		DurableRTree<T> durable = new DurableRTree<T>(directory, codec, tree, generation);
+		long length = durable.replay(directory.resolve(LOG + generation));
+		durable.log = new WriteAheadLog(directory.resolve(LOG + generation), length);
+		try {
+			// the log may have just been created
+			durable.syncDirectory();
+		} catch(IOException e) {
+			durable.log.close();
+			throw e;
+		}
+		durable.deleteBefore(generation);
+		return durable;
+	}
+
+	/*
+	 * The generation of the most recent snapshot, 0 if there is none
+	 */
+	private static long lastGeneration(Path directory) throws IOException {
+		long generation = 0;
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory, SNAPSHOT + "*");
+		try {
+			for(Path file : files) {
+				try {
+					generation = Math.max(generation, Long.parseLong(file.getFileName().toString().substring(SNAPSHOT.length())));
+				} catch(NumberFormatException e) {
+					// not a snapshot, a temporary file of a checkpoint which did not complete
+				}
+			}
+		} finally {
+			files.close();
+		}
+		return generation;
+	}
+
+	/*
+	 * Apply the valid entries of the log to the tree, return the length of the valid part
+	 */
+	private long replay(Path file) throws IOException {
+		if(!Files.exists(file)) {
+			return 0;
+		}
+		long size = Files.size(file);
+		long length = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), TreeImage.BUFFER_SIZE));
+		try {
+			byte[] body;
+			while((body = WriteAheadLog.read(in, size - length)) != null) {
+				DataInputStream entry = new DataInputStream(new ByteArrayInputStream(body));
+				byte operation = entry.readByte();
+				double longitude = entry.readDouble();
+				double latitude = entry.readDouble();
+				T record = codec.read(entry);
+				if(operation == ADD) {
+					tree.addIndex(record, longitude, latitude);
+				} else {
+					tree.delete(record, longitude, latitude);
+				}
+				length += WriteAheadLog.entrySize(body);
+			}
+		} finally {
+			in.close();
+		}
+		return length;
+	}
+
+	/**
+	 *  Add a record to the tree, when it returns the record is in the log
+	 *
+	 * @param  record the object to index
+	 * @param  longitude the longitude of the record
+	 * @param  latitude the latitude of the record
+	 * @return      void
+	 * @throws IOException if the log cannot be written, the record is not added
+	 */
+	public void addIndex(T record, double longitude, double latitude) throws IOException {
+		checkpointLock.readLock().lock();
+		try {
+			long sequence = log.append(this.entry(ADD, record, longitude, latitude));
+			this.awaitTurn(sequence);
+			try {
+				tree.addIndex(record, longitude, latitude);
+			} finally {
+				this.applied(sequence);
+			}
+		} finally {
+			checkpointLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 *  Delete a record from the tree, when it returns the delete is in the log
+	 *
+	 * @param  record the object to delete
+	 * @param  longitude the longitude the record has been added with
+	 * @param  latitude the latitude the record has been added with
+	 * @return      true if the record was found and deleted
+	 * @throws IOException if the log cannot be written, the record is not deleted
+	 */
+	public boolean delete(T record, double longitude, double latitude) throws IOException {
+		checkpointLock.readLock().lock();
+		try {
+			long sequence = log.append(this.entry(DELETE, record, longitude, latitude));
+			this.awaitTurn(sequence);
+			try {
+				return tree.delete(record, longitude, latitude);
+			} finally {
+				this.applied(sequence);
+			}
+		} finally {
+			checkpointLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Wait until the changes logged before the entry of the given sequence are applied.
+	 * The entries before a durable one are durable too, so their threads are applying them
+	 */
+	private void awaitTurn(long sequence) {
+		turnLock.lock();
+		try {
+			while(applied < sequence - 1) {
+				turn.awaitUninterruptibly();
+			}
+		} finally {
+			turnLock.unlock();
+		}
+	}
+
+	// the change of the given sequence is applied, or failed, the next one can go
+	private void applied(long sequence) {
+		turnLock.lock();
+		try {
+			applied = sequence;
+			turn.signalAll();
+		} finally {
+			turnLock.unlock();
+		}
+	}
+
+	private byte[] entry(byte operation, T record, double longitude, double latitude) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(operation);
+		out.writeDouble(longitude);
+		out.writeDouble(latitude);
+		codec.write(out, record);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 *  Write a snapshot of the tree and start an empty log, so the next recovery does not replay
+	 *  the changes made so far. The changes wait for the end of the checkpoint,
+	 *  the searches of the tree go on while the snapshot is written
+	 *
+	 * @return      void
+	 * @throws IOException if the snapshot cannot be written, the current generation stays in use
+	 */
+	public void checkpoint() throws IOException {
+		checkpointLock.writeLock().lock();
+		try {
+			long next = generation + 1;
+			Path temporary = directory.resolve(SNAPSHOT + next + ".tmp");
+			FileChannel snapshot = FileChannel.open(temporary, StandardOpenOption.CREATE, 
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			try {
+				tree.writeTo(Channels.newOutputStream(snapshot), codec);
+				// the snapshot is on disk before its name can make it the one recovered
+				snapshot.force(true);
+			} finally {
+				snapshot.close();
+			}
+			WriteAheadLog nextLog = new WriteAheadLog(directory.resolve(LOG + next), 0);
+			try {
+				// the rename makes the new generation the one recovered
+				Files.move(temporary, directory.resolve(SNAPSHOT + next), StandardCopyOption.ATOMIC_MOVE);
+				// the rename and the new log are on disk before the old generation goes
+				this.syncDirectory();
+			} catch(IOException e) {
+				nextLog.close();
+				throw e;
+			}
+			log.close();
+			log = nextLog;
+			// no change is running, the sequences of the new log start again
+			applied = 0;
+			generation = next;
+			this.deleteBefore(generation);
+		} finally {
+			checkpointLock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * Write the entries of the directory to disk, so the files created or renamed survive a crash
+	 */
+	private void syncDirectory() throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(directory, StandardOpenOption.READ);
+		} catch(IOException e) {
+			// some systems cannot open a directory, their renames are durable when they return
+			return;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	// delete the snapshots and the logs of the older generations
+	private void deleteBefore(long generation) throws IOException {
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+		try {
+			for(Path file : files) {
+				String name = file.getFileName().toString();
+				String number;
+				if(name.startsWith(SNAPSHOT)) {
+					number = name.substring(SNAPSHOT.length());
+				} else if(name.startsWith(LOG)) {
+					number = name.substring(LOG.length());
+				} else {
+					continue;
+				}
+				if(number.endsWith(".tmp")) {
+					number = number.substring(0, number.length() - 4);
+				}
+				try {
+					if(Long.parseLong(number) < generation || name.endsWith(".tmp")) {
+						Files.delete(file);
+					}
+				} catch(NumberFormatException e) {
+					// not a file of the tree
+				}
+			}
+		} finally {
+			files.close();
+		}
+	}
+
+	/*
+	 * The tree in memory, for the searches.
+	 * The changes made directly on it are not logged
+	 */
+	public RTree<T> tree() {
+		return tree;
+	}
+
+	/*
+	 * The log of the current generation
+	 */
+	WriteAheadLog log() {
+		return log;
+	}
+
+	@Override
+	public void close() throws IOException {
+		checkpointLock.writeLock().lock();
+		try {
+			log.close();
+		} finally {
+			checkpointLock.writeLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+/*
+ * Great circle distances on the Earth, in meters.
+ *
+ * The bounding boxes are in the integer units of RTree.increaseUnit
+ * (1 unit = 1 / UNITS_PER_DEGREE of degree), X is the longitude and Y is the latitude.
+ */
+public final class GeoDistance {
+
+	// mean radius of the Earth in meters
+	public final static double EARTH_RADIUS = 6371008.8;
+
+	// the same scale used by RTree.increaseUnit
+	public final static double UNITS_PER_DEGREE = 100000;
+
+	private GeoDistance() {
+	}
+
+	/**
+	 *  Haversine distance between 2 points
+	 *
+	 * @param  latitude1 latitude of the first point, in degrees
+	 * @param  longitude1 longitude of the first point, in degrees
+	 * @param  latitude2 latitude of the second point, in degrees
+	 * @param  longitude2 longitude of the second point, in degrees
+	 * @return      the distance in meters
+	 */
+	public static double haversine(double latitude1, double longitude1, double latitude2, double longitude2) {
+		return haversineRadians(Math.toRadians(latitude1), Math.toRadians(longitude1),
+				Math.toRadians(latitude2), Math.toRadians(longitude2));
+	}
+
+	/*
+	 * Haversine distance in meters, the coordinates are in radians
+	 */
+	static double haversineRadians(double lat1, double lon1, double lat2, double lon2) {
+		double sinLat = Math.sin((lat2 - lat1) / 2);
+		double sinLon = Math.sin((lon2 - lon1) / 2);
+		double h = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon;
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(h)));
+	}
+
+	/**
+	 *  Minimum great circle distance between a point and the points of a bounding box.
+	 *  Used to prune the subtrees which cannot contain a point close enough:
+	 *  the result is never bigger than the real distance of any point inside the box
+	 *
+	 * @param  latitude latitude of the point, in degrees
+	 * @param  longitude longitude of the point, in degrees
+	 * @param  minX west border of the box, in units
+	 * @param  minY south border of the box, in units
+	 * @param  maxX east border of the box, in units
+	 * @param  maxY north border of the box, in units
+	 * @return      the distance in meters, 0 if the point is inside the box
+	 */
+	public static double minDistance(double latitude, double longitude, int minX, int minY, int maxX, int maxY) {
+
+		double lat = Math.toRadians(latitude);
+		double lon = Math.toRadians(longitude);
+		double lat0 = unitToRadians(minY);
+		double lat1 = unitToRadians(maxY);
+		double lon0 = unitToRadians(minX);
+		double lon1 = unitToRadians(maxX);
+
+		// distance along the meridian of the point, it is a lower bound for any point of the box
+		double latGap = 0;
+		if(lat < lat0) {
+			latGap = lat0 - lat;
+		} else if(lat > lat1) {
+			latGap = lat - lat1;
+		}
+
+		if(lon0 <= lon && lon <= lon1) {
+			// the closest point of the box is on the meridian of the point
+			return EARTH_RADIUS * latGap;
+		}
+
+		// the closest point is on the closest of the 2 border meridians,
+		// the difference of longitude is taken around the date line as well
+		double gap0 = circularGap(lon, lon0);
+		double gap1 = circularGap(lon, lon1);
+		double lonGap = Math.min(gap0, gap1);
+
+		// on the meridian at lonGap from the point the distance is minimum at this latitude
+		// and it grows going away from it, so the minimum inside the box is there or on a corner
+		double closestLat = Math.atan2(Math.sin(lat), Math.cos(lat) * Math.cos(lonGap));
+		if(lat0 <= closestLat && closestLat <= lat1) {
+			return haversineRadians(lat, 0, closestLat, lonGap);
+		}
+		return Math.min(haversineRadians(lat, 0, lat0, lonGap), haversineRadians(lat, 0, lat1, lonGap));
+	}
+
+	/*
+	 * Bounding box in units of the circle of the given radius in meters around the point,
+	 * as minX, minY, maxX, maxY
+	 */
+	static int[] boundingBox(double longitude, double latitude, double meters) {
+		
+		// http://janmatuschek.de/LatitudeLongitudeBoundingCoordinates
+		double angularRadius = meters / EARTH_RADIUS;
+		double radiusDegrees = Math.toDegrees(angularRadius);
+		double minLatitude = latitude - radiusDegrees;
+		double maxLatitude = latitude + radiusDegrees;
+		double minLongitude = -180;
+		double maxLongitude = 180;
+		
+		// if the circle contains a pole, or crosses the date line, all the longitudes are in
+		if(minLatitude > -90 && maxLatitude < 90) {
+			double deltaLongitude = Math.toDegrees(Math.asin(Math.sin(angularRadius) / Math.cos(Math.toRadians(latitude))));
+			if(longitude - deltaLongitude >= -180 && longitude + deltaLongitude <= 180) {
+				minLongitude = longitude - deltaLongitude;
+				maxLongitude = longitude + deltaLongitude;
+			}
+		}
+		
+		// round outward, so the box never misses a point because of the integer units
+		int x0 = (int)Math.floor(minLongitude * UNITS_PER_DEGREE);
+		int y0 = (int)Math.floor(Math.max(minLatitude, -90) * UNITS_PER_DEGREE);
+		int x1 = (int)Math.ceil(maxLongitude * UNITS_PER_DEGREE);
+		int y1 = (int)Math.ceil(Math.min(maxLatitude, 90) * UNITS_PER_DEGREE);
+		
+		
+		return new int[] {x0, y0, x1, y1};
+	}
+
+	/*
+	 * Longitude difference in radians between 0 and PI
+	 */
+	private static double circularGap(double lon1, double lon2) {
+		double d = Math.abs(lon1 - lon2) % (2 * Math.PI);
+		return d > Math.PI ? 2 * Math.PI - d : d;
+	}
+
+	static double unitToRadians(int value) {
+		return Math.toRadians(value / UNITS_PER_DEGREE);
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+/*
+ * Position of a point along the Hilbert curve.
+ * Points which are close on the curve are close in space, so sorting by this value
+ * keeps the entries of a node spatially compact.
+ *
+ * The coordinates are the integer units of RTree.increaseUnit:
+ * the longitude (-180 ... 180) and the latitude (-90 ... 90) are shifted to be positive
+ * and fit in ORDER bits each, so the value fits in a long.
+ */
+public final class HilbertCurve {
+
+	// bits per coordinate, 2^26 > 360 * 100000
+	public final static int ORDER = 26;
+
+	private final static int SIDE = 1 << ORDER;
+	private final static int X_OFFSET = 180 * 100000;
+	private final static int Y_OFFSET = 90 * 100000;
+
+	private HilbertCurve() {
+	}
+
+	/**
+	 *  Hilbert value of a point
+	 *
+	 * @param  x the longitude in units
+	 * @param  y the latitude in units
+	 * @return      the distance of the point from the beginning of the curve
+	 */
+	public static long index(int x, int y) {
+
+		x = clamp(x + X_OFFSET);
+		y = clamp(y + Y_OFFSET);
+
+		long d = 0;
+		int s;
+		for(s = SIDE >> 1; s > 0; s >>= 1) {
+			int rx = (x & s) != 0 ? 1 : 0;
+			int ry = (y & s) != 0 ? 1 : 0;
+			d += (long)s * s * ((3 * rx) ^ ry);
+
+			// rotate the quadrant, so the curve is continuous
+			if(ry == 0) {
+				if(rx == 1) {
+					x = SIDE - 1 - x;
+					y = SIDE - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	/*
+	 * Hilbert value of the center of a box
+	 */
+	public static long index(int minX, int minY, int maxX, int maxY) {
+		return index((int)(((long)minX + maxX) >> 1), (int)(((long)minY + maxY) >> 1));
+	}
+
+	private static int clamp(int value) {
+		if(value < 0) {
+			return 0;
+		}
+		if(value >= SIDE) {
+			return SIDE - 1;
+		}
+		return value;
+	}
+}
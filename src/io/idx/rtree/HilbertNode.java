@@ -0,0 +1,112 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+
+/*
+ * Node of the HilbertRTree
+ * 
+ * Next to the bounding boxes every entry has a Hilbert value:
+ * the value of the record for the leaves, the largest Hilbert value (LHV) of the child
+ * for the other nodes. The entries are kept sorted by this value, so unlike Node
+ * the entries are inserted and removed by shifting the arrays.
+ */
+public class HilbertNode extends Node {
+	
+	public final long[] hilbert;
+	
+	
+	public HilbertNode(int nodeMaxSize, int nodeMinSize, int level, Node rootNode) {
+		super(nodeMaxSize, nodeMinSize, level, rootNode);
+		this.hilbert = new long[nodeMaxSize + 1];
+	}
+	
+	/*
+	 * Largest Hilbert value of the node, the one of the last entry
+	 */
+	public long largestHilbert() {
+		return hilbert[size() - 1];
+	}
+	
+	/*
+	 * Position where an entry with the given Hilbert value has to be inserted
+	 * after the entries with the same value
+	 */
+	public int position(long h) {
+		int low = 0;
+		int high = size();
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(hilbert[mid] <= h) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	/*
+	 * Insert an entry at the sorted position of its Hilbert value
+	 * and return its index
+	 */
+	public int insert(int minX, int minY, int maxX, int maxY, long h, Object child) {
+		int i = this.position(h);
+		int last = this.add(minX, minY, maxX, maxY, child);
+		
+		// shift the entries after i one place to the right
+		int length = last - i;
+		System.arraycopy(this.minX, i, this.minX, i + 1, length);
+		System.arraycopy(this.minY, i, this.minY, i + 1, length);
+		System.arraycopy(this.maxX, i, this.maxX, i + 1, length);
+		System.arraycopy(this.maxY, i, this.maxY, i + 1, length);
+		System.arraycopy(this.hilbert, i, this.hilbert, i + 1, length);
+		System.arraycopy(this.children, i, this.children, i + 1, length);
+		
+		this.minX[i] = minX;
+		this.minY[i] = minY;
+		this.maxX[i] = maxX;
+		this.maxY[i] = maxY;
+		this.hilbert[i] = h;
+		this.children[i] = child;
+		return i;
+	}
+	
+	/*
+	 * Remove the entry at index i keeping the order of the others
+	 */
+	@Override
+	public void remove(int i) {
+		int length = size() - i - 1;
+		System.arraycopy(this.minX, i + 1, this.minX, i, length);
+		System.arraycopy(this.minY, i + 1, this.minY, i, length);
+		System.arraycopy(this.maxX, i + 1, this.maxX, i, length);
+		System.arraycopy(this.maxY, i + 1, this.maxY, i, length);
+		System.arraycopy(this.hilbert, i + 1, this.hilbert, i, length);
+		System.arraycopy(this.children, i + 1, this.children, i, length);
+		// the last entry is now a copy, drop it
+		super.remove(size() - 1);
+	}
+	
+	/*
+	 * Set the bounding box and the Hilbert value of the entry i from the child node
+	 */
+	public void setEntry(int i, HilbertNode child) {
+		this.setBounds(i, child);
+		this.hilbert[i] = child.largestHilbert();
+	}
+}
@@ -0,0 +1,404 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+import io.idx.RecordVisitor;
+import io.idx.SpatialIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/*
+ * Reference for the implementation:
+ * Kamel, Faloutsos - Hilbert R-tree: An Improved R-tree Using Fractals
+ *
+ * The records are ordered by the Hilbert value of their coordinates,
+ * so the leaf of a new record is found by its Hilbert value instead of
+ * computing the enlargement of every entry.
+ * An overflowing node first gives entries to a sibling (2 to 2), only when
+ * the sibling is full as well the 2 nodes are split in 3 (2 to 3 split).
+ * The nodes are therefore about 2/3 full or more even with continuous inserts.
+ *
+ * The searches are the same of the RTree, because the nodes are R-tree nodes.
+ */
+
+public class HilbertRTree<T> implements SpatialIndex<T> {
+
+	// parameters of the tree
+	private final static int DEFAULT_MAX_NODE_ENTRIES = 50;
+	private int nodeMaxSize;
+	private int nodeMinSize;
+	private HilbertNode rootNode;
+	private final int leafLevel = 0;
+
+
+	// constructor which initialize the object
+	public HilbertRTree(int nodeMaxSize) {
+		if(nodeMaxSize <= 5) {
+			this.nodeMaxSize = DEFAULT_MAX_NODE_ENTRIES;
+		} else {
+			this.nodeMaxSize = nodeMaxSize;
+		}
+		nodeMinSize = (int)(this.nodeMaxSize * 0.45);
+		rootNode = new HilbertNode(this.nodeMaxSize, nodeMinSize, leafLevel, null);
+	}
+
+	/**
+	 *  This method search inside the tree for a point
+	 *
+	 * @param  longitude the longitude of the point
+	 * @param  latitude the latitude of the point
+	 * @return      a list of indexed records stored in the tree
+	 */
+	public List<T> search(double longitude, double latitude) {
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		final List<T> result = new ArrayList<T>();
+		RTree.searchWindow(rootNode, x, y, x, y, new RecordVisitor<T>() {
+			@Override
+			public boolean visit(T record) {
+				result.add(record);
+				return true;
+			}
+		});
+		return result;
+	}
+
+	/**
+	 *  This method search inside the tree for all the records inside a window.
+	 *  The borders of the window are included.
+	 *
+	 * @param  minLongitude the west border of the window
+	 * @param  minLatitude the south border of the window
+	 * @param  maxLongitude the east border of the window
+	 * @param  maxLatitude the north border of the window
+	 * @param  visitor the callback receiving the records
+	 * @return      false if the visitor stopped the search, true otherwise
+	 */
+	public boolean searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude,
+			RecordVisitor<? super T> visitor) {
+
+		int x0 = RTree.increaseUnit(minLongitude);
+		int y0 = RTree.increaseUnit(minLatitude);
+		int x1 = RTree.increaseUnit(maxLongitude);
+		int y1 = RTree.increaseUnit(maxLatitude);
+
+		return RTree.searchWindow(rootNode, Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1), visitor);
+	}
+
+	/**
+	 *  This method search the k records closest to a point, see RTree.nearest
+	 *
+	 * @param  longitude the longitude of the point
+	 * @param  latitude the latitude of the point
+	 * @param  k the number of records to return
+	 * @return      at most k records, the closest first
+	 */
+	public List<T> nearest(double longitude, double latitude, int k) {
+		return RTree.nearest(rootNode, longitude, latitude, k);
+	}
+
+	/**
+	 *  This method search all the records within a great circle distance from a point, see RTree.withinDistance
+	 *
+	 * @param  longitude the longitude of the center
+	 * @param  latitude the latitude of the center
+	 * @param  meters the radius of the circle, in meters
+	 * @param  visitor the callback receiving the records
+	 * @return      false if the visitor stopped the search, true otherwise
+	 */
+	public boolean withinDistance(double longitude, double latitude, double meters, RecordVisitor<? super T> visitor) {
+		return RTree.withinDistance(rootNode, longitude, latitude, meters, visitor);
+	}
+
+	/**
+	 *  Add a record to the tree.
+	 *
+	 * @param  record the object you want to store
+	 * @param  longitude the longitude associated with the record
+	 * @param  latitude the latitude associated with the record
+	 * @return      void
+	 */
+	public void addIndex(T record, double longitude, double latitude) {
+
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		long h = HilbertCurve.index(x, y);
+
+		// [I1] find the leaf by the Hilbert value
+		HilbertNode leaf = this.chooseLeaf(rootNode, h);
+
+		// [I2] insert the record in the leaf, in Hilbert order
+		leaf.insert(x, y, x, y, h, record);
+
+		// [I3] handle the overflow and propagate the changes upward
+		if(leaf.size() > nodeMaxSize) {
+			this.handleOverflow(leaf);
+		} else {
+			this.adjustTree(leaf);
+		}
+	}
+
+	/**
+	 *  Delete a record from the tree.
+	 *
+	 * @param  record the object you want to delete
+	 * @param  longitude the longitude the record has been added with
+	 * @param  latitude the latitude the record has been added with
+	 * @return      true if the record has been found and deleted
+	 */
+	public boolean delete(T record, double longitude, double latitude) {
+
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+
+		HilbertNode leaf = this.findLeaf(rootNode, record, x, y);
+		if(leaf == null) {
+			return false;
+		}
+		leaf.remove(this.indexOf(leaf, record, x, y));
+
+		if(leaf != rootNode && leaf.size() < nodeMinSize) {
+			this.handleUnderflow(leaf);
+		} else {
+			this.adjustTree(leaf);
+		}
+
+		// shorten the tree
+		while(!rootNode.isLeaf && rootNode.size() == 1) {
+			HilbertNode child = (HilbertNode) rootNode.children[0];
+			child.setRootNode(null);
+			rootNode = child;
+		}
+		return true;
+	}
+
+	/*
+	 * Choose Leaf:
+	 * in every node take the first entry with a largest Hilbert value bigger than h,
+	 * or the last entry if there is none
+	 */
+	private HilbertNode chooseLeaf(HilbertNode node, long h) {
+		while(!node.isLeaf) {
+			int i = node.position(h);
+			if(i == node.size()) {
+				i--;
+			} else if(i > 0 && node.hilbert[i - 1] == h) {
+				// equal values go in the node ending with them
+				i--;
+			}
+			node = (HilbertNode) node.children[i];
+		}
+		return node;
+	}
+
+	/*
+	 * The node n has MAX ENTRIES + 1 entries:
+	 * share the entries with its cooperating sibling, if both are full split them in 3
+	 */
+	private void handleOverflow(HilbertNode n) {
+
+		HilbertNode parent = (HilbertNode) n.getRootNode();
+		if(parent == null) {
+			// the root overflows: grow the tree and the root becomes a normal node
+			parent = new HilbertNode(nodeMaxSize, nodeMinSize, n.level + 1, null);
+			parent.add(0, 0, 0, 0, n);
+			parent.setEntry(0, n);
+			n.setRootNode(parent);
+			rootNode = parent;
+		}
+
+		// the cooperating sibling is the next one, or the previous for the last node
+		int i = parent.indexOf(n);
+		int first = i;
+		int count = 1;
+		if(parent.size() > 1) {
+			first = i + 1 < parent.size() ? i : i - 1;
+			count = 2;
+		}
+
+		int total = 0;
+		int j;
+		for(j = first; j < first + count; j++) {
+			total += ((Node) parent.children[j]).size();
+		}
+
+		if(total > count * nodeMaxSize) {
+			// all the cooperating nodes are full, add a new node after them
+			HilbertNode newNode = new HilbertNode(nodeMaxSize, nodeMinSize, n.level, parent);
+			this.insertAt(parent, first + count, newNode);
+			count++;
+		}
+
+		this.redistribute(parent, first, count);
+
+		if(parent.size() > nodeMaxSize) {
+			this.handleOverflow(parent);
+		} else {
+			this.adjustTree(parent);
+		}
+	}
+
+	/*
+	 * The node n has less than MIN ENTRIES entries:
+	 * take entries from its cooperating sibling, if there are not enough merge the 2 nodes
+	 */
+	private void handleUnderflow(HilbertNode n) {
+
+		HilbertNode parent = (HilbertNode) n.getRootNode();
+		int i = parent.indexOf(n);
+		if(parent.size() == 1) {
+			// no sibling, the node stays as it is and the tree will be shortened
+			this.adjustTree(n);
+			return;
+		}
+
+		int first = i + 1 < parent.size() ? i : i - 1;
+		HilbertNode left = (HilbertNode) parent.children[first];
+		HilbertNode right = (HilbertNode) parent.children[first + 1];
+
+		if(left.size() + right.size() <= nodeMaxSize) {
+			// merge the right node in the left one
+			int j;
+			for(j = 0; j < right.size(); j++) {
+				this.append(left, right, j);
+			}
+			parent.remove(first + 1);
+			right.setRootNode(null);
+			parent.setEntry(first, left);
+		} else {
+			this.redistribute(parent, first, 2);
+		}
+
+		if(parent != rootNode && parent.size() < nodeMinSize) {
+			this.handleUnderflow(parent);
+		} else {
+			this.adjustTree(parent);
+		}
+	}
+
+	/*
+	 * Spread evenly the entries of count children of the parent, starting from the child first
+	 * the entries keep their Hilbert order
+	 */
+	private void redistribute(HilbertNode parent, int first, int count) {
+
+		// collect the entries, they are already in Hilbert order across the nodes
+		HilbertNode all = new HilbertNode(count * (nodeMaxSize + 1), 0, parent.level - 1, null);
+		int j;
+		for(j = first; j < first + count; j++) {
+			HilbertNode node = (HilbertNode) parent.children[j];
+			int k;
+			for(k = 0; k < node.size(); k++) {
+				this.append(all, node, k);
+			}
+			node.clear();
+		}
+
+		int total = all.size();
+		int offset = 0;
+		for(j = 0; j < count; j++) {
+			HilbertNode node = (HilbertNode) parent.children[first + j];
+			int size = total / count + (j < total % count ? 1 : 0);
+			int k;
+			for(k = offset; k < offset + size; k++) {
+				this.append(node, all, k);
+			}
+			offset += size;
+			parent.setEntry(first + j, node);
+		}
+	}
+
+	/*
+	 * Append the entry i of the node from to the node n, the order must be kept by the caller
+	 */
+	private void append(HilbertNode n, HilbertNode from, int i) {
+		int k = n.add(from.minX[i], from.minY[i], from.maxX[i], from.maxY[i], from.children[i]);
+		n.hilbert[k] = from.hilbert[i];
+		if(!from.isLeaf) {
+			((Node) from.children[i]).setRootNode(n);
+		}
+	}
+
+	/*
+	 * Insert a child at the index i of the parent
+	 */
+	private void insertAt(HilbertNode parent, int i, HilbertNode child) {
+		int last = parent.add(0, 0, 0, 0, child);
+		int length = last - i;
+		System.arraycopy(parent.minX, i, parent.minX, i + 1, length);
+		System.arraycopy(parent.minY, i, parent.minY, i + 1, length);
+		System.arraycopy(parent.maxX, i, parent.maxX, i + 1, length);
+		System.arraycopy(parent.maxY, i, parent.maxY, i + 1, length);
+		System.arraycopy(parent.hilbert, i, parent.hilbert, i + 1, length);
+		System.arraycopy(parent.children, i, parent.children, i + 1, length);
+		parent.children[i] = child;
+	}
+
+	/*
+	 * Recalculate the bounding boxes and the largest Hilbert values from the node n up to the root
+	 */
+	private void adjustTree(HilbertNode n) {
+		HilbertNode parent = (HilbertNode) n.getRootNode();
+		while(parent != null) {
+			if(n.size() > 0) {
+				parent.setEntry(parent.indexOf(n), n);
+			}
+			n = parent;
+			parent = (HilbertNode) n.getRootNode();
+		}
+	}
+
+	/*
+	 * Find Leaf:
+	 * the leaf containing the record at the point (x, y), null if the record is not in the tree
+	 */
+	private HilbertNode findLeaf(HilbertNode node, Object record, int x, int y) {
+
+		if(node.isLeaf) {
+			return this.indexOf(node, record, x, y) >= 0 ? node : null;
+		}
+
+		int limit = node.size();
+		int i;
+		for(i = 0; i < limit; i++) {
+			if(node.minX[i] <= x && x <= node.maxX[i] && node.minY[i] <= y && y <= node.maxY[i]) {
+				HilbertNode leaf = this.findLeaf((HilbertNode) node.children[i], record, x, y);
+				if(leaf != null) {
+					return leaf;
+				}
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Index of the record at the point (x, y) in the leaf, -1 if it is not there
+	 */
+	private int indexOf(Node leaf, Object record, int x, int y) {
+		int limit = leaf.size();
+		int i;
+		for(i = 0; i < limit; i++) {
+			if(leaf.minX[i] == x && leaf.maxX[i] == x && leaf.minY[i] == y && leaf.maxY[i] == y
+					&& record.equals(leaf.children[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
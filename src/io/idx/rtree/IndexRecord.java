@@ -17,7 +17,6 @@
 package io.idx.rtree;
 
 import java.awt.Point;
-import java.awt.Rectangle;
 
 /*
  * This class is thread safe, because all the fields are immutable
@@ -25,23 +24,24 @@ import java.awt.Rectangle;
 
 public class IndexRecord<T> {
 	
-	public final Rectangle r;
+	public final BoundingBox r;
 	public final T record;
 	
 	
 	/*
 	 * Constructor
 	 */
-	public IndexRecord(T record) {
-		r = new Rectangle();
+	public IndexRecord(BoundingBox r, T record) {
+		this.r = r;
 		this.record = record;
 	}
 
 	/*
 	 * Constructor
+	 * the bounding box of a point is the point itself
 	 */
 	public IndexRecord(Point p,T record) {
-		r = new Rectangle(0, 0, p.x, p.y);
+		r = new BoundingBox(p.x, p.y);
 		this.record = record;		
 	}	
 }
@@ -0,0 +1,119 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.idx.rtree;
+
+import java.util.Arrays;
+
+/*
+ * Map from the non negative longs to the ints, without boxing: open addressing with linear probing.
+ * The map holds at most the capacity given to the constructor and the table is never resized,
+ * it is at most half full so the probes stay short.
+ *
+ * A delete moves back the following keys of its run instead of leaving a tombstone
+ * (Knuth, The Art of Computer Programming vol. 3, algorithm 6.4 R).
+ * The map is not thread safe.
+ */
+class LongIntMap {
+
+	private final static long FREE = -1;
+
+	private final long[] keys;
+	private final int[] values;
+	private final int mask;
+	private final int capacity;
+	private int size;
+
+
+	LongIntMap(int capacity) {
+		int length = 2;
+		while(length < capacity * 2) {
+			length <<= 1;
+		}
+		this.capacity = capacity;
+		keys = new long[length];
+		values = new int[length];
+		mask = length - 1;
+		Arrays.fill(keys, FREE);
+	}
+
+	/*
+	 * The value of the key, -1 if the key is not in the map
+	 */
+	int get(long key) {
+		int slot = this.slot(key);
+		while(keys[slot] != FREE) {
+			if(keys[slot] == key) {
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	void put(long key, int value) {
+		int slot = this.slot(key);
+		while(keys[slot] != FREE) {
+			if(keys[slot] == key) {
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if(size == capacity) {
+			throw new IllegalStateException("the map is full, capacity " + capacity);
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+	}
+
+	void remove(long key) {
+		int slot = this.slot(key);
+		while(keys[slot] != key) {
+			if(keys[slot] == FREE) {
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		size--;
+
+		// move back the keys of the run which would not be found any more across the hole
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while(keys[next] != FREE) {
+			int home = this.slot(keys[next]);
+			// the key can fill the hole if its home is not between the hole and its slot
+			if(((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[hole] = FREE;
+	}
+
+	int size() {
+		return size;
+	}
+
+	// Fibonacci hashing, the high bits of the product are the best mixed
+	private int slot(long key) {
+		return (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+}
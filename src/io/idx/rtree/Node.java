@@ -15,47 +15,79 @@
  */
 
 package io.idx.rtree;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /*
+ * The entries of the node are stored as a structure of arrays:
+ * the bounding box of the entry i is (minX[i], minY[i]) - (maxX[i], maxY[i])
+ * and children[i] is the child Node (internal node) or the indexed record (leaf).
  * 
+ * The arrays are allocated once with a capacity of MAX ENTRIES + 1
+ * so an overflowing node can hold the extra entry until it gets split.
+ * Scanning a node is a linear loop over primitive arrays, no pointer has to be followed
+ * until a child is actually visited.
  */
 
 public class Node {
 	
 	public final boolean isLeaf;
+	// distance from the leaves, the leaves are at level 0
+	public final int level;
 	public final int nodeMaxSize;
 	public final int nodeMinSize;
 		
-	private Set<Integer> xSet;
-	private Set<Integer> ySet;
-	public final List<IndexRecord<?>> entries;
+	public final int[] minX;
+	public final int[] minY;
+	public final int[] maxX;
+	public final int[] maxY;
+	public final Object[] children;
+	
+	private int size;
 	
 	private Node rootNode;
 	
+	// latch of the node, null unless the node belongs to a tree in concurrent mode
+	public final ReentrantReadWriteLock latch;
+	
 	
-	public Node(int nodeMaxSize, int nodeMinSize, boolean isLeaf, Node rootNode) {
+	public Node(int nodeMaxSize, int nodeMinSize, int level, Node rootNode) {
+		this(nodeMaxSize, nodeMinSize, level, rootNode, false);
+	}
+	
+	/*
+	 * Constructor of a node which gets a latch if latched is true,
+	 * only the nodes of the concurrent trees are latched
+	 */
+	public Node(int nodeMaxSize, int nodeMinSize, int level, Node rootNode, boolean latched) {
 		this.nodeMaxSize = nodeMaxSize;
 		this.nodeMinSize = nodeMinSize;
-		this.isLeaf = isLeaf;		
+		this.level = level;
+		this.isLeaf = level == 0;		
 		this.rootNode = rootNode;
-		this.entries = new ArrayList<IndexRecord<?>>(nodeMaxSize + 1);
-		xSet = Collections.synchronizedSet(new HashSet<Integer>(nodeMaxSize + 1));
-		ySet = Collections.synchronizedSet(new HashSet<Integer>(nodeMaxSize + 1));
-						
+		this.minX = new int[nodeMaxSize + 1];
+		this.minY = new int[nodeMaxSize + 1];
+		this.maxX = new int[nodeMaxSize + 1];
+		this.maxY = new int[nodeMaxSize + 1];
+		this.children = new Object[nodeMaxSize + 1];
+		if(latched) {
+			this.latch = new ReentrantReadWriteLock();
+		} else {
+			this.latch = null;
+		}
 	}				
 	
 	public boolean hasSpace() {
-		if(this.entries.size() < this.nodeMaxSize) {
+		if(this.size < this.nodeMaxSize) {
 			return true;
 		}
 		return false;
 	}
+	
+	public int size() {
+		return size;
+	}
 
 	public synchronized Node getRootNode() {
 		return rootNode;
@@ -65,30 +97,120 @@ public class Node {
 		this.rootNode = rootNode;
 	}
 	
-	public void add(IndexRecord<?> record) {
-		this.entries.add(record);		
-		this.xSet.add(record.r.width);
-		this.ySet.add(record.r.height);
+	/*
+	 * Append an entry and return its index
+	 */
+	public int add(int minX, int minY, int maxX, int maxY, Object child) {
+		int i = size++;
+		this.minX[i] = minX;
+		this.minY[i] = minY;
+		this.maxX[i] = maxX;
+		this.maxY[i] = maxY;
+		this.children[i] = child;
+		return i;
+	}
+	
+	public int add(BoundingBox r, Object child) {
+		return this.add(r.minX, r.minY, r.maxX, r.maxY, child);
+	}
+	
+	/*
+	 * Remove the entry at index i
+	 * the order of the entries does not matter, so the last entry is moved in its place
+	 */
+	public void remove(int i) {
+		int last = --size;
+		minX[i] = minX[last];
+		minY[i] = minY[last];
+		maxX[i] = maxX[last];
+		maxY[i] = maxY[last];
+		children[i] = children[last];
+		children[last] = null;
 	}
 	
-	public void remove(IndexRecord<?> record) {
-		this.entries.remove(record);
-		this.xSet.remove(record.r.width);
-		this.ySet.remove(record.r.height);
+	/*
+	 * Remove all the entries
+	 */
+	public void clear() {
+		int i;
+		for(i = 0; i < size; i++) {
+			children[i] = null;
+		}
+		size = 0;
+	}
+	
+	/*
+	 * Index of the entry pointing to the child, -1 if the child is not in the node
+	 */
+	public int indexOf(Object child) {
+		int i;
+		for(i = 0; i < size; i++) {
+			if(children[i] == child) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/*
+	 * Bounding box of the entry i
+	 */
+	public BoundingBox entryBox(int i) {
+		return new BoundingBox(minX[i], minY[i], maxX[i], maxY[i]);
 	}
 	
-	public int xMax() {
-		if(xSet.size() == 0) {
-			return 0;
+	/*
+	 * Set the bounding box of the entry i to the minimum bounding box of the child node
+	 * return false if nothing changed
+	 */
+	public boolean setBounds(int i, Node child) {
+		int limit = child.size;
+		int x0 = child.minX[0];
+		int y0 = child.minY[0];
+		int x1 = child.maxX[0];
+		int y1 = child.maxY[0];
+		
+		int j;
+		for(j = 1; j < limit; j++) {
+			if(child.minX[j] < x0) x0 = child.minX[j];
+			if(child.minY[j] < y0) y0 = child.minY[j];
+			if(child.maxX[j] > x1) x1 = child.maxX[j];
+			if(child.maxY[j] > y1) y1 = child.maxY[j];
+		}
+		
+		if(minX[i] == x0 && minY[i] == y0 && maxX[i] == x1 && maxY[i] == y1) {
+			return false;
 		}
-		return Collections.max(this.xSet);
+		minX[i] = x0;
+		minY[i] = y0;
+		maxX[i] = x1;
+		maxY[i] = y1;
+		return true;
 	}
 	
-	public int yMax() {
-		if(ySet.size() == 0) {
-			return 0;
+	/*
+	 * Minimum bounding box of all the entries of the node
+	 * null if the node is empty
+	 */
+	public BoundingBox mbb() {
+		int limit = this.size;
+		if(limit == 0) {
+			return null;
+		}
+		
+		int x0 = minX[0];
+		int y0 = minY[0];
+		int x1 = maxX[0];
+		int y1 = maxY[0];
+		
+		int i;
+		for(i = 1; i < limit; i++) {
+			if(minX[i] < x0) x0 = minX[i];
+			if(minY[i] < y0) y0 = minY[i];
+			if(maxX[i] > x1) x1 = maxX[i];
+			if(maxY[i] > y1) y1 = maxY[i];
 		}
-		return Collections.max(this.ySet);		
+		return new BoundingBox(x0, y0, x1, y1);
 	}
 	
 }
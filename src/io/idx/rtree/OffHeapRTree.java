@@ -0,0 +1,795 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+import io.idx.RecordVisitor;
+import io.idx.SpatialIndex;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * RTree with the nodes stored outside of the heap, in direct ByteBuffer slabs.
+ * Same algorithms as RTree (Guttman insert and delete, pluggable split), but a node is not an object:
+ * it is a fixed size block of a slab addressed by an int id, and its entries point to the children
+ * by id. The garbage collector sees a few large slabs instead of millions of nodes and arrays.
+ *
+ * Only the records stay on the heap, in a single array: a leaf entry holds the index of its record.
+ * The slots of the deleted nodes and records are reused by the next inserts.
+ *
+ * Layout of a node:
+ *   int level      0 for the leaves
+ *   int count      number of entries
+ *   int parent     id of the parent node, NONE for the root
+ *   nodeMaxSize + 1 entries of 20 bytes, the extra one holds the overflow before a split:
+ *     int minX, int minY, int maxX, int maxY
+ *     int child    id of the child node, or index of the record in a leaf
+ *
+ * The forced reinsertion of the split strategy is not used.
+ * This class is not thread safe: the searches can run in parallel only when nobody is writing
+ */
+public class OffHeapRTree<T> implements SpatialIndex<T> {
+
+	private final static int DEFAULT_MAX_NODE_ENTRIES = 50;
+	// bytes of a slab, the nodes never cross 2 slabs
+	private final static int SLAB_SIZE = 1 << 20;
+	private final static int NONE = -1;
+
+	private final static int NODE_LEVEL = 0;
+	private final static int NODE_COUNT = 4;
+	private final static int NODE_PARENT = 8;
+	private final static int NODE_ENTRIES = 12;
+	private final static int ENTRY_SIZE = 20;
+	private final static int ENTRY_MIN_X = 0;
+	private final static int ENTRY_MIN_Y = 4;
+	private final static int ENTRY_MAX_X = 8;
+	private final static int ENTRY_MAX_Y = 12;
+	private final static int ENTRY_CHILD = 16;
+
+	private final int nodeMaxSize;
+	private final int nodeMinSize;
+	private final SplitStrategy splitStrategy;
+	private final int nodeBytes;
+	private final int slabNodes;
+
+	private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+	// nodes allocated so far, and ids of the deleted nodes to reuse
+	private int nodeCount;
+	private int[] freeNodes = new int[16];
+	private int freeNodeCount;
+
+	// the records, and indexes of the deleted ones to reuse
+	private Object[] records = new Object[1024];
+	private int recordCount;
+	private int[] freeRecords = new int[16];
+	private int freeRecordCount;
+
+	private int root;
+
+	// heap nodes used only to run the split strategy, their children are the positions of the entries
+	// in splitChildren, taken from splitPositions so the ids are not boxed
+	private final Node splitInput;
+	private final Node splitOutput;
+	private final int[] splitChildren;
+	private final Integer[] splitPositions;
+	// the box computed by mbb, reused by the writers which are alone in the tree
+	private final int[] box = new int[4];
+
+
+	public OffHeapRTree(int nodeMaxSize) {
+		this(nodeMaxSize, null);
+	}
+
+	/*
+	 * Constructor with the policy used when a node overflows,
+	 * the quadratic split if the strategy is null
+	 */
+	public OffHeapRTree(int nodeMaxSize, SplitStrategy splitStrategy) {
+		if(nodeMaxSize <= 5) {
+			this.nodeMaxSize = DEFAULT_MAX_NODE_ENTRIES;
+		} else {
+			this.nodeMaxSize = nodeMaxSize;
+		}
+		nodeMinSize = (int)(this.nodeMaxSize * 0.45);
+		if(splitStrategy == null) {
+			this.splitStrategy = new QuadraticSplit();
+		} else {
+			this.splitStrategy = splitStrategy;
+		}
+		nodeBytes = NODE_ENTRIES + (this.nodeMaxSize + 1) * ENTRY_SIZE;
+		slabNodes = Math.max(1, SLAB_SIZE / nodeBytes);
+		splitInput = new Node(this.nodeMaxSize, nodeMinSize, 0, null);
+		splitOutput = new Node(this.nodeMaxSize, nodeMinSize, 0, null);
+		splitChildren = new int[this.nodeMaxSize + 1];
+		splitPositions = new Integer[this.nodeMaxSize + 1];
+		int i;
+		for(i = 0; i < splitPositions.length; i++) {
+			splitPositions[i] = Integer.valueOf(i);
+		}
+		root = this.allocateNode(0, NONE);
+	}
+
+	// ---------------------------------------------------------------------
+	// access to the nodes in the slabs
+
+	private ByteBuffer slab(int node) {
+		return slabs.get(node / slabNodes);
+	}
+
+	private int base(int node) {
+		return (node % slabNodes) * nodeBytes;
+	}
+
+	private int entry(int node, int i) {
+		return this.base(node) + NODE_ENTRIES + i * ENTRY_SIZE;
+	}
+
+	private int level(int node) {
+		return this.slab(node).getInt(this.base(node) + NODE_LEVEL);
+	}
+
+	private int count(int node) {
+		return this.slab(node).getInt(this.base(node) + NODE_COUNT);
+	}
+
+	private void setCount(int node, int count) {
+		this.slab(node).putInt(this.base(node) + NODE_COUNT, count);
+	}
+
+	private int parent(int node) {
+		return this.slab(node).getInt(this.base(node) + NODE_PARENT);
+	}
+
+	private void setParent(int node, int parent) {
+		this.slab(node).putInt(this.base(node) + NODE_PARENT, parent);
+	}
+
+	private int child(int node, int i) {
+		return this.slab(node).getInt(this.entry(node, i) + ENTRY_CHILD);
+	}
+
+	/*
+	 * A new empty node, in a free slot if there is one
+	 */
+	private int allocateNode(int level, int parent) {
+		int node;
+		if(freeNodeCount > 0) {
+			node = freeNodes[--freeNodeCount];
+		} else {
+			node = nodeCount++;
+			if(node / slabNodes == slabs.size()) {
+				slabs.add(ByteBuffer.allocateDirect(slabNodes * nodeBytes).order(ByteOrder.nativeOrder()));
+			}
+		}
+		ByteBuffer slab = this.slab(node);
+		int base = this.base(node);
+		slab.putInt(base + NODE_LEVEL, level);
+		slab.putInt(base + NODE_COUNT, 0);
+		slab.putInt(base + NODE_PARENT, parent);
+		return node;
+	}
+
+	private void freeNode(int node) {
+		if(freeNodeCount == freeNodes.length) {
+			freeNodes = Arrays.copyOf(freeNodes, freeNodeCount * 2);
+		}
+		freeNodes[freeNodeCount++] = node;
+	}
+
+	/*
+	 * Append an entry and return its index
+	 */
+	private int add(int node, int minX, int minY, int maxX, int maxY, int child) {
+		int i = this.count(node);
+		this.setCount(node, i + 1);
+		this.setEntry(node, i, minX, minY, maxX, maxY);
+		this.slab(node).putInt(this.entry(node, i) + ENTRY_CHILD, child);
+		return i;
+	}
+
+	private void setEntry(int node, int i, int minX, int minY, int maxX, int maxY) {
+		ByteBuffer slab = this.slab(node);
+		int e = this.entry(node, i);
+		slab.putInt(e + ENTRY_MIN_X, minX);
+		slab.putInt(e + ENTRY_MIN_Y, minY);
+		slab.putInt(e + ENTRY_MAX_X, maxX);
+		slab.putInt(e + ENTRY_MAX_Y, maxY);
+	}
+
+	/*
+	 * Remove the entry at index i, the last entry is moved in its place
+	 */
+	private void remove(int node, int i) {
+		int last = this.count(node) - 1;
+		if(i != last) {
+			ByteBuffer slab = this.slab(node);
+			int e = this.entry(node, i);
+			int l = this.entry(node, last);
+			int j;
+			for(j = 0; j < ENTRY_SIZE; j += 4) {
+				slab.putInt(e + j, slab.getInt(l + j));
+			}
+		}
+		this.setCount(node, last);
+	}
+
+	private int indexOf(int node, int child) {
+		int limit = this.count(node);
+		int i;
+		for(i = 0; i < limit; i++) {
+			if(this.child(node, i) == child) {
+				return i;
+			}
+		}
+		return NONE;
+	}
+
+	/*
+	 * Minimum bounding box of the entries of the node, as minX, minY, maxX, maxY.
+	 * The array is the same at every call, it is valid until the next one
+	 */
+	private int[] mbb(int node) {
+		ByteBuffer slab = this.slab(node);
+		int limit = this.count(node);
+		box[0] = Integer.MAX_VALUE;
+		box[1] = Integer.MAX_VALUE;
+		box[2] = Integer.MIN_VALUE;
+		box[3] = Integer.MIN_VALUE;
+		int e = this.entry(node, 0);
+		int i;
+		for(i = 0; i < limit; i++, e += ENTRY_SIZE) {
+			box[0] = Math.min(box[0], slab.getInt(e + ENTRY_MIN_X));
+			box[1] = Math.min(box[1], slab.getInt(e + ENTRY_MIN_Y));
+			box[2] = Math.max(box[2], slab.getInt(e + ENTRY_MAX_X));
+			box[3] = Math.max(box[3], slab.getInt(e + ENTRY_MAX_Y));
+		}
+		return box;
+	}
+
+	/*
+	 * Set the box of the entry i of node to the mbb of its child, return false if it did not change
+	 */
+	private boolean setBounds(int node, int i, int child) {
+		int[] box = this.mbb(child);
+		ByteBuffer slab = this.slab(node);
+		int e = this.entry(node, i);
+		if(slab.getInt(e + ENTRY_MIN_X) == box[0] && slab.getInt(e + ENTRY_MIN_Y) == box[1]
+				&& slab.getInt(e + ENTRY_MAX_X) == box[2] && slab.getInt(e + ENTRY_MAX_Y) == box[3]) {
+			return false;
+		}
+		this.setEntry(node, i, box[0], box[1], box[2], box[3]);
+		return true;
+	}
+
+	private int addRecord(T record) {
+		int slot;
+		if(freeRecordCount > 0) {
+			slot = freeRecords[--freeRecordCount];
+		} else {
+			slot = recordCount;
+			if(slot == records.length) {
+				records = Arrays.copyOf(records, slot * 2);
+			}
+		}
+		records[slot] = record;
+		recordCount++;
+		return slot;
+	}
+
+	private void freeRecord(int slot) {
+		records[slot] = null;
+		recordCount--;
+		if(freeRecordCount == freeRecords.length) {
+			freeRecords = Arrays.copyOf(freeRecords, freeRecordCount * 2);
+		}
+		freeRecords[freeRecordCount++] = slot;
+	}
+
+	// ---------------------------------------------------------------------
+	// insert
+
+	/**
+	 *  Add a record to the tree
+	 *
+	 * @param  record the object to index
+	 * @param  longitude the longitude of the record
+	 * @param  latitude the latitude of the record
+	 * @return      void
+	 */
+	public void addIndex(T record, double longitude, double latitude) {
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		this.insert(x, y, x, y, this.addRecord(record), 0);
+	}
+
+	/*
+	 * Insert an entry in a node at the given level: a record at level 0, a subtree of level - 1 otherwise
+	 */
+	private void insert(int minX, int minY, int maxX, int maxY, int child, int level) {
+
+		// [I1] find the node for the new entry
+		int n = root;
+		while(this.level(n) > level) {
+			n = this.child(n, this.chooseSubtree(n, minX, minY, maxX, maxY));
+		}
+
+		// [I2] add the entry
+		this.add(n, minX, minY, maxX, maxY, child);
+		if(level > 0) {
+			this.setParent(child, n);
+		}
+
+		// [I3] propagate the changes upward
+		while(n != root) {
+			int parent = this.parent(n);
+			boolean changed = this.setBounds(parent, this.indexOf(parent, n), n);
+			if(this.count(n) > nodeMaxSize) {
+				int nn = this.splitNode(n);
+				this.setBounds(parent, this.indexOf(parent, n), n);
+				int[] box = this.mbb(nn);
+				this.add(parent, box[0], box[1], box[2], box[3], nn);
+			} else if(!changed) {
+				return;
+			}
+			n = parent;
+		}
+
+		// [I4] grow the tree if the root was split
+		if(this.count(root) > nodeMaxSize) {
+			int old = root;
+			int nn = this.splitNode(old);
+			root = this.allocateNode(this.level(old) + 1, NONE);
+			int[] box = this.mbb(old);
+			this.add(root, box[0], box[1], box[2], box[3], old);
+			box = this.mbb(nn);
+			this.add(root, box[0], box[1], box[2], box[3], nn);
+			this.setParent(old, root);
+			this.setParent(nn, root);
+		}
+	}
+
+	/*
+	 * The entry of node needing the least enlargement to include the box, the smallest one on ties
+	 */
+	private int chooseSubtree(int node, int minX, int minY, int maxX, int maxY) {
+		ByteBuffer slab = this.slab(node);
+		int limit = this.count(node);
+		long leastEnlargement = Long.MAX_VALUE;
+		long leastArea = Long.MAX_VALUE;
+		int bestIndex = 0;
+		int e = this.entry(node, 0);
+		int i;
+		for(i = 0; i < limit; i++, e += ENTRY_SIZE) {
+			int x0 = slab.getInt(e + ENTRY_MIN_X);
+			int y0 = slab.getInt(e + ENTRY_MIN_Y);
+			int x1 = slab.getInt(e + ENTRY_MAX_X);
+			int y1 = slab.getInt(e + ENTRY_MAX_Y);
+			long enlargement = BoundingBox.enlargement(x0, y0, x1, y1, minX, minY, maxX, maxY);
+			if(enlargement <= leastEnlargement) {
+				long area = BoundingBox.area(x0, y0, x1, y1);
+				if(enlargement < leastEnlargement || area < leastArea) {
+					leastEnlargement = enlargement;
+					leastArea = area;
+					bestIndex = i;
+				}
+			}
+		}
+		return bestIndex;
+	}
+
+	/*
+	 * Split an overflowing node with the split strategy, return the new node with the second group.
+	 * The entries are copied in heap nodes, split, and copied back
+	 */
+	private int splitNode(int n) {
+		int level = this.level(n);
+		Node input = splitInput;
+		input.clear();
+		splitOutput.clear();
+		int limit = this.count(n);
+		int i;
+		for(i = 0; i < limit; i++) {
+			int e = this.entry(n, i);
+			ByteBuffer slab = this.slab(n);
+			splitChildren[i] = slab.getInt(e + ENTRY_CHILD);
+			input.add(slab.getInt(e + ENTRY_MIN_X), slab.getInt(e + ENTRY_MIN_Y), slab.getInt(e + ENTRY_MAX_X),
+					slab.getInt(e + ENTRY_MAX_Y), splitPositions[i]);
+		}
+		splitStrategy.split(input, splitOutput);
+
+		this.setCount(n, 0);
+		for(i = 0; i < input.size(); i++) {
+			this.add(n, input.minX[i], input.minY[i], input.maxX[i], input.maxY[i], splitChildren[(Integer) input.children[i]]);
+		}
+		int nn = this.allocateNode(level, this.parent(n));
+		for(i = 0; i < splitOutput.size(); i++) {
+			int child = splitChildren[(Integer) splitOutput.children[i]];
+			this.add(nn, splitOutput.minX[i], splitOutput.minY[i], splitOutput.maxX[i], splitOutput.maxY[i], child);
+			if(level > 0) {
+				this.setParent(child, nn);
+			}
+		}
+		return nn;
+	}
+
+	// ---------------------------------------------------------------------
+	// delete
+
+	/**
+	 *  Delete a record from the tree
+	 *
+	 * @param  record the object to delete, compared with equals
+	 * @param  longitude the longitude the record has been added with
+	 * @param  latitude the latitude the record has been added with
+	 * @return      true if the record was found and deleted
+	 */
+	public boolean delete(T record, double longitude, double latitude) {
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+
+		// [D1] find the leaf holding the record
+		long found = this.findLeaf(root, x, y, record);
+		if(found == NONE) {
+			return false;
+		}
+		int leaf = (int)(found >>> 32);
+		int i = (int) found;
+
+		// [D2] remove the record
+		this.freeRecord(this.child(leaf, i));
+		this.remove(leaf, i);
+
+		// [D3] condense the tree
+		this.condenseTree(leaf);
+
+		// [D4] shorten the tree
+		while(this.level(root) > 0 && this.count(root) == 1) {
+			int old = root;
+			root = this.child(old, 0);
+			this.setParent(root, NONE);
+			this.freeNode(old);
+		}
+		return true;
+	}
+
+	/*
+	 * The leaf and the index of the record, as leaf << 32 | index, NONE if not found
+	 */
+	private long findLeaf(int node, int x, int y, Object record) {
+		ByteBuffer slab = this.slab(node);
+		boolean leaf = this.level(node) == 0;
+		int limit = this.count(node);
+		int e = this.entry(node, 0);
+		int i;
+		for(i = 0; i < limit; i++, e += ENTRY_SIZE) {
+			if(slab.getInt(e + ENTRY_MIN_X) <= x && x <= slab.getInt(e + ENTRY_MAX_X)
+					&& slab.getInt(e + ENTRY_MIN_Y) <= y && y <= slab.getInt(e + ENTRY_MAX_Y)) {
+				int child = slab.getInt(e + ENTRY_CHILD);
+				if(leaf) {
+					if(record.equals(records[child])) {
+						return ((long) node << 32) | i;
+					}
+				} else {
+					long found = this.findLeaf(child, x, y, record);
+					if(found != NONE) {
+						return found;
+					}
+				}
+			}
+		}
+		return NONE;
+	}
+
+	/*
+	 * [CT1] - [CT6] remove the underfull nodes from the leaf up to the root,
+	 * tighten the boxes of the others and reinsert the entries of the removed nodes
+	 */
+	private void condenseTree(int n) {
+		int[] eliminated = new int[4];
+		int eliminatedCount = 0;
+
+		while(n != root) {
+			int parent = this.parent(n);
+			int i = this.indexOf(parent, n);
+			if(this.count(n) < nodeMinSize) {
+				this.remove(parent, i);
+				if(eliminatedCount == eliminated.length) {
+					eliminated = Arrays.copyOf(eliminated, eliminatedCount * 2);
+				}
+				eliminated[eliminatedCount++] = n;
+			} else {
+				this.setBounds(parent, i, n);
+			}
+			n = parent;
+		}
+
+		// [CT6] the entries go back at the level of their node
+		int k;
+		for(k = 0; k < eliminatedCount; k++) {
+			int node = eliminated[k];
+			int level = this.level(node);
+			ByteBuffer slab = this.slab(node);
+			int limit = this.count(node);
+			int e = this.entry(node, 0);
+			int i;
+			for(i = 0; i < limit; i++, e += ENTRY_SIZE) {
+				this.insert(slab.getInt(e + ENTRY_MIN_X), slab.getInt(e + ENTRY_MIN_Y), slab.getInt(e + ENTRY_MAX_X),
+						slab.getInt(e + ENTRY_MAX_Y), slab.getInt(e + ENTRY_CHILD), level);
+			}
+			this.freeNode(node);
+		}
+	}
+
+	// ---------------------------------------------------------------------
+	// searches
+
+	/*
+	 * Number of records in the tree
+	 */
+	public int size() {
+		return recordCount;
+	}
+
+	/** 
+	 *  This method search inside the tree for a point
+	 *
+	 * @param  longitude the longitude of the point 
+	 * @param  latitude the latitude of the point
+	 * @return      a list of indexed records stored in the tree
+	 */
+	public List<T> search(double longitude, double latitude) {
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		final List<T> result = new ArrayList<T>();
+		this.searchWindow(root, x, y, x, y, new RecordVisitor<T>() {
+			public boolean visit(T record) {
+				result.add(record);
+				return true;
+			}
+		});
+		return result;
+	}
+
+	/** 
+	 *  This method search inside the tree for all the records inside a window.
+	 *  The borders of the window are included.
+	 *
+	 * @param  minLongitude the west border of the window
+	 * @param  minLatitude the south border of the window
+	 * @param  maxLongitude the east border of the window
+	 * @param  maxLatitude the north border of the window
+	 * @return      a list of indexed records stored in the tree
+	 */
+	public List<T> searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude) {
+		final List<T> result = new ArrayList<T>();
+		this.searchWindow(minLongitude, minLatitude, maxLongitude, maxLatitude, new RecordVisitor<T>() {
+			public boolean visit(T record) {
+				result.add(record);
+				return true;
+			}
+		});
+		return result;
+	}
+
+	/** 
+	 *  This method search inside the tree for all the records inside a window,
+	 *  streaming them to the visitor. The borders of the window are included.
+	 *
+	 * @param  minLongitude the west border of the window
+	 * @param  minLatitude the south border of the window
+	 * @param  maxLongitude the east border of the window
+	 * @param  maxLatitude the north border of the window
+	 * @param  visitor the callback receiving the records
+	 * @return      false if the visitor stopped the search, true otherwise
+	 */
+	public boolean searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude,
+			RecordVisitor<? super T> visitor) {
+		int x0 = RTree.increaseUnit(minLongitude);
+		int y0 = RTree.increaseUnit(minLatitude);
+		int x1 = RTree.increaseUnit(maxLongitude);
+		int y1 = RTree.increaseUnit(maxLatitude);
+		return this.searchWindow(root, Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1), visitor);
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean searchWindow(int node, int x0, int y0, int x1, int y1, RecordVisitor<? super T> visitor) {
+		ByteBuffer slab = this.slab(node);
+		boolean leaf = this.level(node) == 0;
+		int limit = this.count(node);
+		int e = this.entry(node, 0);
+		int i;
+		for(i = 0; i < limit; i++, e += ENTRY_SIZE) {
+			if(slab.getInt(e + ENTRY_MIN_X) <= x1 && x0 <= slab.getInt(e + ENTRY_MAX_X)
+					&& slab.getInt(e + ENTRY_MIN_Y) <= y1 && y0 <= slab.getInt(e + ENTRY_MAX_Y)) {
+				int child = slab.getInt(e + ENTRY_CHILD);
+				if(leaf) {
+					if(!visitor.visit((T) records[child])) {
+						return false;
+					}
+				} else if(!this.searchWindow(child, x0, y0, x1, y1, visitor)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/** 
+	 *  This method search the k records closest to a point, see RTree.nearest
+	 *
+	 * @param  longitude the longitude of the point
+	 * @param  latitude the latitude of the point
+	 * @param  k the number of records to return
+	 * @return      at most k records, the closest first
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> nearest(double longitude, double latitude, int k) {
+
+		List<T> result = new ArrayList<T>();
+		if(k <= 0) {
+			return result;
+		}
+
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		double xScale = Math.cos(Math.toRadians(latitude));
+
+		NearestQueue queue = new NearestQueue();
+		queue.add(root, 0);
+
+		while(!queue.isEmpty()) {
+			int item = queue.poll();
+
+			// a record comes out of the queue only when nothing left in the queue can be closer
+			if(item < 0) {
+				result.add((T) records[~item]);
+				if(result.size() == k) {
+					break;
+				}
+				continue;
+			}
+
+			ByteBuffer slab = this.slab(item);
+			boolean leaf = this.level(item) == 0;
+			int limit = this.count(item);
+			int e = this.entry(item, 0);
+			int i;
+			for(i = 0; i < limit; i++, e += ENTRY_SIZE) {
+				long dx = 0;
+				if(x < slab.getInt(e + ENTRY_MIN_X)) {
+					dx = (long) slab.getInt(e + ENTRY_MIN_X) - x;
+				} else if(x > slab.getInt(e + ENTRY_MAX_X)) {
+					dx = (long) x - slab.getInt(e + ENTRY_MAX_X);
+				}
+				long dy = 0;
+				if(y < slab.getInt(e + ENTRY_MIN_Y)) {
+					dy = (long) slab.getInt(e + ENTRY_MIN_Y) - y;
+				} else if(y > slab.getInt(e + ENTRY_MAX_Y)) {
+					dy = (long) y - slab.getInt(e + ENTRY_MAX_Y);
+				}
+				double scaledX = dx * xScale;
+				int child = slab.getInt(e + ENTRY_CHILD);
+				queue.add(leaf ? ~child : child, scaledX * scaledX + (double) dy * dy);
+			}
+		}
+		return result;
+	}
+
+	/** 
+	 *  This method search all the records within a great circle distance from a point, see RTree.withinDistance
+	 *
+	 * @param  longitude the longitude of the center
+	 * @param  latitude the latitude of the center
+	 * @param  meters the radius of the circle, in meters
+	 * @param  visitor the callback receiving the records
+	 * @return      false if the visitor stopped the search, true otherwise
+	 */
+	public boolean withinDistance(double longitude, double latitude, double meters, RecordVisitor<? super T> visitor) {
+		int[] box = GeoDistance.boundingBox(longitude, latitude, meters);
+		return this.withinDistance(root, longitude, latitude, meters, box, visitor);
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean withinDistance(int node, double longitude, double latitude, double meters, int[] box,
+			RecordVisitor<? super T> visitor) {
+		ByteBuffer slab = this.slab(node);
+		boolean leaf = this.level(node) == 0;
+		int limit = this.count(node);
+		int e = this.entry(node, 0);
+		int i;
+		for(i = 0; i < limit; i++, e += ENTRY_SIZE) {
+			int minX = slab.getInt(e + ENTRY_MIN_X);
+			int minY = slab.getInt(e + ENTRY_MIN_Y);
+			int maxX = slab.getInt(e + ENTRY_MAX_X);
+			int maxY = slab.getInt(e + ENTRY_MAX_Y);
+			if(minX <= box[2] && box[0] <= maxX && minY <= box[3] && box[1] <= maxY
+					&& GeoDistance.minDistance(latitude, longitude, minX, minY, maxX, maxY) <= meters) {
+				int child = slab.getInt(e + ENTRY_CHILD);
+				if(leaf) {
+					if(!visitor.visit((T) records[child])) {
+						return false;
+					}
+				} else if(!this.withinDistance(child, longitude, latitude, meters, box, visitor)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Priority queue of the nearest search, a binary heap on arrays ordered by distance.
+	 * The items are the ids of the nodes, and the complements of the slots of the records
+	 * so they are negative, without an object for each entry
+	 */
+	private static class NearestQueue {
+		private double[] distances = new double[64];
+		private int[] items = new int[64];
+		private int size;
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void add(int item, double distance) {
+			if(size == items.length) {
+				distances = Arrays.copyOf(distances, size * 2);
+				items = Arrays.copyOf(items, size * 2);
+			}
+			int i = size++;
+			while(i > 0) {
+				int parent = (i - 1) >>> 1;
+				if(distances[parent] <= distance) {
+					break;
+				}
+				distances[i] = distances[parent];
+				items[i] = items[parent];
+				i = parent;
+			}
+			distances[i] = distance;
+			items[i] = item;
+		}
+
+		// remove the closest item
+		int poll() {
+			int first = items[0];
+			size--;
+			double distance = distances[size];
+			int item = items[size];
+			int i = 0;
+			int half = size >>> 1;
+			while(i < half) {
+				int child = 2 * i + 1;
+				if(child + 1 < size && distances[child + 1] < distances[child]) {
+					child++;
+				}
+				if(distance <= distances[child]) {
+					break;
+				}
+				distances[i] = distances[child];
+				items[i] = items[child];
+				i = child;
+			}
+			distances[i] = distance;
+			items[i] = item;
+			return first;
+		}
+	}
+}
@@ -0,0 +1,350 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Bounded pool of the pages of a file, in front of the reads and writes of a tree on disk.
+ *
+ * A page is used between pin and unpin: a pinned page is never evicted, so the buffer returned
+ * by pin stays valid until the page is unpinned. A page can also be made resident, then it is
+ * never evicted at all: the trees keep their upper levels in memory this way.
+ *
+ * The victim of an eviction is chosen with the CLOCK algorithm: the hand goes around the frames,
+ * a frame used since the last turn gets a second chance, the first unpinned frame not used is evicted.
+ * A page modified by its user is dirty, it is written back when evicted or on flush.
+ * The reads and the write backs of pin do not hold the lock of the cache, so a miss does not
+ * stop the hits on the other pages.
+ *
+ * The counters of hits, misses, evictions and writes are meant to size the cache:
+ * the hit rate is hits / (hits + misses).
+ */
+public class PageCache {
+
+	private final static long EMPTY = -1;
+
+	private final FileChannel channel;
+	private final int pageSize;
+
+	// the frames and the state of the page they hold
+	private final ByteBuffer[] frames;
+	private final long[] pages;
+	private final int[] pins;
+	private final boolean[] referenced;
+	private final boolean[] dirty;
+	private final boolean[] resident;
+	// true while the page of the frame is read or written back, the frame is reserved
+	private final boolean[] loading;
+	private final LongIntMap frameOf;
+	private int hand;
+
+	// guards the state of the frames, the threads waiting for a frame being loaded use its condition
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition[] loaded;
+	// signaled when a frame can be evicted again
+	private final Condition unpinned = lock.newCondition();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong writes = new AtomicLong();
+
+
+	/*
+	 * Cache of capacity pages of the file, the channel is not closed by the cache
+	 */
+	public PageCache(FileChannel channel, int pageSize, int capacity, ByteOrder order) {
+		if(capacity <= 0) {
+			throw new IllegalArgumentException("the capacity must be positive: " + capacity);
+		}
+		this.channel = channel;
+		this.pageSize = pageSize;
+		frames = new ByteBuffer[capacity];
+		pages = new long[capacity];
+		pins = new int[capacity];
+		referenced = new boolean[capacity];
+		dirty = new boolean[capacity];
+		resident = new boolean[capacity];
+		loading = new boolean[capacity];
+		loaded = new Condition[capacity];
+		frameOf = new LongIntMap(capacity);
+		int i;
+		for(i = 0; i < capacity; i++) {
+			frames[i] = ByteBuffer.allocateDirect(pageSize).order(order);
+			pages[i] = EMPTY;
+			loaded[i] = lock.newCondition();
+		}
+	}
+
+	/**
+	 *  Pin a page, reading it from the file if it is not in the cache.
+	 *  The file is read and written outside the lock of the cache: the frame of a page being loaded
+	 *  is reserved, the threads pinning the same page wait for that frame only.
+	 *  If all the pages of the cache are pinned it waits until one is unpinned: the threads
+	 *  which keep pages pinned while they pin others must not be able to pin all of them together,
+	 *  or they wait for each other forever
+	 *
+	 * @param  page the number of the page
+	 * @return      the buffer of the page, valid until unpin. Only the absolute get and put can be used
+	 * @throws IOException if the page cannot be read or written back
+	 */
+	public ByteBuffer pin(long page) throws IOException {
+		lock.lock();
+		try {
+			while(true) {
+				int frame = frameOf.get(page);
+				if(frame >= 0) {
+					if(loading[frame]) {
+						// the page can be another one when the wait ends, it is looked up again
+						loaded[frame].awaitUninterruptibly();
+						continue;
+					}
+					hits.incrementAndGet();
+					pins[frame]++;
+					referenced[frame] = true;
+					return frames[frame];
+				}
+
+				// reserve a frame, its old page stays mapped while it is written back
+				// so the threads pinning it wait instead of reading it before the write
+				frame = this.victim();
+				if(frame < 0) {
+					// the page can be loaded by another thread when the wait ends
+					unpinned.awaitUninterruptibly();
+					continue;
+				}
+				long old = pages[frame];
+				pins[frame] = 1;
+				loading[frame] = true;
+				if(old != EMPTY) {
+					if(dirty[frame]) {
+						this.release(frame, this.write(frame));
+					}
+					frameOf.remove(old);
+					pages[frame] = EMPTY;
+					evictions.incrementAndGet();
+					if(frameOf.get(page) >= 0) {
+						// loaded by another thread during the write back
+						pins[frame] = 0;
+						loading[frame] = false;
+						loaded[frame].signalAll();
+						unpinned.signalAll();
+						continue;
+					}
+				}
+
+				misses.incrementAndGet();
+				pages[frame] = page;
+				dirty[frame] = false;
+				resident[frame] = false;
+				referenced[frame] = true;
+				frameOf.put(page, frame);
+				IOException error = this.read(frame, page);
+				if(error != null) {
+					frameOf.remove(page);
+					pages[frame] = EMPTY;
+				}
+				this.release(frame, error);
+				return frames[frame];
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * End of the I/O on a reserved frame: the waiting threads can look at it again.
+	 * If the I/O failed the frame is released and the error thrown
+	 */
+	private void release(int frame, IOException error) throws IOException {
+		loading[frame] = false;
+		loaded[frame].signalAll();
+		if(error != null) {
+			pins[frame] = 0;
+			unpinned.signalAll();
+			throw error;
+		}
+	}
+
+	/**
+	 *  Release a page pinned by pin
+	 *
+	 * @param  page the number of the page
+	 * @param  modified true if the buffer has been modified, the page will be written back
+	 * @return      void
+	 */
+	public void unpin(long page, boolean modified) {
+		lock.lock();
+		try {
+			int frame = frameOf.get(page);
+			if(frame < 0 || pins[frame] == 0) {
+				throw new IllegalStateException("page not pinned: " + page);
+			}
+			pins[frame]--;
+			if(modified) {
+				dirty[frame] = true;
+			}
+			if(pins[frame] == 0) {
+				unpinned.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Never evict a page, it must be pinned by the caller
+	 */
+	public void keepResident(long page) {
+		lock.lock();
+		try {
+			int frame = frameOf.get(page);
+			if(frame < 0 || pins[frame] == 0) {
+				throw new IllegalStateException("page not pinned: " + page);
+			}
+			resident[frame] = true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * CLOCK: the frame to reuse, -1 if all the frames are pinned or resident.
+	 * A frame being loaded is pinned so it is never chosen
+	 */
+	private int victim() {
+		int frame;
+		// two turns: the first one can only clear the reference bits
+		int steps;
+		for(steps = 0; steps < 2 * frames.length; steps++) {
+			frame = hand;
+			hand = (hand + 1) % frames.length;
+			if(pins[frame] > 0 || resident[frame]) {
+				continue;
+			}
+			if(referenced[frame]) {
+				referenced[frame] = false;
+				continue;
+			}
+			return frame;
+		}
+		return -1;
+	}
+
+	/*
+	 * Read the page in the reserved frame, without the lock of the cache.
+	 * Return the error instead of throwing it, so the caller releases the frame with the lock
+	 */
+	private IOException read(int frame, long page) {
+		ByteBuffer buffer = frames[frame].duplicate();
+		buffer.clear();
+		long position = page * pageSize;
+		lock.unlock();
+		try {
+			while(buffer.hasRemaining()) {
+				if(channel.read(buffer, position + buffer.position()) < 0) {
+					return new IOException("page " + page + " beyond the end of the file");
+				}
+			}
+			return null;
+		} catch(IOException e) {
+			return e;
+		} finally {
+			lock.lock();
+		}
+	}
+
+	/*
+	 * Write back the page of the reserved frame, without the lock of the cache.
+	 * Return the error instead of throwing it, so the caller releases the frame with the lock
+	 */
+	private IOException write(int frame) {
+		ByteBuffer buffer = frames[frame].duplicate();
+		buffer.clear();
+		long position = pages[frame] * pageSize;
+		lock.unlock();
+		try {
+			while(buffer.hasRemaining()) {
+				channel.write(buffer, position + buffer.position());
+			}
+		} catch(IOException e) {
+			return e;
+		} finally {
+			lock.lock();
+		}
+		dirty[frame] = false;
+		writes.incrementAndGet();
+		return null;
+	}
+
+	/*
+	 * Write back all the dirty pages and force them to the disk,
+	 * after the write backs of the evictions in progress
+	 */
+	public void flush() throws IOException {
+		lock.lock();
+		try {
+			int i;
+			for(i = 0; i < frames.length; i++) {
+				while(loading[i]) {
+					loaded[i].awaitUninterruptibly();
+				}
+				if(pages[i] != EMPTY && dirty[i]) {
+					ByteBuffer buffer = frames[i].duplicate();
+					buffer.clear();
+					long position = pages[i] * pageSize;
+					while(buffer.hasRemaining()) {
+						channel.write(buffer, position + buffer.position());
+					}
+					dirty[i] = false;
+					writes.incrementAndGet();
+				}
+			}
+			channel.force(false);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int capacity() {
+		return frames.length;
+	}
+
+	public long hits() {
+		return hits.get();
+	}
+
+	public long misses() {
+		return misses.get();
+	}
+
+	public long evictions() {
+		return evictions.get();
+	}
+
+	// pages written back
+	public long writes() {
+		return writes.get();
+	}
+}
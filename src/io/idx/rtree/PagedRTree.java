@@ -0,0 +1,456 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+
+
+/*
+ * RTree stored in a file of fixed size pages, searched directly on a memory mapping of the file.
+ * Opening the tree only maps the file: the pages are read by the OS when a search needs them
+ * and the page cache keeps the hot ones, nothing is copied on the heap.
+ *
+ * Page 0 is the header of the file, every other page is a node:
+ *
+ *   int level            0 for the leaves
+ *   int count            number of entries
+ *   count entries of 24 bytes:
+ *     int minX, int minY, int maxX, int maxY
+ *     long child         page of the child node, or id of the record in a leaf
+ *
+ * The nodes are written level by level from the root (page 1), so the top of the tree
+ * is at the beginning of the file and the children of a node are in consecutive pages.
+ * All the numbers are little endian.
+ *
+ * The records are not stored: a leaf holds the id given by an IdExtractor,
+ * and the searches return the ids.
+ * The tree is read only, it can be shared by any number of threads.
+ */
+public class PagedRTree {
+
+	final static int MAGIC = 0x52545245;
+	final static int VERSION = 1;
+	final static int MIN_PAGE_SIZE = 4096;
+	final static ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	// layout of the header page
+	final static int HEADER_MAGIC = 0;
+	final static int HEADER_VERSION = 4;
+	final static int HEADER_PAGE_SIZE = 8;
+	final static int HEADER_HEIGHT = 12;
+	final static int HEADER_ROOT = 16;
+	final static int HEADER_PAGES = 24;
+	final static int HEADER_RECORDS = 32;
+	// end of the header fields, HEADER_RECORDS is the last one, a long
+	final static int HEADER_SIZE = HEADER_RECORDS + 8;
+
+	// layout of a node page
+	final static int NODE_LEVEL = 0;
+	final static int NODE_COUNT = 4;
+	final static int NODE_ENTRIES = 8;
+	final static int ENTRY_SIZE = 24;
+	final static int ENTRY_MIN_X = 0;
+	final static int ENTRY_MIN_Y = 4;
+	final static int ENTRY_MAX_X = 8;
+	final static int ENTRY_MAX_Y = 12;
+	final static int ENTRY_CHILD = 16;
+
+	// pages written with a single call
+	private final static int WRITE_PAGES = 256;
+
+	// a mapping cannot be bigger than 2GB, so the file is mapped in chunks
+	// a chunk is a multiple of the page size, so a page is never split between 2 chunks
+	private final static int CHUNK_BITS = 30;
+	private final static long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+	private final MappedByteBuffer[] chunks;
+	private final int pageSize;
+	private final int height;
+	private final long rootPage;
+	private final long records;
+
+
+	private PagedRTree(MappedByteBuffer[] chunks, int pageSize, int height, long rootPage, long records) {
+		this.chunks = chunks;
+		this.pageSize = pageSize;
+		this.height = height;
+		this.rootPage = rootPage;
+		this.records = records;
+	}
+
+	/**
+	 *  Write the tree in a file of pages.
+	 *  In concurrent mode the tree cannot be modified while it is written
+	 *
+	 * @param  tree the tree to write
+	 * @param  extractor gives the id stored in place of every record
+	 * @param  file the file to write, it is replaced if it exists
+	 * @return      void
+	 * @throws IOException if the file cannot be written
+	 */
+	public static <T> void write(RTree<T> tree, IdExtractor<? super T> extractor, Path file) throws IOException {
+		tree.lockTree();
+		try {
+			PagedRTree.write(tree.root(), extractor, file);
+		} finally {
+			tree.unlockTree();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> void write(Node root, IdExtractor<? super T> extractor, Path file) throws IOException {
+
+		int pageSize = PagedRTree.pageSize(root.nodeMaxSize);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(pageSize * WRITE_PAGES).order(ORDER);
+
+			// breadth first: the pages of the children of a node are the next ones not given yet
+			ArrayDeque<Node> queue = new ArrayDeque<Node>();
+			queue.add(root);
+			long nextPage = 2;
+			long pages = 1;
+			long records = 0;
+			channel.position(pageSize);
+
+			while(!queue.isEmpty()) {
+				Node node = queue.poll();
+				int base = buffer.position();
+				int limit = node.size();
+				buffer.putInt(base + NODE_LEVEL, node.level);
+				buffer.putInt(base + NODE_COUNT, limit);
+				int e = base + NODE_ENTRIES;
+				int i;
+				for(i = 0; i < limit; i++, e += ENTRY_SIZE) {
+					buffer.putInt(e + ENTRY_MIN_X, node.minX[i]);
+					buffer.putInt(e + ENTRY_MIN_Y, node.minY[i]);
+					buffer.putInt(e + ENTRY_MAX_X, node.maxX[i]);
+					buffer.putInt(e + ENTRY_MAX_Y, node.maxY[i]);
+					if(node.isLeaf) {
+						buffer.putLong(e + ENTRY_CHILD, extractor.id((T) node.children[i]));
+					} else {
+						buffer.putLong(e + ENTRY_CHILD, nextPage++);
+						queue.add((Node) node.children[i]);
+					}
+				}
+				if(node.isLeaf) {
+					records += limit;
+				}
+				pages++;
+
+				// the rest of the page is left as it is, the pages are not read beyond count
+				buffer.position(base + pageSize);
+				if(!buffer.hasRemaining()) {
+					PagedRTree.flush(channel, buffer);
+				}
+			}
+			PagedRTree.flush(channel, buffer);
+
+			// the header goes at the end, when the number of pages and records is known
+			ByteBuffer header = ByteBuffer.allocate(pageSize).order(ORDER);
+			header.putInt(HEADER_MAGIC, MAGIC);
+			header.putInt(HEADER_VERSION, VERSION);
+			header.putInt(HEADER_PAGE_SIZE, pageSize);
+			header.putInt(HEADER_HEIGHT, root.level);
+			header.putLong(HEADER_ROOT, 1);
+			header.putLong(HEADER_PAGES, pages);
+			header.putLong(HEADER_RECORDS, records);
+			channel.position(0);
+			while(header.hasRemaining()) {
+				channel.write(header);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/*
+	 * Check the fields of the header page of a file of size bytes,
+	 * the root page has to be one of the pages of the file
+	 */
+	static void checkHeader(ByteBuffer header, long size, Path file) throws IOException {
+		if(header.getInt(HEADER_MAGIC) != MAGIC) {
+			throw new IOException("not a paged rtree: " + file);
+		}
+		if(header.getInt(HEADER_VERSION) != VERSION) {
+			throw new IOException("unsupported version " + header.getInt(HEADER_VERSION) + ": " + file);
+		}
+		int pageSize = header.getInt(HEADER_PAGE_SIZE);
+		if(pageSize < MIN_PAGE_SIZE || pageSize > CHUNK_SIZE || Integer.bitCount(pageSize) != 1) {
+			throw new IOException("corrupted paged rtree, page size " + pageSize + ": " + file);
+		}
+		long pages = header.getLong(HEADER_PAGES);
+		if(pages < 2 || pages > size / pageSize) {
+			throw new IOException("truncated paged rtree: " + file);
+		}
+		long root = header.getLong(HEADER_ROOT);
+		int height = header.getInt(HEADER_HEIGHT);
+		if(root < 1 || root >= pages || height < 0 || height >= pages) {
+			throw new IOException("corrupted paged rtree, root page " + root + " of height " + height + ": " + file);
+		}
+	}
+
+	// the smallest power of 2 which can hold a full node
+	private static int pageSize(int nodeMaxSize) {
+		int pageSize = MIN_PAGE_SIZE;
+		while(pageSize < NODE_ENTRIES + nodeMaxSize * ENTRY_SIZE) {
+			pageSize <<= 1;
+		}
+		return pageSize;
+	}
+
+	/**
+	 *  Open a tree written by write, mapping the file in memory.
+	 *  The mapping stays valid until the tree is garbage collected
+	 *
+	 * @param  file the file of the tree
+	 * @return      the tree
+	 * @throws IOException if the file cannot be read or it is not a tree
+	 */
+	public static PagedRTree open(Path file) throws IOException {
+
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			MappedByteBuffer[] chunks = new MappedByteBuffer[(int)((size + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+			int i;
+			for(i = 0; i < chunks.length; i++) {
+				long position = (long)i << CHUNK_BITS;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, size - position));
+				chunks[i].order(ORDER);
+			}
+
+			if(chunks.length == 0 || chunks[0].capacity() < HEADER_SIZE) {
+				throw new IOException("not a paged rtree: " + file);
+			}
+			PagedRTree.checkHeader(chunks[0], size, file);
+			int pageSize = chunks[0].getInt(HEADER_PAGE_SIZE);
+			long rootPosition = chunks[0].getLong(HEADER_ROOT) * pageSize;
+			int rootLevel = chunks[(int)(rootPosition >>> CHUNK_BITS)].getInt((int)(rootPosition & (CHUNK_SIZE - 1)) + NODE_LEVEL);
+			if(rootLevel != chunks[0].getInt(HEADER_HEIGHT)) {
+				throw new IOException("corrupted paged rtree, root of level " + rootLevel + " in a tree of height "
+						+ chunks[0].getInt(HEADER_HEIGHT) + ": " + file);
+			}
+			return new PagedRTree(chunks, pageSize, chunks[0].getInt(HEADER_HEIGHT), chunks[0].getLong(HEADER_ROOT),
+					chunks[0].getLong(HEADER_RECORDS));
+		} finally {
+			// the mappings do not need the channel
+			channel.close();
+		}
+	}
+
+	/*
+	 * Number of records in the tree
+	 */
+	public long size() {
+		return records;
+	}
+
+	/*
+	 * Level of the root, the leaves are at level 0
+	 */
+	public int height() {
+		return height;
+	}
+
+	/**
+	 *  This method search inside the tree for all the records inside a window.
+	 *  The borders of the window are included.
+	 *
+	 * @param  minLongitude the west border of the window
+	 * @param  minLatitude the south border of the window
+	 * @param  maxLongitude the east border of the window
+	 * @param  maxLatitude the north border of the window
+	 * @param  visitor the callback receiving the ids of the records
+	 * @return      false if the visitor stopped the search, true otherwise
+	 */
+	public boolean searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude,
+			PayloadVisitor visitor) {
+
+		int x0 = RTree.increaseUnit(minLongitude);
+		int y0 = RTree.increaseUnit(minLatitude);
+		int x1 = RTree.increaseUnit(maxLongitude);
+		int y1 = RTree.increaseUnit(maxLatitude);
+
+		return this.searchWindow(rootPage, Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1), visitor);
+	}
+
+	/*
+	 * Recursive part of the window search, on the node stored in the page
+	 */
+	private boolean searchWindow(long page, int x0, int y0, int x1, int y1, PayloadVisitor visitor) {
+
+		long position = page * pageSize;
+		ByteBuffer chunk = chunks[(int)(position >>> CHUNK_BITS)];
+		int base = (int)(position & (CHUNK_SIZE - 1));
+		boolean leaf = chunk.getInt(base + NODE_LEVEL) == 0;
+		int limit = chunk.getInt(base + NODE_COUNT);
+
+		int e = base + NODE_ENTRIES;
+		int i;
+		for(i = 0; i < limit; i++, e += ENTRY_SIZE) {
+			if(chunk.getInt(e + ENTRY_MIN_X) <= x1 && x0 <= chunk.getInt(e + ENTRY_MAX_X)
+					&& chunk.getInt(e + ENTRY_MIN_Y) <= y1 && y0 <= chunk.getInt(e + ENTRY_MAX_Y)) {
+				long child = chunk.getLong(e + ENTRY_CHILD);
+				if(leaf) {
+					if(!visitor.visit(child)) {
+						return false;
+					}
+				} else if(!this.searchWindow(child, x0, y0, x1, y1, visitor)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 *  This method search the k records closest to a point, see RTree.nearest
+	 *
+	 * @param  longitude the longitude of the point
+	 * @param  latitude the latitude of the point
+	 * @param  k the number of records to return
+	 * @return      the ids of at most k records, the closest first
+	 */
+	public long[] nearest(double longitude, double latitude, int k) {
+
+		if(k <= 0) {
+			return new long[0];
+		}
+
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		double xScale = Math.cos(Math.toRadians(latitude));
+
+		long[] result = new long[k];
+		int found = 0;
+		PriorityQueue<RTree.NearestEntry> queue = new PriorityQueue<RTree.NearestEntry>();
+		queue.add(new RTree.NearestEntry(rootPage, false, 0));
+
+		while(!queue.isEmpty()) {
+
+			RTree.NearestEntry entry = queue.poll();
+			long item = (Long) entry.item;
+
+			// a record comes out of the queue only when nothing left in the queue can be closer
+			if(entry.isRecord) {
+				result[found++] = item;
+				if(found == k) {
+					break;
+				}
+				continue;
+			}
+
+			long position = item * pageSize;
+			ByteBuffer chunk = chunks[(int)(position >>> CHUNK_BITS)];
+			int base = (int)(position & (CHUNK_SIZE - 1));
+			boolean leaf = chunk.getInt(base + NODE_LEVEL) == 0;
+			int limit = chunk.getInt(base + NODE_COUNT);
+
+			int e = base + NODE_ENTRIES;
+			int i;
+			for(i = 0; i < limit; i++, e += ENTRY_SIZE) {
+				long dx = 0;
+				if(x < chunk.getInt(e + ENTRY_MIN_X)) {
+					dx = (long)chunk.getInt(e + ENTRY_MIN_X) - x;
+				} else if(x > chunk.getInt(e + ENTRY_MAX_X)) {
+					dx = (long)x - chunk.getInt(e + ENTRY_MAX_X);
+				}
+				long dy = 0;
+				if(y < chunk.getInt(e + ENTRY_MIN_Y)) {
+					dy = (long)chunk.getInt(e + ENTRY_MIN_Y) - y;
+				} else if(y > chunk.getInt(e + ENTRY_MAX_Y)) {
+					dy = (long)y - chunk.getInt(e + ENTRY_MAX_Y);
+				}
+				double scaledX = dx * xScale;
+				queue.add(new RTree.NearestEntry(chunk.getLong(e + ENTRY_CHILD), leaf, scaledX * scaledX + (double)dy * dy));
+			}
+		}
+
+		if(found < k) {
+			long[] fewer = new long[found];
+			System.arraycopy(result, 0, fewer, 0, found);
+			return fewer;
+		}
+		return result;
+	}
+
+	/**
+	 *  This method search all the records within a great circle distance from a point, see RTree.withinDistance
+	 *
+	 * @param  longitude the longitude of the center
+	 * @param  latitude the latitude of the center
+	 * @param  meters the radius of the circle, in meters
+	 * @param  visitor the callback receiving the ids of the records
+	 * @return      false if the visitor stopped the search, true otherwise
+	 */
+	public boolean withinDistance(double longitude, double latitude, double meters, PayloadVisitor visitor) {
+		int[] box = GeoDistance.boundingBox(longitude, latitude, meters);
+		return this.withinDistance(rootPage, longitude, latitude, meters, box[0], box[1], box[2], box[3], visitor);
+	}
+
+	/*
+	 * Recursive part of the distance search, on the node stored in the page
+	 */
+	private boolean withinDistance(long page, double longitude, double latitude, double meters,
+			int x0, int y0, int x1, int y1, PayloadVisitor visitor) {
+
+		long position = page * pageSize;
+		ByteBuffer chunk = chunks[(int)(position >>> CHUNK_BITS)];
+		int base = (int)(position & (CHUNK_SIZE - 1));
+		boolean leaf = chunk.getInt(base + NODE_LEVEL) == 0;
+		int limit = chunk.getInt(base + NODE_COUNT);
+
+		int e = base + NODE_ENTRIES;
+		int i;
+		for(i = 0; i < limit; i++, e += ENTRY_SIZE) {
+			int minX = chunk.getInt(e + ENTRY_MIN_X);
+			int minY = chunk.getInt(e + ENTRY_MIN_Y);
+			int maxX = chunk.getInt(e + ENTRY_MAX_X);
+			int maxY = chunk.getInt(e + ENTRY_MAX_Y);
+			if(minX <= x1 && x0 <= maxX && minY <= y1 && y0 <= maxY
+					&& GeoDistance.minDistance(latitude, longitude, minX, minY, maxX, maxY) <= meters) {
+				long child = chunk.getLong(e + ENTRY_CHILD);
+				if(leaf) {
+					if(!visitor.visit(child)) {
+						return false;
+					}
+				} else if(!this.withinDistance(child, longitude, latitude, meters, x0, y0, x1, y1, visitor)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+ * Writes and reads the indexed records in the binary image of a tree,
+ * see RTree.writeTo and RTree.readFrom.
+ * A record must be read back from exactly the bytes written for it.
+ */
+public interface PayloadCodec<T> {
+
+	/** 
+	 *  Write a record
+	 *
+	 * @param  out the stream of the image
+	 * @param  record the indexed record
+	 * @throws IOException if the stream cannot be written
+	 */
+	void write(DataOutput out, T record) throws IOException;
+
+	/** 
+	 *  Read a record written by write
+	 *
+	 * @param  in the stream of the image
+	 * @return      the record
+	 * @throws IOException if the stream cannot be read
+	 */
+	T read(DataInput in) throws IOException;
+}
@@ -0,0 +1,407 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+import io.idx.RecordVisitor;
+import io.idx.SpatialIndex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/*
+ * Persistent (copy on write) RTree.
+ *
+ * A published node is never modified: a writer copies the nodes on the path from the root
+ * to the leaf it changes, the rest of the tree is shared with the previous version.
+ * The new root is published atomically, so a reader always sees a complete tree
+ * and it never takes a lock. The writers are serialized by a lock.
+ *
+ * A Snapshot keeps a version of the tree, so a long scan sees the same records
+ * even while the tree is changing. A version stays in memory until nobody uses it.
+ *
+ * The nodes have no parent: the path is kept on the stack of the recursion,
+ * because a shared node belongs to many versions of the tree.
+ */
+
+public class PersistentRTree<T> implements SpatialIndex<T> {
+
+	// parameters of the tree
+	private final static int DEFAULT_MAX_NODE_ENTRIES = 50;
+	private final int nodeMaxSize;
+	private final int nodeMinSize;
+	private final SplitStrategy splitStrategy;
+	private final int leafLevel = 0;
+
+	// the last published version of the tree
+	private final AtomicReference<Node> rootNode;
+	// serializes the writers, the readers never take it
+	private final ReentrantLock writeLock = new ReentrantLock();
+
+
+	// constructor which initialize the object
+	public PersistentRTree(int nodeMaxSize) {
+		this(nodeMaxSize, null);
+	}
+
+	/*
+	 * Constructor with the policy used when a node overflows,
+	 * the quadratic split if the strategy is null.
+	 * The forced reinsertion of the strategy is not used
+	 */
+	public PersistentRTree(int nodeMaxSize, SplitStrategy splitStrategy) {
+		if(nodeMaxSize <= 5) {
+			this.nodeMaxSize = DEFAULT_MAX_NODE_ENTRIES;
+		} else {
+			this.nodeMaxSize = nodeMaxSize;
+		}
+		nodeMinSize = (int)(this.nodeMaxSize * 0.45);
+		if(splitStrategy == null) {
+			this.splitStrategy = new QuadraticSplit();
+		} else {
+			this.splitStrategy = splitStrategy;
+		}
+		rootNode = new AtomicReference<Node>(new Node(this.nodeMaxSize, nodeMinSize, leafLevel, null));
+	}
+
+	/**
+	 *  The current version of the tree.
+	 *  The snapshot does not change when the tree is modified
+	 *
+	 * @return      a read only view of the tree
+	 */
+	public Snapshot<T> snapshot() {
+		return new Snapshot<T>(rootNode.get());
+	}
+
+	/**
+	 *  This method search inside the current version of the tree for a point
+	 *
+	 * @param  longitude the longitude of the point
+	 * @param  latitude the latitude of the point
+	 * @return      a list of indexed records stored in the tree
+	 */
+	public List<T> search(double longitude, double latitude) {
+		return this.snapshot().search(longitude, latitude);
+	}
+
+	/**
+	 *  This method search inside the current version of the tree for all the records inside a window,
+	 *  see RTree.searchWindow
+	 */
+	public boolean searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude,
+			RecordVisitor<? super T> visitor) {
+		return this.snapshot().searchWindow(minLongitude, minLatitude, maxLongitude, maxLatitude, visitor);
+	}
+
+	/**
+	 *  This method search the k records closest to a point in the current version of the tree, see RTree.nearest
+	 */
+	public List<T> nearest(double longitude, double latitude, int k) {
+		return this.snapshot().nearest(longitude, latitude, k);
+	}
+
+	/**
+	 *  This method search all the records within a great circle distance from a point
+	 *  in the current version of the tree, see RTree.withinDistance
+	 */
+	public boolean withinDistance(double longitude, double latitude, double meters, RecordVisitor<? super T> visitor) {
+		return this.snapshot().withinDistance(longitude, latitude, meters, visitor);
+	}
+
+	/**
+	 *  Add a record to the tree.
+	 *
+	 * @param  record the object you want to store
+	 * @param  longitude the longitude associated with the record
+	 * @param  latitude the latitude associated with the record
+	 * @return      void
+	 */
+	public void addIndex(T record, double longitude, double latitude) {
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+
+		writeLock.lock();
+		try {
+			Node root = this.insert(rootNode.get(), x, y, x, y, record, leafLevel);
+			rootNode.set(root);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 *  Load a collection of records in an empty tree, see RTree.bulkLoad
+	 *
+	 * @param  records the IndexRecords to load
+	 * @return      void
+	 * @throws IllegalStateException if the tree is not empty
+	 */
+	public void bulkLoad(Collection<IndexRecord<T>> records) {
+		writeLock.lock();
+		try {
+			Node root = rootNode.get();
+			if(!root.isLeaf || root.size() > 0) {
+				throw new IllegalStateException("bulk load requires an empty tree");
+			}
+
+			int n = records.size();
+			if(n == 0) {
+				return;
+			}
+
+			int[] minX = new int[n];
+			int[] minY = new int[n];
+			int[] maxX = new int[n];
+			int[] maxY = new int[n];
+			Object[] children = new Object[n];
+			int i = 0;
+			for(IndexRecord<T> record : records) {
+				minX[i] = record.r.minX;
+				minY[i] = record.r.minY;
+				maxX[i] = record.r.maxX;
+				maxY[i] = record.r.maxY;
+				children[i] = record.record;
+				i++;
+			}
+
+			rootNode.set(new STRPacker(nodeMaxSize, nodeMinSize).pack(minX, minY, maxX, maxY, children, n, leafLevel));
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 *  Delete a record from the tree.
+	 *
+	 * @param  record the object you want to delete
+	 * @param  longitude the longitude the record has been added with
+	 * @param  latitude the latitude the record has been added with
+	 * @return      true if the record has been found and deleted
+	 */
+	public boolean delete(T record, double longitude, double latitude) {
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+
+		writeLock.lock();
+		try {
+			Node root = rootNode.get();
+
+			// [D1] [D2] [D3] copy the path to the leaf without the record,
+			// the copies which go below the minimum size are eliminated
+			List<Node> eliminated = new ArrayList<Node>();
+			Node newRoot = this.delete(root, record, x, y, eliminated, true);
+			if(newRoot == root) {
+				return false;
+			}
+
+			// [CT6] reinsert the entries of the eliminated nodes at their level
+			for(Node orphan : eliminated) {
+				int limit = orphan.size();
+				int i;
+				for(i = 0; i < limit; i++) {
+					newRoot = this.insert(newRoot, orphan.minX[i], orphan.minY[i], orphan.maxX[i], orphan.maxY[i],
+							orphan.children[i], orphan.level);
+				}
+			}
+
+			// [D4] shorten the tree
+			while(!newRoot.isLeaf && newRoot.size() == 1) {
+				newRoot = (Node) newRoot.children[0];
+			}
+
+			rootNode.set(newRoot);
+			return true;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/*
+	 * Insert the entry at the given level of the tree starting from root
+	 * and return the root of the new version
+	 */
+	private Node insert(Node root, int minX, int minY, int maxX, int maxY, Object child, int level) {
+		Node[] nodes = this.copyPath(root, minX, minY, maxX, maxY, child, level);
+		if(nodes.length == 1) {
+			return nodes[0];
+		}
+
+		// [I4] the root has been split, grow the tree taller
+		Node newRoot = new Node(nodeMaxSize, nodeMinSize, root.level + 1, null);
+		newRoot.setBounds(newRoot.add(0, 0, 0, 0, nodes[0]), nodes[0]);
+		newRoot.setBounds(newRoot.add(0, 0, 0, 0, nodes[1]), nodes[1]);
+		return newRoot;
+	}
+
+	/*
+	 * Recursive part of the insert:
+	 * return the copy of the node with the new entry, or the 2 nodes it has been split in
+	 */
+	private Node[] copyPath(Node node, int minX, int minY, int maxX, int maxY, Object child, int level) {
+
+		Node copy = this.copyOf(node);
+		if(node.level == level) {
+			// [I2] add the entry
+			copy.add(minX, minY, maxX, maxY, child);
+		} else {
+			// [I1] choose the subtree and copy it
+			int i = RTree.chooseSubtree(copy, minX, minY, maxX, maxY);
+			Node[] nodes = this.copyPath((Node) copy.children[i], minX, minY, maxX, maxY, child, level);
+
+			// [AT3] [AT4] the copy of the child replaces the child
+			copy.children[i] = nodes[0];
+			copy.setBounds(i, nodes[0]);
+			if(nodes.length == 2) {
+				copy.setBounds(copy.add(0, 0, 0, 0, nodes[1]), nodes[1]);
+			}
+		}
+
+		if(copy.size() > nodeMaxSize) {
+			Node group2 = new Node(nodeMaxSize, nodeMinSize, copy.level, null);
+			splitStrategy.split(copy, group2);
+			return new Node[] {copy, group2};
+		}
+		return new Node[] {copy};
+	}
+
+	/*
+	 * Recursive part of the delete: return the node itself if the record is not in its subtree,
+	 * otherwise its copy without the record, or null if the copy went below the minimum size
+	 * and it has been added to the eliminated nodes. The root is never eliminated
+	 */
+	private Node delete(Node node, Object record, int x, int y, List<Node> eliminated, boolean isRoot) {
+
+		Node copy = null;
+		int limit = node.size();
+		int i;
+		if(node.isLeaf) {
+			for(i = 0; i < limit; i++) {
+				if(node.minX[i] == x && node.maxX[i] == x && node.minY[i] == y && node.maxY[i] == y
+						&& record.equals(node.children[i])) {
+					copy = this.copyOf(node);
+					copy.remove(i);
+					break;
+				}
+			}
+		} else {
+			for(i = 0; i < limit; i++) {
+				if(node.minX[i] <= x && x <= node.maxX[i] && node.minY[i] <= y && y <= node.maxY[i]) {
+					Node child = (Node) node.children[i];
+					Node newChild = this.delete(child, record, x, y, eliminated, false);
+					if(newChild != child) {
+						copy = this.copyOf(node);
+						if(newChild == null) {
+							// [CT4] the child has been eliminated
+							copy.remove(i);
+						} else {
+							// [CT5] adjust the covering box
+							copy.children[i] = newChild;
+							copy.setBounds(i, newChild);
+						}
+						break;
+					}
+				}
+			}
+		}
+
+		if(copy == null) {
+			return node;
+		}
+		if(!isRoot && copy.size() < nodeMinSize) {
+			eliminated.add(copy);
+			return null;
+		}
+		return copy;
+	}
+
+	// a new node with the same entries, which can be modified
+	private Node copyOf(Node node) {
+		Node copy = new Node(nodeMaxSize, nodeMinSize, node.level, null);
+		int limit = node.size();
+		int i;
+		for(i = 0; i < limit; i++) {
+			copy.add(node.minX[i], node.minY[i], node.maxX[i], node.maxY[i], node.children[i]);
+		}
+		return copy;
+	}
+
+	/*
+	 * A version of the tree. It never changes, so it can be used by any number of threads
+	 */
+	public static class Snapshot<T> {
+
+		private final Node root;
+
+		Snapshot(Node root) {
+			this.root = root;
+		}
+
+		/**
+		 *  This method search inside the snapshot for a point
+		 *
+		 * @param  longitude the longitude of the point
+		 * @param  latitude the latitude of the point
+		 * @return      a list of indexed records stored in the tree
+		 */
+		public List<T> search(double longitude, double latitude) {
+			int x = RTree.increaseUnit(longitude);
+			int y = RTree.increaseUnit(latitude);
+			final List<T> result = new ArrayList<T>();
+			RTree.searchWindow(root, x, y, x, y, new RecordVisitor<T>() {
+				@Override
+				public boolean visit(T record) {
+					result.add(record);
+					return true;
+				}
+			});
+			return result;
+		}
+
+		/**
+		 *  This method search inside the snapshot for all the records inside a window, see RTree.searchWindow
+		 */
+		public boolean searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude,
+				RecordVisitor<? super T> visitor) {
+
+			int x0 = RTree.increaseUnit(minLongitude);
+			int y0 = RTree.increaseUnit(minLatitude);
+			int x1 = RTree.increaseUnit(maxLongitude);
+			int y1 = RTree.increaseUnit(maxLatitude);
+
+			return RTree.searchWindow(root, Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1), visitor);
+		}
+
+		/**
+		 *  This method search the k records closest to a point in the snapshot, see RTree.nearest
+		 */
+		public List<T> nearest(double longitude, double latitude, int k) {
+			return RTree.nearest(root, longitude, latitude, k);
+		}
+
+		/**
+		 *  This method search all the records within a great circle distance from a point
+		 *  in the snapshot, see RTree.withinDistance
+		 */
+		public boolean withinDistance(double longitude, double latitude, double meters, RecordVisitor<? super T> visitor) {
+			return RTree.withinDistance(root, longitude, latitude, meters, visitor);
+		}
+	}
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+/*
+ * Guttman's Quadratic Split
+ * Reference for the implementation:
+ * http://www-db.deis.unibo.it/courses/SI-LS/papers/Gut84.pdf
+ *
+ * The cost is quadratic in the number of entries of the node.
+ */
+public class QuadraticSplit implements SplitStrategy {
+
+	/*
+	 * Quadratic Split:
+	 * divide the entries of the overflowing node n in 2 groups.
+	 * The first group stays in n, the second one goes to group2
+	 */
+	@Override
+	public void split(Node n, Node group2) {
+		
+		// group 1 is the origin node		
+		Node group1 = n;
+		int nodeMinSize = n.nodeMinSize;
+		
+		// copy the entries in another node so we can safely process them
+		Node copyOfEntries = new Node(n.nodeMaxSize, nodeMinSize, n.level, null);
+		int i;
+		for(i = 0; i < n.size(); i++) {
+			copyOfEntries.add(n.minX[i], n.minY[i], n.maxX[i], n.maxY[i], n.children[i]);
+		}
+		group1.clear();
+		
+		// [QS1]
+		// picks the seeds
+		int[] first2Entries = this.pickSeeds(copyOfEntries);		
+		int seed1 = first2Entries[0];
+		int seed2 = first2Entries[1];
+		
+		// the bounding box of each group, as minX, minY, maxX, maxY
+		int[] group1Box = new int[] {copyOfEntries.minX[seed1], copyOfEntries.minY[seed1], copyOfEntries.maxX[seed1], copyOfEntries.maxY[seed1]};
+		int[] group2Box = new int[] {copyOfEntries.minX[seed2], copyOfEntries.minY[seed2], copyOfEntries.maxX[seed2], copyOfEntries.maxY[seed2]};
+		
+		this.addToGroup(group1, group1Box, copyOfEntries, seed1);
+		this.addToGroup(group2, group2Box, copyOfEntries, seed2);
+		
+		// remove the seeds from the entries still to be assigned
+		// the highest index first, so the other index is still valid
+		copyOfEntries.remove(Math.max(seed1, seed2));
+		copyOfEntries.remove(Math.min(seed1, seed2));
+		
+		while(copyOfEntries.size() > 0) {
+			
+			// [QS2]
+			// if one group has so few entries that all the rest must be assigned to it
+			// in order for it to have the minimum number of entries, assign them and stop
+			int remaining = copyOfEntries.size();
+			if(group1.size() + remaining <= nodeMinSize) {
+				for(i = 0; i < remaining; i++) {
+					this.addToGroup(group1, group1Box, copyOfEntries, i);
+				}
+				break;
+			}
+			if(group2.size() + remaining <= nodeMinSize) {
+				for(i = 0; i < remaining; i++) {
+					this.addToGroup(group2, group2Box, copyOfEntries, i);
+				}
+				break;
+			}
+			
+			// [QS3]
+			int nextEntryIndex = this.pickNext(copyOfEntries, group1Box, group2Box);
+			short group = this.detectGroupAssignement(copyOfEntries, nextEntryIndex, group1Box, group2Box, 
+					group1.size(), group2.size());
+			
+			if(group == 1) {
+				this.addToGroup(group1, group1Box, copyOfEntries, nextEntryIndex);
+			} else {
+				this.addToGroup(group2, group2Box, copyOfEntries, nextEntryIndex);
+			}
+			
+			// the last entry takes the place of the assigned one, no array is shifted
+			copyOfEntries.remove(nextEntryIndex);
+		}
+	}
+	
+	/*
+	 * The quadratic split never reinserts entries
+	 */
+	@Override
+	public float reinsertFraction() {
+		return 0;
+	}
+	
+	// add the entry i of the node from to the right group and enlarge the group box
+	private void addToGroup(Node n, int[] box, Node from, int i) {
+		n.add(from.minX[i], from.minY[i], from.maxX[i], from.maxY[i], from.children[i]);
+		if(from.minX[i] < box[0]) box[0] = from.minX[i];
+		if(from.minY[i] < box[1]) box[1] = from.minY[i];
+		if(from.maxX[i] > box[2]) box[2] = from.maxX[i];
+		if(from.maxY[i] > box[3]) box[3] = from.maxY[i];
+	}
+	
+	// detect in which group the entry i of the node n falls
+	private short detectGroupAssignement(Node n, int i, int[] group1, int[] group2, 
+		int group1Size, int group2Size) {
+		
+		short group = 1;
+		
+		// detect which bounding box has to be enlarged the least between group1 and group 2 
+		// boxes and the entry
+		
+		long enlarged1 = BoundingBox.enlargement(group1[0], group1[1], group1[2], group1[3], 
+				n.minX[i], n.minY[i], n.maxX[i], n.maxY[i]);
+		long enlarged2 = BoundingBox.enlargement(group2[0], group2[1], group2[2], group2[3], 
+				n.minX[i], n.minY[i], n.maxX[i], n.maxY[i]);
+		
+		if(enlarged1 == enlarged2) {
+			// resolve ties by the smallest area and then by the fewest entries
+			long areaGroup1 = BoundingBox.area(group1[0], group1[1], group1[2], group1[3]); 
+			long areaGroup2 = BoundingBox.area(group2[0], group2[1], group2[2], group2[3]);
+			
+			if(areaGroup1 > areaGroup2) {
+				group = 2;
+			} else if(areaGroup1 == areaGroup2 && group1Size > group2Size) {
+				group = 2;
+			}
+			
+		} else if(enlarged1 > enlarged2) {
+			group = 2;
+		} // else the group is = 1, but because we have set the variable we do not have to do anything 				
+		
+		return group;
+	}
+	
+	
+	
+	/*
+	 * PickSeeds
+	 * select the 2 entries which would waste the most area if put in the same group
+	 */
+	private int[] pickSeeds(Node n) {
+		
+		// max number of loops
+		int loopLimit = n.size();
+		
+		long wasteFull = Long.MIN_VALUE;
+		int[] watseFullPairsIndex = new int[] {0, 1};
+		
+		int i;
+		for(i = 0; i < loopLimit - 1; i++) {
+						
+			Seed seed = this.combine(n, i, wasteFull);
+			if(seed.wasteFull > wasteFull) {
+				wasteFull = seed.wasteFull;
+				watseFullPairsIndex[0] = seed.bestIndex[0];
+				watseFullPairsIndex[1] = seed.bestIndex[1];
+			}			
+		}
+		
+		return watseFullPairsIndex;
+	}
+	
+	/*
+	 * Get the best index from the combination of all entries
+	 */
+	private Seed combine(Node n, int startIndex, long wasteFull) {
+		
+		int x0 = n.minX[startIndex];
+		int y0 = n.minY[startIndex];
+		int x1 = n.maxX[startIndex];
+		int y1 = n.maxY[startIndex];
+		long areaR1	= BoundingBox.area(x0, y0, x1, y1);
+		int limit = n.size();
+		int start = startIndex + 1;
+		int i;
+		
+		Seed seed = new Seed();
+		seed.wasteFull = wasteFull;
+		
+		for(i=start; i < limit; i++) {
+						
+			//first we need to compose a box which include the 2 of them			
+			long areaUnion = BoundingBox.area(Math.min(x0, n.minX[i]), Math.min(y0, n.minY[i]), 
+					Math.max(x1, n.maxX[i]), Math.max(y1, n.maxY[i]));			
+			long d = areaUnion - areaR1 - BoundingBox.area(n.minX[i], n.minY[i], n.maxX[i], n.maxY[i]);
+			
+			if(d > seed.wasteFull) {
+				seed.bestIndex[0] = startIndex;
+				seed.bestIndex[1] = i;
+				seed.wasteFull = d;
+				
+			}			
+		}
+		
+		return seed;
+	}
+	
+	
+	/*
+	 * PickNext
+	 * in the node parameter the assigned entries must have been removed
+	 */
+	
+	private int pickNext(Node n, int[] group1, int[] group2) {
+		
+		long maxDifference = Long.MIN_VALUE;
+		int bestIndex = 0;
+		
+		int limit = n.size();
+		int i;
+		for(i = 0; i < limit; i++) {
+			
+			//calculate area increase required to cover the group1 box and the group 2 box
+			
+			long d1 = BoundingBox.enlargement(group1[0], group1[1], group1[2], group1[3], 
+					n.minX[i], n.minY[i], n.maxX[i], n.maxY[i]);
+			long d2 = BoundingBox.enlargement(group2[0], group2[1], group2[2], group2[3], 
+					n.minX[i], n.minY[i], n.maxX[i], n.maxY[i]);
+			
+			long difference = Math.abs(d1 - d2);
+			if(difference > maxDifference) {
+				maxDifference = difference;
+				bestIndex = i;
+			}
+		}
+	
+		return bestIndex;
+		
+	}
+	
+	//Private inner class for the Seed object
+	class Seed {
+		public int[] bestIndex = new int[2];
+		public long wasteFull;
+	}
+}
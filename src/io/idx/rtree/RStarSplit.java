@@ -0,0 +1,222 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+import java.util.Arrays;
+
+/*
+ * R*-tree split
+ * Reference for the implementation:
+ * Beckmann, Kriegel, Schneider, Seeger - The R*-tree: An Efficient and Robust Access Method
+ * for Points and Rectangles
+ *
+ * The split axis is the one with the smallest sum of the margins of all the distributions,
+ * along that axis the distribution with the least overlap between the 2 groups is taken.
+ * The entries are sorted once per axis and bound, the boxes of all the distributions
+ * come from prefix and suffix boxes, so the cost is O(M log M).
+ *
+ * The first time a level overflows during an insertion, reinsertFraction of the entries
+ * farthest from the center of the node are inserted again instead of splitting the node.
+ */
+public class RStarSplit implements SplitStrategy {
+
+	// the paper suggests to reinsert 30% of the entries
+	private final static float DEFAULT_REINSERT_FRACTION = 0.3f;
+	private final float reinsertFraction;
+
+
+	public RStarSplit() {
+		this(DEFAULT_REINSERT_FRACTION);
+	}
+
+	/*
+	 * A fraction out of [0, 0.5) falls back to the default one,
+	 * 0 gives the R* split without forced reinsertion
+	 */
+	public RStarSplit(float reinsertFraction) {
+		if(reinsertFraction < 0 || reinsertFraction >= 0.5f) {
+			this.reinsertFraction = DEFAULT_REINSERT_FRACTION;
+		} else {
+			this.reinsertFraction = reinsertFraction;
+		}
+	}
+
+	@Override
+	public float reinsertFraction() {
+		return reinsertFraction;
+	}
+
+	@Override
+	public void split(Node n, Node group2) {
+
+		int size = n.size();
+		int nodeMinSize = Math.max(1, n.nodeMinSize);
+
+		// [CSA1] sort the entries along each axis by the lower and by the upper value
+		Distributions[] xAxis = new Distributions[] {
+				new Distributions(n, sort(n.minX, size)), new Distributions(n, sort(n.maxX, size))};
+		Distributions[] yAxis = new Distributions[] {
+				new Distributions(n, sort(n.minY, size)), new Distributions(n, sort(n.maxY, size))};
+
+		// [CSA2] choose the axis with the minimum sum of the margins
+		Distributions[] axis = marginSum(xAxis, nodeMinSize) <= marginSum(yAxis, nodeMinSize) ? xAxis : yAxis;
+
+		// [CSI1] along the chosen axis choose the distribution with the minimum overlap,
+		// resolve ties by the minimum area
+		Distributions best = null;
+		int bestSplit = 0;
+		long leastOverlap = Long.MAX_VALUE;
+		long leastArea = Long.MAX_VALUE;
+		for(Distributions d : axis) {
+			int k;
+			for(k = nodeMinSize; k <= size - nodeMinSize; k++) {
+				long overlap = d.overlap(k);
+				if(overlap <= leastOverlap) {
+					long area = d.area(k);
+					if(overlap < leastOverlap || area < leastArea) {
+						leastOverlap = overlap;
+						leastArea = area;
+						best = d;
+						bestSplit = k;
+					}
+				}
+			}
+		}
+
+		// [S3] the first k entries stay in n, the others go to group2
+		Node copyOfEntries = new Node(n.nodeMaxSize, n.nodeMinSize, n.level, null);
+		int i;
+		for(i = 0; i < size; i++) {
+			copyOfEntries.add(n.minX[i], n.minY[i], n.maxX[i], n.maxY[i], n.children[i]);
+		}
+		n.clear();
+		for(i = 0; i < size; i++) {
+			int e = best.order[i];
+			Node group = i < bestSplit ? n : group2;
+			group.add(copyOfEntries.minX[e], copyOfEntries.minY[e], copyOfEntries.maxX[e], copyOfEntries.maxY[e],
+					copyOfEntries.children[e]);
+		}
+	}
+
+	/*
+	 * Sum of the margins of all the distributions along an axis
+	 */
+	private static long marginSum(Distributions[] axis, int nodeMinSize) {
+		long sum = 0;
+		for(Distributions d : axis) {
+			int size = d.order.length;
+			int k;
+			for(k = nodeMinSize; k <= size - nodeMinSize; k++) {
+				sum += d.margin(k);
+			}
+		}
+		return sum;
+	}
+
+	/*
+	 * The indexes of the first size entries sorted by value
+	 * the value and the index are packed in a long, so a primitive sort can be used
+	 */
+	private static int[] sort(int[] values, int size) {
+		long[] keys = new long[size];
+		int i;
+		for(i = 0; i < size; i++) {
+			keys[i] = ((long)values[i] << 32) | (i & 0xffffffffL);
+		}
+		Arrays.sort(keys);
+
+		int[] order = new int[size];
+		for(i = 0; i < size; i++) {
+			order[i] = (int)keys[i];
+		}
+		return order;
+	}
+
+	/*
+	 * The distributions of the entries of a node in a given order:
+	 * the distribution k puts the first k entries in the first group and the others in the second one.
+	 * The box of the first group is at k - 1 in the low arrays, the box of the second one at k in the high arrays
+	 */
+	private static class Distributions {
+
+		final int[] order;
+		private final int[] lowMinX, lowMinY, lowMaxX, lowMaxY;
+		private final int[] highMinX, highMinY, highMaxX, highMaxY;
+
+		Distributions(Node n, int[] order) {
+			int size = order.length;
+			this.order = order;
+			lowMinX = new int[size];
+			lowMinY = new int[size];
+			lowMaxX = new int[size];
+			lowMaxY = new int[size];
+			highMinX = new int[size];
+			highMinY = new int[size];
+			highMaxX = new int[size];
+			highMaxY = new int[size];
+
+			int first = order[0];
+			lowMinX[0] = n.minX[first];
+			lowMinY[0] = n.minY[first];
+			lowMaxX[0] = n.maxX[first];
+			lowMaxY[0] = n.maxY[first];
+			int i;
+			for(i = 1; i < size; i++) {
+				int e = order[i];
+				lowMinX[i] = Math.min(lowMinX[i - 1], n.minX[e]);
+				lowMinY[i] = Math.min(lowMinY[i - 1], n.minY[e]);
+				lowMaxX[i] = Math.max(lowMaxX[i - 1], n.maxX[e]);
+				lowMaxY[i] = Math.max(lowMaxY[i - 1], n.maxY[e]);
+			}
+
+			int last = order[size - 1];
+			highMinX[size - 1] = n.minX[last];
+			highMinY[size - 1] = n.minY[last];
+			highMaxX[size - 1] = n.maxX[last];
+			highMaxY[size - 1] = n.maxY[last];
+			for(i = size - 2; i >= 0; i--) {
+				int e = order[i];
+				highMinX[i] = Math.min(highMinX[i + 1], n.minX[e]);
+				highMinY[i] = Math.min(highMinY[i + 1], n.minY[e]);
+				highMaxX[i] = Math.max(highMaxX[i + 1], n.maxX[e]);
+				highMaxY[i] = Math.max(highMaxY[i + 1], n.maxY[e]);
+			}
+		}
+
+		// sum of the perimeters (divided by 2) of the 2 groups
+		long margin(int k) {
+			return (long)(lowMaxX[k - 1] - lowMinX[k - 1]) + (long)(lowMaxY[k - 1] - lowMinY[k - 1])
+					+ (long)(highMaxX[k] - highMinX[k]) + (long)(highMaxY[k] - highMinY[k]);
+		}
+
+		// area of the intersection of the 2 groups
+		long overlap(int k) {
+			long dx = (long)Math.min(lowMaxX[k - 1], highMaxX[k]) - Math.max(lowMinX[k - 1], highMinX[k]);
+			long dy = (long)Math.min(lowMaxY[k - 1], highMaxY[k]) - Math.max(lowMinY[k - 1], highMinY[k]);
+			if(dx <= 0 || dy <= 0) {
+				return 0;
+			}
+			return dx * dy;
+		}
+
+		// sum of the areas of the 2 groups
+		long area(int k) {
+			return BoundingBox.area(lowMinX[k - 1], lowMinY[k - 1], lowMaxX[k - 1], lowMaxY[k - 1])
+					+ BoundingBox.area(highMinX[k], highMinY[k], highMaxX[k], highMaxY[k]);
+		}
+	}
+}
@@ -16,15 +16,32 @@
 
 package io.idx.rtree;
 
+import io.idx.RecordVisitor;
+import io.idx.SpatialIndex;
+
 import java.awt.Point;
-import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /*
@@ -33,29 +50,85 @@ import java.util.concurrent.Future;
  * 
  */
 
-public class RTree<T> {
+public class RTree<T> implements SpatialIndex<T> {
 
 	// parameters of the tree
 	private final static int DEFAULT_MAX_NODE_ENTRIES = 50;
 	private int nodeMaxSize;
 	private int nodeMinSize;
-	private Node rootNode;
-	private final boolean isLeaf = true;  
+	// volatile because in concurrent mode a writer replaces the root while the others read it
+	private volatile Node rootNode;
+	private final SplitStrategy splitStrategy;
+	// in concurrent mode it is shared by the inserts and the searches, which latch the nodes,
+	// and exclusive for the operations which restructure the tree. null if the tree is not concurrent
+	private final ReentrantReadWriteLock structureLock;
+	private final int leafLevel = 0;  
+	// counters of the operations, exposed in JMX
+	private final RTreeStats stats = new RTreeStats(this);
+	// the changes made while the tree is rebuilt, null if no rebuild is running
+	private volatile List<Change> changes;
+	private final Object rebuildLock = new Object();
+	// the leaf every record was last added to, so update finds it without a search from the root.
+	// null unless setLeafTracking turned it on, it is emptied when the tree is packed again
+	// and filled back by the updates
+	private volatile Map<Object, Node> leaves;
+	
+	// a rebuild locks the tree to apply the last changes when they are fewer than this
+	// and their replay, at the rate measured without the lock, takes less than MAX_LOCKED_REPLAY_NANOS.
+	// It does not try more than MAX_REPLAY_ROUNDS times to get there without the lock
+	private final static int LOCKED_REPLAY = 1000;
+	private final static long MAX_LOCKED_REPLAY_NANOS = 10000000L;
+	private final static int MAX_REPLAY_ROUNDS = 8;
+	
+	// the cost of a recursive search comes back in a long, so counting it creates no object:
+	// the nodes visited in the bits 32 to 62, the entries tested in the low 32 bits,
+	// and the sign bit set if the visitor stopped the search
+	private final static long NODE_VISITED = 1L << 32;
+	private final static long STOPPED = Long.MIN_VALUE;
 	
 	
 	
-	final static ExecutorService es = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() + 1);
+	// work stealing pool shared by the parallel searches, one worker per core
+	final static ForkJoinPool pool = new ForkJoinPool();
 	
 	
 	// constructor which initialize the object
 	public RTree(int nodeMaxSize) {
+		this(nodeMaxSize, null);
+	}
+	
+	/*
+	 * Constructor with the policy used when a node overflows,
+	 * the quadratic split if the strategy is null
+	 */
+	public RTree(int nodeMaxSize, SplitStrategy splitStrategy) {
+		this(nodeMaxSize, splitStrategy, false);
+	}
+	
+	/*
+	 * Constructor of a tree which can be shared by several threads if concurrent is true.
+	 * The inserts and the searches run in parallel latching the nodes from the root down,
+	 * delete, update and bulkLoad take the whole tree for themselves.
+	 * The forced reinsertion of the split strategy is not used by the concurrent inserts
+	 */
+	public RTree(int nodeMaxSize, SplitStrategy splitStrategy, boolean concurrent) {
 		if(nodeMaxSize <= 5) {
 			this.nodeMaxSize = DEFAULT_MAX_NODE_ENTRIES;			
 		} else {
 			this.nodeMaxSize = nodeMaxSize;
 		}
-		nodeMinSize = (int)(nodeMaxSize * 0.45);
-		rootNode = new Node(nodeMaxSize, nodeMinSize, isLeaf, null);		
+		nodeMinSize = (int)(this.nodeMaxSize * 0.45);
+		rootNode = new Node(this.nodeMaxSize, nodeMinSize, leafLevel, null, concurrent);		
+		if(splitStrategy == null) {
+			this.splitStrategy = new QuadraticSplit();
+		} else {
+			this.splitStrategy = splitStrategy;
+		}
+		if(concurrent) {
+			structureLock = new ReentrantReadWriteLock();
+		} else {
+			structureLock = null;
+		}
 	}
 	
 	/** 
@@ -66,544 +139,1560 @@ public class RTree<T> {
 	 * @return      a list of indexed records stored in the tree
 	 */
 	
-	@SuppressWarnings("unchecked")
 	public List<T> search(double longitude, double latitude) {
 		
-		Point p = new Point(this.increaseUnit(longitude),this.increaseUnit(latitude));
-		// minimum bounding box of point p		
-		Rectangle mbb = new Rectangle(0, 0, p.x, p.y);
-		
-		// I am using here a thread safe array, because multiple thread can write to the same list
-		// it is quite expensive because it make a copy of the array on each write
-		// however the write rate here is supposedly low
-		List<T> result = new CopyOnWriteArrayList<T>();
-		List<Future<List<T>>> tasks = new ArrayList<Future<List<T>>>();
-		
-		if(!rootNode.isLeaf) {
-			for(IndexRecord<?> r : rootNode.entries ) {
-				if(mbb.contains(r.r) || mbb.intersects(r.r)) {
-					IndexRecord<Node> entry = (IndexRecord<Node>)r;					
-					//qualifiedRecords.addAll(search(p,entry.record));
-					
-					tasks.add(es.submit(new SearchSolver<T>(entry.record, p, result)));
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		
+		// the subtrees are searched in parallel by the fork/join pool,
+		// every task collects its records in a local list which is merged when the task is joined
+		Node root = this.lockForRead();
+		try {
+			SearchSolver<T> solver = new SearchSolver<T>(root, x, y, x, y, true, this.isConcurrent());
+			List<T> result = pool.invoke(solver);
+			stats.query(solver.nodesVisited(), solver.entriesTested());
+			return result;
+		} finally {
+			this.unlockForRead(root);
+		}
+	}
+	
+	/** 
+	 *  This method search inside the tree for all the records inside a window,
+	 *  searching the subtrees in parallel. The borders of the window are included.
+	 *  It is meant for large windows, the visitor version is cheaper for the small ones
+	 *
+	 * @param  minLongitude the west border of the window
+	 * @param  minLatitude the south border of the window
+	 * @param  maxLongitude the east border of the window
+	 * @param  maxLatitude the north border of the window
+	 * @return      the records inside the window, in no particular order
+	 */
+	public List<T> searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude) {
+		
+		int x0 = RTree.increaseUnit(minLongitude);
+		int y0 = RTree.increaseUnit(minLatitude);
+		int x1 = RTree.increaseUnit(maxLongitude);
+		int y1 = RTree.increaseUnit(maxLatitude);
+		
+		Node root = this.lockForRead();
+		try {
+			SearchSolver<T> solver = new SearchSolver<T>(root, Math.min(x0, x1), Math.min(y0, y1), 
+					Math.max(x0, x1), Math.max(y0, y1), false, this.isConcurrent());
+			List<T> result = pool.invoke(solver);
+			stats.query(solver.nodesVisited(), solver.entriesTested());
+			return result;
+		} finally {
+			this.unlockForRead(root);
+		}
+	}
+	
+	/** 
+	 *  This method search inside the tree for all the records inside a window.
+	 *  The borders of the window are included.
+	 *  The records are passed to the visitor as soon as they are found
+	 *  and no object is created during the search
+	 *
+	 * @param  minLongitude the west border of the window
+	 * @param  minLatitude the south border of the window
+	 * @param  maxLongitude the east border of the window
+	 * @param  maxLatitude the north border of the window
+	 * @param  visitor the callback receiving the records
+	 * @return      false if the visitor stopped the search, true otherwise
+	 */
+	public boolean searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude, 
+			RecordVisitor<? super T> visitor) {
+		
+		int x0 = RTree.increaseUnit(minLongitude);
+		int y0 = RTree.increaseUnit(minLatitude);
+		int x1 = RTree.increaseUnit(maxLongitude);
+		int y1 = RTree.increaseUnit(maxLatitude);
+		
+		Node root = this.lockForRead();
+		try {
+			long cost = RTree.searchWindow(root, Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1), 
+					visitor, this.isConcurrent());
+			stats.query(RTree.nodesVisited(cost), RTree.entriesTested(cost));
+			return cost >= 0;
+		} finally {
+			this.unlockForRead(root);
+		}
+	}
+	
+	/*
+	 * Recursive part of the window search
+	 * a child is visited only if its bounding box intersects the window
+	 * it only depends on the nodes, so the other trees of the package built on Node use it as well
+	 */
+	static <T> boolean searchWindow(Node node, int x0, int y0, int x1, int y1, RecordVisitor<? super T> visitor) {
+		return RTree.searchWindow(node, x0, y0, x1, y1, visitor, false) >= 0;
+	}
+	
+	/*
+	 * if latched is true the node is read latched by the caller
+	 * and every child is read latched while it is visited.
+	 * Return the cost of the search of the subtree, see STOPPED
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> long searchWindow(Node node, int x0, int y0, int x1, int y1, RecordVisitor<? super T> visitor,
+			boolean latched) {
+		
+		int limit = node.size();
+		long cost = NODE_VISITED + limit;
+		int i;
+		for(i = 0; i < limit; i++) {
+			if(node.minX[i] <= x1 && x0 <= node.maxX[i] && node.minY[i] <= y1 && y0 <= node.maxY[i]) {
+				if(node.isLeaf) {
+					if(!visitor.visit((T) node.children[i])) {
+						return cost | STOPPED;
+					}
+				} else {
+					Node child = (Node) node.children[i];
+					if(latched) {
+						child.latch.readLock().lock();
+					}
+					long more;
+					try {
+						more = RTree.searchWindow(child, x0, y0, x1, y1, visitor, latched);
+					} finally {
+						if(latched) {
+							child.latch.readLock().unlock();
+						}
+					}
+					cost += more & ~STOPPED;
+					if(more < 0) {
+						return cost | STOPPED;
+					}
+				}
+			}
+		}
+		return cost;
+	}
+	
+	// the nodes visited by a search of the given cost
+	private static int nodesVisited(long cost) {
+		return (int)((cost & ~STOPPED) >>> 32);
+	}
+	
+	// the entries tested by a search of the given cost
+	private static int entriesTested(long cost) {
+		return (int) cost;
+	}
+	
+	/** 
+	 *  This method search the k records closest to a point.
+	 *  The tree is traversed best first: nodes and records are kept in a priority queue
+	 *  ordered by their minimum distance from the point, so only the nodes which can
+	 *  contain one of the k closest records are visited.
+	 *  
+	 *  The distance is the equirectangular approximation taken at the latitude of the point,
+	 *  which is accurate for the short distances this search is meant for
+	 *
+	 * @param  longitude the longitude of the point 
+	 * @param  latitude the latitude of the point
+	 * @param  k the number of records to return
+	 * @return      at most k records, the closest first
+	 */
+	public List<T> nearest(double longitude, double latitude, int k) {
+		Node root = this.lockForRead();
+		try {
+			return RTree.nearest(root, longitude, latitude, k, this.isConcurrent(), stats);
+		} finally {
+			this.unlockForRead(root);
+		}
+	}
+	
+	/*
+	 * Best first search of the k records closest to the point, starting from the node root
+	 */
+	static <T> List<T> nearest(Node root, double longitude, double latitude, int k) {
+		return RTree.nearest(root, longitude, latitude, k, false, null);
+	}
+	
+	/*
+	 * if latched is true the root is read latched by the caller, and every node is read latched
+	 * when it is visited until the end of the search. The nodes are not visited top down, 
+	 * but the latch of the parent keeps a node from being split before its turn comes.
+	 * The cost of the search is counted in stats if it is not null
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> nearest(Node root, double longitude, double latitude, int k, boolean latched, 
+			RTreeStats stats) {
+		
+		List<T> result = new ArrayList<T>(Math.max(k, 0));
+		if(k <= 0) {
+			return result;
+		}
+		int nodes = 0;
+		int entries = 0;
+		
+		int x = RTree.increaseUnit(longitude);
+		int y = RTree.increaseUnit(latitude);
+		// a degree of longitude gets shorter going away from the equator
+		double xScale = Math.cos(Math.toRadians(latitude));
+		
+		PriorityQueue<NearestEntry> queue = new PriorityQueue<NearestEntry>();
+		queue.add(new NearestEntry(root, false, 0));
+		List<Node> visited = new ArrayList<Node>();
+		
+		try {
+			while(!queue.isEmpty()) {
+				
+				NearestEntry entry = queue.poll();
+				
+				// a record comes out of the queue only when nothing left in the queue can be closer
+				if(entry.isRecord) {
+					result.add((T) entry.item);
+					if(result.size() == k) {
+						break;
+					}
+					continue;
 				}
+				
+				Node node = (Node) entry.item;
+				if(latched && node != root) {
+					node.latch.readLock().lock();
+					visited.add(node);
+				}
+				int limit = node.size();
+				nodes++;
+				entries += limit;
+				int i;
+				for(i = 0; i < limit; i++) {
+					queue.add(new NearestEntry(node.children[i], node.isLeaf, RTree.minDistance(node, i, x, y, xScale)));
+				}
+			}
+		} finally {
+			for(Node node : visited) {
+				node.latch.readLock().unlock();
 			}
+		}
+		
+		if(stats != null) {
+			stats.query(nodes, entries);
+		}
+		
+		return result;
+	}
+	
+	/*
+	 * Squared minimum distance between the point (x, y) and the bounding box of the entry i of the node
+	 * 0 if the point is inside the box
+	 */
+	private static double minDistance(Node node, int i, int x, int y, double xScale) {
+		
+		long dx = 0;
+		if(x < node.minX[i]) {
+			dx = (long)node.minX[i] - x;
+		} else if(x > node.maxX[i]) {
+			dx = (long)x - node.maxX[i];
+		}
+		
+		long dy = 0;
+		if(y < node.minY[i]) {
+			dy = (long)node.minY[i] - y;
+		} else if(y > node.maxY[i]) {
+			dy = (long)y - node.maxY[i];
+		}
+		
+		double scaledX = dx * xScale;
+		return scaledX * scaledX + (double)dy * dy;
+	}
+	
+	/** 
+	 *  This method search inside the tree for all the records within a great circle distance from a point.
+	 *  A subtree is visited only if its bounding box intersects the bounding box of the circle
+	 *  and its minimum distance from the point is within the radius.
+	 *  The records of the leaves are confirmed with the haversine distance
+	 *
+	 * @param  longitude the longitude of the center 
+	 * @param  latitude the latitude of the center
+	 * @param  meters the radius of the circle, in meters
+	 * @param  visitor the callback receiving the records
+	 * @return      false if the visitor stopped the search, true otherwise
+	 */
+	public boolean withinDistance(double longitude, double latitude, double meters, RecordVisitor<? super T> visitor) {
+		Node root = this.lockForRead();
+		try {
+			long cost = RTree.withinDistance(root, longitude, latitude, meters, visitor, this.isConcurrent());
+			stats.query(RTree.nodesVisited(cost), RTree.entriesTested(cost));
+			return cost >= 0;
+		} finally {
+			this.unlockForRead(root);
+		}
+	}
+	
+	/*
+	 * Distance search starting from the node root
+	 */
+	static <T> boolean withinDistance(Node root, double longitude, double latitude, double meters, RecordVisitor<? super T> visitor) {
+		return RTree.withinDistance(root, longitude, latitude, meters, visitor, false) >= 0;
+	}
+	
+	/*
+	 * if latched is true the root is read latched by the caller
+	 * and every child is read latched while it is visited.
+	 * Return the cost of the search, see STOPPED
+	 */
+	private static <T> long withinDistance(Node root, double longitude, double latitude, double meters, 
+			RecordVisitor<? super T> visitor, boolean latched) {
+		
+		int[] box = GeoDistance.boundingBox(longitude, latitude, meters);
+		return RTree.withinDistance(root, longitude, latitude, meters, box[0], box[1], box[2], box[3], visitor, latched);
+	}
+	
+	/*
+	 * Recursive part of the distance search
+	 * the bounding box test is cheap so it is done first, the distance only for the entries which pass it
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> long withinDistance(Node node, double longitude, double latitude, double meters, 
+			int x0, int y0, int x1, int y1, RecordVisitor<? super T> visitor, boolean latched) {
+		
+		int limit = node.size();
+		long cost = NODE_VISITED + limit;
+		int i;
+		for(i = 0; i < limit; i++) {
+			if(node.minX[i] <= x1 && x0 <= node.maxX[i] && node.minY[i] <= y1 && y0 <= node.maxY[i]
+					&& GeoDistance.minDistance(latitude, longitude, node.minX[i], node.minY[i], node.maxX[i], node.maxY[i]) <= meters) {
+				if(node.isLeaf) {
+					if(!visitor.visit((T) node.children[i])) {
+						return cost | STOPPED;
+					}
+				} else {
+					Node child = (Node) node.children[i];
+					if(latched) {
+						child.latch.readLock().lock();
+					}
+					long more;
+					try {
+						more = RTree.withinDistance(child, longitude, latitude, meters, x0, y0, x1, y1, visitor, latched);
+					} finally {
+						if(latched) {
+							child.latch.readLock().unlock();
+						}
+					}
+					cost += more & ~STOPPED;
+					if(more < 0) {
+						return cost | STOPPED;
+					}
+				}
+			}
+		}
+		return cost;
+	}
+	
+	/** 
+	 *  Add a record to the tree.
+	 *
+	 * @param  record the object you want to store
+	 * @param  longitude the longitude associated with the record 
+	 * @param  latitude the latitude associated with the record
+	 * @return      void
+	 */
+	public void addIndex(T record, double longitude, double latitude) {
+		
+		Point p = new Point(RTree.increaseUnit(longitude),RTree.increaseUnit(latitude));		
+		IndexRecord<T> r = new IndexRecord<T>(p,record);
+		this.addRecord(r);
+	}
+	
+	/** 
+	 *  Load a collection of records in an empty tree.
+	 *  The tree is built bottom up with the Sort-Tile-Recursive algorithm:
+	 *  the nodes are almost 100% full and cover compact areas, which is much faster to build
+	 *  and to search than adding the records one by one.
+	 *
+	 * @param  records the IndexRecords to load
+	 * @return      void
+	 * @throws IllegalStateException if the tree is not empty
+	 */
+	public void bulkLoad(Collection<IndexRecord<T>> records) {
+		this.lockTree();
+		try {
+			if(!rootNode.isLeaf || rootNode.size() > 0) {
+				throw new IllegalStateException("bulk load requires an empty tree");
+			}
+		
+			int n = records.size();
+			if(n == 0) {
+				return;
+			}
+		
+			int[] minX = new int[n];
+			int[] minY = new int[n];
+			int[] maxX = new int[n];
+			int[] maxY = new int[n];
+			Object[] children = new Object[n];
+		
+			int i = 0;
+			for(IndexRecord<T> record : records) {
+				minX[i] = record.r.minX;
+				minY[i] = record.r.minY;
+				maxX[i] = record.r.maxX;
+				maxY[i] = record.r.maxY;
+				children[i] = record.record;
+				this.logChange(true, record.record, minX[i], minY[i], maxX[i], maxY[i]);
+				i++;
+			}
+		
+			rootNode = new STRPacker(nodeMaxSize, nodeMinSize, this.isConcurrent()).pack(minX, minY, maxX, maxY, children, n, leafLevel);
+			this.forgetLeaves();
+			stats.inserted(n);
+		} finally {
+			this.unlockTree();
+		}
+	}
+	
+	/** 
+	 *  Write a binary image of the tree, which readFrom loads back without inserting the records again.
+	 *  The nodes are written level by level in a single pass, the stream is flushed but not closed.
+	 *  In concurrent mode the tree is read as a search does: the searches go on while it is written,
+	 *  the writers wait for the end of the image
+	 *
+	 * @param  out the stream receiving the image
+	 * @param  codec writes the indexed records
+	 * @return      void
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void writeTo(OutputStream out, PayloadCodec<? super T> codec) throws IOException {
+		Node root = this.lockForRead();
+		try {
+			TreeImage.write(root, new DataOutputStream(new BufferedOutputStream(out, TreeImage.BUFFER_SIZE)), codec, 
+					this.isConcurrent());
+		} finally {
+			this.unlockForRead(root);
+		}
+	}
+	
+	/** 
+	 *  Write a binary image of the tree in a file, see writeTo(OutputStream, PayloadCodec)
+	 *
+	 * @param  file the file to write, it is replaced if it exists
+	 * @param  codec writes the indexed records
+	 * @return      void
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writeTo(Path file, PayloadCodec<? super T> codec) throws IOException {
+		OutputStream out = Files.newOutputStream(file);
+		try {
+			this.writeTo(out, codec);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/** 
+	 *  Load a tree from an image written by writeTo.
+	 *  The nodes are rebuilt as they were written, the stream is not closed
+	 *
+	 * @param  in the stream of the image
+	 * @param  codec reads the indexed records
+	 * @return      the loaded tree, not concurrent and with the quadratic split
+	 * @throws IOException if the stream cannot be read or it is not an image
+	 */
+	public static <T> RTree<T> readFrom(InputStream in, PayloadCodec<? extends T> codec) throws IOException {
+		return RTree.readFrom(in, codec, null, false);
+	}
+	
+	/** 
+	 *  Load a tree from an image written by writeTo, see readFrom(InputStream, PayloadCodec)
+	 *
+	 * @param  in the stream of the image
+	 * @param  codec reads the indexed records
+	 * @param  splitStrategy the policy used by the loaded tree, the quadratic split if null
+	 * @param  concurrent true if the loaded tree is shared by several threads
+	 * @return      the loaded tree
+	 * @throws IOException if the stream cannot be read or it is not an image
+	 */
+	public static <T> RTree<T> readFrom(InputStream in, PayloadCodec<? extends T> codec, SplitStrategy splitStrategy,
+			boolean concurrent) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in, TreeImage.BUFFER_SIZE));
+		RTree<T> tree = new RTree<T>(TreeImage.readHeader(data), splitStrategy, concurrent);
+		tree.rootNode = TreeImage.<T>read(data, codec, tree.nodeMaxSize, concurrent);
+		return tree;
+	}
+	
+	/** 
+	 *  Load a tree from a file written by writeTo, see readFrom(InputStream, PayloadCodec)
+	 *
+	 * @param  file the file of the image
+	 * @param  codec reads the indexed records
+	 * @return      the loaded tree, not concurrent and with the quadratic split
+	 * @throws IOException if the file cannot be read or it is not an image
+	 */
+	public static <T> RTree<T> readFrom(Path file, PayloadCodec<? extends T> codec) throws IOException {
+		InputStream in = Files.newInputStream(file);
+		try {
+			return RTree.readFrom(in, codec);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/** 
+	 *  Add a batch of records to the tree, which can be already populated.
+	 *  The batch is cut in groups of close records, every group is packed with the Sort-Tile-Recursive
+	 *  algorithm in parallel on the fork/join pool, and the packed subtrees are grafted in the tree 
+	 *  at their level. Only the grafting needs the tree, so in concurrent mode the searches
+	 *  are blocked only for a short time
+	 *
+	 * @param  records the objects you want to store
+	 * @param  extractor gives the longitude and the latitude of every record
+	 * @return      void
+	 */
+	public void addAll(Collection<? extends T> records, CoordinateExtractor<? super T> extractor) {
+		
+		int n = records.size();
+		if(n == 0) {
+			return;
+		}
+		
+		int[] minX = new int[n];
+		int[] minY = new int[n];
+		int[] maxX = new int[n];
+		int[] maxY = new int[n];
+		Object[] children = new Object[n];
+		
+		int i = 0;
+		for(T record : records) {
+			minX[i] = maxX[i] = RTree.increaseUnit(extractor.longitude(record));
+			minY[i] = maxY[i] = RTree.increaseUnit(extractor.latitude(record));
+			children[i] = record;
+			i++;
+		}
+		
+		// the subtrees are packed up to the level below the root, so they can be grafted as they are.
+		// If the root is a leaf the groups are packed up to a single node
+		int rootLevel = rootNode.level;
+		int topLevel = rootLevel > leafLevel ? rootLevel - 1 : Integer.MAX_VALUE;
+		
+		// a group should fill at least a node of the level above the leaves
+		STRPacker packer = new STRPacker(nodeMaxSize, nodeMinSize, this.isConcurrent());
+		int groups = Math.max(1, Math.min(pool.getParallelism() * 4, n / (nodeMaxSize * nodeMaxSize)));
+		int[][] tiles = packer.partition(minX, minY, maxX, maxY, n, groups);
+		
+		List<STRPacker.PackTask> tasks = new ArrayList<STRPacker.PackTask>();
+		for(int[] tile : tiles) {
+			STRPacker.PackTask task = new STRPacker.PackTask(packer, minX, minY, maxX, maxY, children, tile, leafLevel, topLevel);
+			pool.execute(task);
+			tasks.add(task);
+		}
+		
+		List<Node> subtrees = new ArrayList<Node>();
+		for(STRPacker.PackTask task : tasks) {
+			for(Node node : task.join()) {
+				subtrees.add(node);
+			}
+		}
+		
+		this.lockTree();
+		try {
+			for(Node node : subtrees) {
+				this.graft(node);
+			}
+			this.forgetLeaves();
+			if(changes != null) {
+				for(T record : records) {
+					int x = RTree.increaseUnit(extractor.longitude(record));
+					int y = RTree.increaseUnit(extractor.latitude(record));
+					this.logChange(true, record, x, y, x, y);
+				}
+			}
+		} finally {
+			this.unlockTree();
+		}
+		stats.inserted(n);
+	}
+	
+	/*
+	 * Add a packed subtree to the tree, as an entry of a node at the level above its root.
+	 * A subtree as tall as the tree becomes the root and the old tree is grafted in it.
+	 * A subtree with too few entries for a node is not kept: its entries are added one by one
+	 */
+	private void graft(Node node) {
+		
+		if(node.size() < nodeMinSize) {
+			int limit = node.size();
+			int i;
+			for(i = 0; i < limit; i++) {
+				if(node.isLeaf) {
+					this.insert(node.minX[i], node.minY[i], node.maxX[i], node.maxY[i], node.children[i], leafLevel);
+				} else {
+					this.graft((Node) node.children[i]);
+				}
+			}
+			return;
+		}
+		
+		if(node.level >= rootNode.level) {
+			Node old = rootNode;
+			rootNode = node;
+			node.setRootNode(null);
+			if(node.level == old.level && old.size() >= nodeMinSize) {
+				// 2 subtrees of the same height: grow the tree taller
+				this.growTree(old);
+			} else {
+				this.graft(old);
+			}
+			return;
+		}
+		
+		BoundingBox b = node.mbb();
+		this.insert(b.minX, b.minY, b.maxX, b.maxY, node, node.level + 1);
+	}
+	
+	/** 
+	 *  Rebuild the tree with the Sort-Tile-Recursive packing, to remove the overlap and the dead space
+	 *  left by a long series of inserts and deletes.
+	 *  In concurrent mode the records are copied while the writers wait, then the new tree is packed aside
+	 *  and the changes made in the meantime are applied to it, while the searches and the writers go on.
+	 *  The tree is locked, blocking the searches too, only to apply the last changes and to replace the root:
+	 *  the lock is taken when the changes left can be applied in about MAX_LOCKED_REPLAY_NANOS.
+	 *  If the writers make changes faster than they are applied the rebuild is abandoned
+	 *
+	 * @return      true if the tree has been rebuilt, false if the rebuild has been abandoned
+	 */
+	public boolean rebuild() {
+		synchronized(rebuildLock) {
 			
-			for(Future<List<T>> task : tasks) {
-				try {
-					task.get();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				} catch (ExecutionException e) {
-					e.printStackTrace();
+			// [R1] copy the entries of the leaves
+			// the writers record their changes from the end of the copy
+			LeafEntries entries = new LeafEntries();
+			Node root = this.lockForRead();
+			try {
+				RTree.collect(root, entries, this.isConcurrent());
+				if(this.isConcurrent()) {
+					changes = new ArrayList<Change>();
 				}
+			} finally {
+				this.unlockForRead(root);
 			}
 			
-		} else { // [S2]			
-			for(IndexRecord<?> r : rootNode.entries ) {
-				if(mbb.contains(r.r) || mbb.intersects(r.r)) {
-					if(r.r.equals(mbb)) {
-						result.add((T) r.record);
-					}
+			try {
+				// [R2] pack the copy in a new tree, its nodes end in this tree so they are latched the same way
+				RTree<T> packed = new RTree<T>(nodeMaxSize, splitStrategy, this.isConcurrent());
+				if(entries.size > 0) {
+					packed.rootNode = new STRPacker(nodeMaxSize, nodeMinSize, this.isConcurrent()).pack(entries.minX, entries.minY, 
+							entries.maxX, entries.maxY, entries.children, entries.size, leafLevel);
+				}
+			
+				// [R3] apply the changes to the new tree, until few are left
+				List<Change> batch = this.drainChanges();
+				long nanosPerChange = 0;
+				int rounds = 0;
+				while(batch.size() > RTree.lockedReplay(nanosPerChange) && rounds < MAX_REPLAY_ROUNDS) {
+					long start = System.nanoTime();
+					packed.apply(batch);
+					nanosPerChange = (System.nanoTime() - start) / batch.size();
+					batch = this.drainChanges();
+					rounds++;
+				}
+				if(batch.size() > RTree.lockedReplay(nanosPerChange)) {
+					// the lock would be held too long
+					return false;
 				}
-			}			
-		}				
+			
+				// [R4] apply the last changes and replace the root, the searches started before
+				// finish on the old nodes which do not change any more
+				this.lockTree();
+				try {
+					packed.apply(batch);
+					packed.apply(this.drainChanges());
+					changes = null;
+					rootNode = packed.rootNode;
+					this.forgetLeaves();
+				} finally {
+					this.unlockTree();
+				}
+			} finally {
+				// the writers stop recording the changes even if the rebuild failed
+				changes = null;
+			}
+			stats.rebuilt();
+			return true;
+		}
+	}
+	
+	/*
+	 * The number of changes a rebuild applies with the tree locked,
+	 * given the time taken by a change without the lock, 0 if it has not been measured yet
+	 */
+	private static int lockedReplay(long nanosPerChange) {
+		if(nanosPerChange <= 0) {
+			return LOCKED_REPLAY;
+		}
+		return (int) Math.min(LOCKED_REPLAY, MAX_LOCKED_REPLAY_NANOS / nanosPerChange);
+	}
+	
+	/*
+	 * Copy the entries of the leaves under the node,
+	 * if latched is true the node is read latched by the caller and the children are latched as in a search
+	 */
+	private static void collect(Node node, LeafEntries entries, boolean latched) {
+		int limit = node.size();
+		int i;
+		if(node.isLeaf) {
+			for(i = 0; i < limit; i++) {
+				entries.add(node.minX[i], node.minY[i], node.maxX[i], node.maxY[i], node.children[i]);
+			}
+			return;
+		}
+		for(i = 0; i < limit; i++) {
+			Node child = (Node) node.children[i];
+			if(latched) {
+				child.latch.readLock().lock();
+			}
+			try {
+				RTree.collect(child, entries, latched);
+			} finally {
+				if(latched) {
+					child.latch.readLock().unlock();
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Record a change of the records, if a rebuild is running.
+	 * The inserts in concurrent mode call it with the leaf latched, the other writers with the tree locked
+	 */
+	private void logChange(boolean insert, Object record, int minX, int minY, int maxX, int maxY) {
+		List<Change> log = changes;
+		if(log != null) {
+			synchronized(log) {
+				log.add(new Change(insert, record, minX, minY, maxX, maxY));
+			}
+		}
+	}
+	
+	// take the changes recorded so far
+	private List<Change> drainChanges() {
+		List<Change> log = changes;
+		if(log == null) {
+			return Collections.emptyList();
+		}
+		synchronized(log) {
+			List<Change> batch = new ArrayList<Change>(log);
+			log.clear();
+			return batch;
+		}
+	}
+	
+	/*
+	 * Apply the changes recorded during a rebuild to the new tree, in the order they were made
+	 */
+	private void apply(List<Change> batch) {
+		for(Change change : batch) {
+			if(change.insert) {
+				this.insert(change.minX, change.minY, change.maxX, change.maxY, change.record, leafLevel);
+			} else {
+				Node leaf = this.findLeaf(rootNode, change.record, change.minX, change.minY);
+				if(leaf != null) {
+					this.removeEntry(leaf, this.indexOf(leaf, change.record, change.minX, change.minY));
+				}
+			}
+		}
+	}
+	
+	/** 
+	 *  Internal method which adds the record to the tree
+	 *
+	 * @param  record the IndexRecord to add
+	 * @return      void
+	 */
+	public void addRecord(IndexRecord<T> record) {
+		BoundingBox r = record.r;
+		stats.inserted(1);
+		if(structureLock == null) {
+			this.insert(r.minX, r.minY, r.maxX, r.maxY, record.record, leafLevel);
+			return;
+		}
+		
+		structureLock.readLock().lock();
+		try {
+			this.insertLatched(r.minX, r.minY, r.maxX, r.maxY, record.record);
+		} finally {
+			structureLock.readLock().unlock();
+		}
+	}
+	
+	/*
+	 * Insert an entry in a node at the given level:
+	 * a record goes to a leaf (level 0), a subtree to the level above its root.
+	 * Inserting at a level is needed when the entries of an eliminated node are reinserted
+	 */
+	private void insert(int minX, int minY, int maxX, int maxY, Object child, int level) {
+		// the levels where the forced reinsertion already happened during this insertion
+		boolean[] reinserted = null;
+		if(splitStrategy.reinsertFraction() > 0) {
+			reinserted = new boolean[rootNode.level + 1];
+		}
+		this.insert(minX, minY, maxX, maxY, child, level, reinserted);
+	}
+	
+	private void insert(int minX, int minY, int maxX, int maxY, Object child, int level, boolean[] reinserted) {
+		
+		/*
+		 * [ I1 ]
+		 * [ Find position for the new record  ] 
+		 * Invoke  ChooseLeaf  to  select  a  leaf node  L,
+		 * in  which  to  place  E 
+		 */					
+		Node n = chooseLeaf(rootNode, minX, minY, maxX, maxY, level);		
+		
+		/* 
+		 * [ I2 ]
+		 * [ Add  record  to  leaf  node ]
+		 * If  L  has room  for  another  entry, install(add)  E 
+		 * otherwise  invoke  SplitNode  to  obtain
+		 * L(node)  and  LL(node) containing E  and all the old entries of L
+		 */
+		// add in any case the entry because it will get split later, 
+		// the array in the node is already built with a capacity of MAX ENTRIES + 1
+		// so the performances should be reasonable
+		n.add(minX, minY, maxX, maxY, child);
+		if(!n.isLeaf) {
+			((Node)child).setRootNode(n);
+		} else {
+			this.setLeaf(child, n);
+		}
+		
+		/*
+		 * [ I3 ]
+		 * [Propagate  changes  upward]  Invoke
+		 * AdjustTree  on  L, which treats the overflow of L and of its ancestors
+		 *  
+		 */
+		
+		// adjust tree structure and bounding boxes
+		this.adjustTree(n, reinserted);		
+		
+		// DEBUG ONLY
+		//System.out.println("-------------------------------------");
+		//System.out.println(rootNode.hashCode());
+		//this.print(rootNode, "");
+		
+	}
+	
+	/*
+	 * The root node has been split and newNode is its new sibling:
+	 * create a new root containing the old root and newNode
+	 */
+	private void growTree(Node newNode) {
+		
+		// create a empty root node			
+		Node newRoot = new Node(nodeMaxSize, nodeMinSize, rootNode.level + 1, null, this.isConcurrent());
+		
+		// the old root contains all the database records indexes
+		// so add it to the newly created root together with its bounding box
+		rootNode.setRootNode(newRoot);
+		newRoot.setBounds(newRoot.add(0, 0, 0, 0, rootNode), rootNode);
+		
+		// do the same for the node which comes from the overflowing of the old root
+		newNode.setRootNode(newRoot);
+		newRoot.setBounds(newRoot.add(0, 0, 0, 0, newNode), newNode);
+		
+		// assign the RTree rootNode object to the new one we just populated
+		rootNode = newRoot;
+		stats.grown();
+	}
+	
+	/*
+	 * Insert of a record in concurrent mode, with latch coupling.
+	 * The nodes are write latched from the root down, and the entry of the chosen child is enlarged
+	 * on the way down, so the boxes above the leaf are already right when the record is added.
+	 * When a child has space a split cannot go above it, so the latches of its ancestors are released.
+	 * A split propagates up only through the nodes which are still latched
+	 */
+	private void insertLatched(int minX, int minY, int maxX, int maxY, Object child) {
+		
+		// the latched nodes, from the top one down to n
+		List<Node> latched = new ArrayList<Node>();
+		Node n = this.lockRoot(true);
+		latched.add(n);
+		
+		try {
+			// [ I1 ] choose the leaf coupling the latches
+			while(!n.isLeaf) {
+				int i = RTree.chooseSubtree(n, minX, minY, maxX, maxY);
+				if(minX < n.minX[i]) n.minX[i] = minX;
+				if(minY < n.minY[i]) n.minY[i] = minY;
+				if(maxX > n.maxX[i]) n.maxX[i] = maxX;
+				if(maxY > n.maxY[i]) n.maxY[i] = maxY;
 				
-		return result;
+				Node next = (Node) n.children[i];
+				next.latch.writeLock().lock();
+				if(next.hasSpace()) {
+					RTree.unlock(latched);
+				}
+				latched.add(next);
+				n = next;
+			}
+			
+			// [ I2 ] add the record to the leaf
+			// a rebuild copying the leaves sees the record or gets it from the changes, never both
+			n.add(minX, minY, maxX, maxY, child);
+			this.logChange(true, child, minX, minY, maxX, maxY);
+			this.setLeaf(child, n);
+			
+			// [ I3 ] propagate the splits upward
+			int j = latched.size() - 1;
+			while(n.size() > nodeMaxSize) {
+				Node nn = this.splitNode(n);
+				if(j == 0) {
+					// [ I4 ] the top latched node had no space, so it is the root
+					this.growTree(nn);
+					break;
+				}
+				Node parent = latched.get(--j);
+				parent.setBounds(parent.indexOf(n), n);
+				parent.setBounds(parent.add(0, 0, 0, 0, nn), nn);
+				n = parent;
+				stats.propagated();
+			}
+		} finally {
+			RTree.unlock(latched);
+		}
+	}
+	
+	// release the write latches of the nodes
+	private static void unlock(List<Node> latched) {
+		for(Node n : latched) {
+			n.latch.writeLock().unlock();
+		}
+		latched.clear();
+	}
+	
+	/*
+	 * Latch the root node, in write or read mode.
+	 * The root may be replaced while waiting for its latch, in this case the latch is released
+	 * and the new root is latched. The root can change only under the latch of the old one
+	 */
+	private Node lockRoot(boolean write) {
+		while(true) {
+			Node root = rootNode;
+			Lock latch = write ? root.latch.writeLock() : root.latch.readLock();
+			latch.lock();
+			if(root == rootNode) {
+				return root;
+			}
+			latch.unlock();
+		}
+	}
+	
+	/*
+	 * The root node, for the classes of the package which read the whole tree.
+	 * In concurrent mode the caller must hold lockTree
+	 */
+	Node root() {
+		return rootNode;
+	}
+	
+	/*
+	 * The statistics of the tree, which register can expose in JMX
+	 */
+	public RTreeStats stats() {
+		return stats;
+	}
+	
+	boolean isConcurrent() {
+		return structureLock != null;
+	}
+	
+	/*
+	 * Start of a search: in concurrent mode the tree is shared and the root is read latched.
+	 * Return the root the search has to start from
+	 */
+	Node lockForRead() {
+		if(structureLock == null) {
+			return rootNode;
+		}
+		structureLock.readLock().lock();
+		return this.lockRoot(false);
+	}
+	
+	/*
+	 * Read a node reached without holding the latch of its parent, as the walks which release
+	 * a node before visiting its children do. The node may have been removed from the tree
+	 * in the meantime, but it does not change while it is read. unlockForRead ends the read
+	 */
+	void lockForRead(Node node) {
+		if(structureLock != null) {
+			structureLock.readLock().lock();
+			node.latch.readLock().lock();
+		}
+	}
+	
+	void unlockForRead(Node root) {
+		if(structureLock != null) {
+			root.latch.readLock().unlock();
+			structureLock.readLock().unlock();
+		}
+	}
+	
+	// exclusive access to the whole tree in concurrent mode
+	void lockTree() {
+		if(structureLock != null) {
+			structureLock.writeLock().lock();
+		}
+	}
+	
+	void unlockTree() {
+		if(structureLock != null) {
+			structureLock.writeLock().unlock();
+		}
 	}
 	
 	/** 
-	 *  Add a record to the tree.
+	 *  Delete a record from the tree.
 	 *
-	 * @param  record the object you want to store
-	 * @param  longitude the longitude associated with the record 
-	 * @param  latitude the latitude associated with the record
-	 * @return      void
+	 * @param  record the object you want to delete
+	 * @param  longitude the longitude the record has been added with 
+	 * @param  latitude the latitude the record has been added with
+	 * @return      true if the record has been found and deleted
 	 */
-	public void addIndex(T record, double latitude, double longitude) {
+	public boolean delete(T record, double longitude, double latitude) {
+		this.lockTree();
+		try {
+			int x = RTree.increaseUnit(longitude);
+			int y = RTree.increaseUnit(latitude);
 		
-		int l = (int)(Math.abs(latitude) * 100000);
-		int ll = (int)(Math.abs(longitude) * 100000);
-		Point p = new Point(l,ll);		
-		IndexRecord<T> r = new IndexRecord<T>(p,record);
-		this.addRecord(r);
+			/*
+			 * [ D1 ]
+			 * [Find  node  containing  record]  Invoke
+			 * FindLeaf  to  locate  the  leaf  node  L
+			 * containing  E
+			 */
+			Node leaf = this.leafOf(record, x, y);
+			if(leaf == null) {
+				return false;
+			}
+		
+			this.removeEntry(leaf, this.indexOf(leaf, record, x, y));
+			this.logChange(false, record, x, y, x, y);
+			Map<Object, Node> map = leaves;
+			if(map != null) {
+				map.remove(record);
+			}
+			stats.deleted();
+			return true;
+		} finally {
+			this.unlockTree();
+		}
 	}
 	
-	/** 
-	 *  Internal method which adds the record to the tree
-	 *
-	 * @param  record the IndexRecord to add
-	 * @return      void
+	/*
+	 * Remove the entry i from the leaf and fix the tree
 	 */
-	public void addRecord(IndexRecord<T> record) {
+	private void removeEntry(Node leaf, int i) {
 		
 		/*
-		 * [ I1 ]
-		 * [ Find position for the new record  ] 
-		 * Invoke  ChooseLeaf  to  select  a  leaf node  L,
-		 * in  which  to  place  E 
-		 */					
-		Node n = chooseLeaf(rootNode, record);		
-		Node newLeaf = null;
-		
-		/* 
-		 * [ I2 ]
-		 * [ Add  record  to  leaf  node ]
-		 * If  L  has room  for  another  entry, install(add)  E 
-		 * otherwise  invoke  SplitNode  to  obtain
-		 * L(node)  and  LL(node) containing E  and all the old entries of L
+		 * [ D2 ]
+		 * [Delete  record  ]  Remove  E  from  L
 		 */
-		if(n.hasSpace()) {
-			n.add(record);
-		} else {
-			// add in any case the entry because it will get split later, 
-			// the array in the node is already built with a capacity of MAX ENTRIES + 1
-			// so the performances should be reasonable
-			n.add(record);
-			// Now Split Node
-			newLeaf = this.splitNode(n);
-		}				
+		leaf.remove(i);
 		
 		/*
-		 * [Propagate  changes  upward]  Invoke
-		 * AdjustTree  on  L,  also  passing LL  if a not split happened
-		 *  
+		 * [ D3 ]
+		 * [Propagate  changes]  Invoke CondenseTree,  passing  L
 		 */
-		
-		// adjust tree structure and bounding boxes
-		Node newNode = this.adjustTree(n, newLeaf);		
-		
-		// means the initial root node is Leaf and has not space anymore
-		// therefore it has been split
-		// we need to change the root node with a new one containing the split
-		// this happens only when the root node is a LEAF (which is when a new RTree object has been initialized and there are
-		// entries < max
-		// in other words this code is executed only once ! when the rootNode overflows
-		if(newLeaf != null && rootNode.isLeaf) {
-			
-			// create a empty root node			
-			Node newRoot = new Node(nodeMaxSize, nodeMinSize, false, null);
-			
-			// set the current root node, rootNode property to the newly created root node
-			rootNode.setRootNode(newRoot);
-			
-			// create a new node record with the old root
-			// because the old root contains all the database records indexes
-			// and add it to the newly created rootNode
-			// calculate the BB
-			IndexRecord<Node> oldNodeRecord = new IndexRecord<Node>(rootNode);
-			newRoot.add(oldNodeRecord);
-			this.calculateMBB(rootNode);
-			
-			// do the same as above but for the newLeaf node
-			// which comes from the overflowing of the rootNode
-			// the newLeaf has to have its rootNode set to the new root node we create above (called newRoot)
-			newLeaf.setRootNode(newRoot);
-			IndexRecord<Node> newNodeRecord = new IndexRecord<Node>(newLeaf);
-			newRoot.add(newNodeRecord);
-			this.calculateMBB(newLeaf);
-			
-			// assign the RTree rootNode object to the new one we just populated
-			rootNode = newRoot;
-		}		
+		this.condenseTree(leaf);
 		
 		/*
-		 * [ I4 ]
-		 * 
-		 * [Grow  tree  taller  ]  If  node  split  propagation
-		 * caused  the  root  to  split
-		 * create  a  new  root  whose  children  are 
-		 * the  two  resulting  nodes 
-		 * 
+		 * [ D4 ]
+		 * [Shorten tree]  If  the  root  node  has only  one  child  after  the  tree  has
+		 * been  adjusted,  make  the  child  the  new root
 		 */
-		if(newNode != null && !rootNode.isLeaf ) {
-			
-			IndexRecord<Node> newSplittedNode = new IndexRecord<Node>(this.calculateMaxPoint(newNode),newNode);
-			rootNode.add(newSplittedNode);
-			
-			for(IndexRecord<?> index : newNode.entries) {
-				rootNode.remove(index);
-			}
+		while(!rootNode.isLeaf && rootNode.size() == 1) {
+			Node child = (Node) rootNode.children[0];
+			child.setRootNode(null);
+			rootNode = child;
 		}
-		
-		// DEBUG ONLY
-		//System.out.println("-------------------------------------");
-		//System.out.println(rootNode.hashCode());
-		//this.print(rootNode.entries, "");
-		
 	}
 	
-	/*
-	 * This method print the TREE
-	 * WARNING: if the tree is big this will take a lot of time and resources !
-	 * it should be used only for debugging purposes
+	/** 
+	 *  Remember the leaf of every record, so update finds it without a search from the root.
+	 *  It pays when the records move often in a tall tree: it costs a map entry for every record
+	 *  updated or inserted after it is turned on, until the record is deleted or the tree packed again,
+	 *  and it relies on the equals and hashCode of the records.
+	 *  The leaves are not collected at once, every record is searched from the root on its first update
+	 *
+	 * @param  enabled true to remember the leaves, false to drop them and search from the root
 	 */
-	private void print(List<IndexRecord<?>> entries, String separator) {
-		
-		if(entries == null) {
-			entries = this.rootNode.entries;
-		}
-		
-		String space = separator + " - ";
-		for(IndexRecord<?> r : entries) {
-			if(r.record instanceof Node) {
-				Node n = (Node)r.record;
-				System.out.println(space + n.hashCode() + " (" + r.r.width + "," + r.r.height + ")");
-				this.print(n.entries,space);
-			} else {
-				Record entry = (Record)r.record;
-				System.out.println(space + entry.id);
+	public void setLeafTracking(boolean enabled) {
+		this.lockTree();
+		try {
+			if(!enabled) {
+				leaves = null;
+			} else if(leaves == null) {
+				if(this.isConcurrent()) {
+					// the inserts in concurrent mode update it in parallel
+					leaves = new ConcurrentHashMap<Object, Node>();
+				} else {
+					leaves = new HashMap<Object, Node>();
+				}
 			}
+		} finally {
+			this.unlockTree();
 		}
 	}
 	
-	
-	/*
-	 * TODO: we should give a try to JDK 7 fork/join
-	 * This is the private method to search inside the TREE
+	/** 
+	 *  Move a record to a new position.
+	 *  The leaf of the record is searched from the root at the old position,
+	 *  or taken from the leaves remembered by the tree if setLeafTracking turned them on.
+	 *  If the new position is still inside the bounding box of the leaf of the record,
+	 *  the record is moved in place. If it is inside the bounding box of a sibling leaf with space,
+	 *  the record is moved to that leaf. Only otherwise the record is deleted and inserted again.
+	 *  In concurrent mode the update takes the whole tree, so the searches wait for it
+	 *
+	 * @param  record the object you want to move
+	 * @param  oldLongitude the longitude the record has been added with 
+	 * @param  oldLatitude the latitude the record has been added with
+	 * @param  newLongitude the new longitude of the record 
+	 * @param  newLatitude the new latitude of the record
+	 * @return      true if the record has been found and moved
 	 */
-	@SuppressWarnings("unchecked")
-	private List<T> search(Point p, Node node, List<T> qualifiedRecords) {
+	public boolean update(T record, double oldLongitude, double oldLatitude, double newLongitude, double newLatitude) {
+		this.lockTree();
+		try {
+			int oldX = RTree.increaseUnit(oldLongitude);
+			int oldY = RTree.increaseUnit(oldLatitude);
+			int x = RTree.increaseUnit(newLongitude);
+			int y = RTree.increaseUnit(newLatitude);
 		
-		if(node == null) {
-			node = rootNode;
-		}
+			Node leaf = this.leafOf(record, oldX, oldY);
+			if(leaf == null) {
+				return false;
+			}
+			int i = this.indexOf(leaf, record, oldX, oldY);
+			this.logChange(false, record, oldX, oldY, oldX, oldY);
+			this.logChange(true, record, x, y, x, y);
 		
-		if(qualifiedRecords == null) {
-			qualifiedRecords = new ArrayList<T>();
-		}
+			Node parent = leaf.getRootNode();
+			int leafIndex = parent == null ? -1 : parent.indexOf(leaf);
 		
-		// minimum bounding box of point p		
-		Rectangle mbb = new Rectangle(0, 0, p.x, p.y);
-		if(!node.isLeaf) {
-			for(IndexRecord<?> r : node.entries ) {
-				if(mbb.contains(r.r) || mbb.intersects(r.r)) {
-					IndexRecord<Node> entry = (IndexRecord<Node>)r;
-					search(p,entry.record,qualifiedRecords);
-				}
+			// the new position is inside the leaf, or the leaf is the root: move the record in place
+			// the leaf box can only shrink, because the old position may have been on its border
+			if(parent == null || (parent.minX[leafIndex] <= x && x <= parent.maxX[leafIndex] 
+					&& parent.minY[leafIndex] <= y && y <= parent.maxY[leafIndex])) {
+				leaf.minX[i] = x;
+				leaf.minY[i] = y;
+				leaf.maxX[i] = x;
+				leaf.maxY[i] = y;
+				this.shrinkTree(leaf);
+				return true;
 			}
-		} else { // [S2]			
-			for(IndexRecord<?> r : node.entries ) {
-				if(mbb.contains(r.r) || mbb.intersects(r.r)) {
-					if(r.r.equals(mbb)) {
-						qualifiedRecords.add((T) r.record);
+		
+			// the new position is inside a sibling with space: move the record there
+			// the box of the sibling does not change
+			int limit = parent.size();
+			int j;
+			for(j = 0; j < limit; j++) {
+				if(j != leafIndex && parent.minX[j] <= x && x <= parent.maxX[j] && parent.minY[j] <= y && y <= parent.maxY[j]) {
+					Node sibling = (Node) parent.children[j];
+					if(sibling.hasSpace()) {
+						sibling.add(x, y, x, y, leaf.children[i]);
+						this.setLeaf(record, sibling);
+						if(leaf.size() > nodeMinSize) {
+							leaf.remove(i);
+							this.shrinkTree(leaf);
+						} else {
+							this.removeEntry(leaf, i);
+						}
+						return true;
 					}
 				}
-			}			
+			}
+		
+			// the record left the area of its leaf and of the siblings
+			this.removeEntry(leaf, i);
+			this.insert(x, y, x, y, record, leafLevel);
+			return true;
+		} finally {
+			this.unlockTree();
 		}
-		return qualifiedRecords;
 	}
 	
+	/*
+	 * Recalculate the bounding boxes from the node n up to the root
+	 * it stops as soon as a box does not change
+	 */
+	private void shrinkTree(Node n) {
+		Node parent = n.getRootNode();
+		while(parent != null && parent.setBounds(parent.indexOf(n), n)) {
+			n = parent;
+			parent = n.getRootNode();
+		}
+	}
 	
+	/*
+	 * The leaf containing the record at the point (x, y), null if the record is not in the tree.
+	 * The leaf the record was last added to is checked first: it is the right one if the record is there
+	 * and the leaf is still in the tree, otherwise the leaf is searched from the root
+	 */
+	private Node leafOf(Object record, int x, int y) {
+		Map<Object, Node> map = leaves;
+		if(map != null) {
+			Node leaf = map.get(record);
+			if(leaf != null && this.indexOf(leaf, record, x, y) >= 0 && this.isAttached(leaf)) {
+				return leaf;
+			}
+		}
+		Node leaf = this.findLeaf(rootNode, record, x, y);
+		if(leaf != null && map != null) {
+			map.put(record, leaf);
+		}
+		return leaf;
+	}
 	
+	// remember the leaf of the record, if the leaves are tracked
+	private void setLeaf(Object record, Node leaf) {
+		Map<Object, Node> map = leaves;
+		if(map != null) {
+			map.put(record, leaf);
+		}
+	}
 	
+	// the packed tree has new leaves, the records get theirs back with their next update
+	private void forgetLeaves() {
+		Map<Object, Node> map = leaves;
+		if(map != null) {
+			map.clear();
+		}
+	}
 	
 	/*
-	 * Choose Leaf:
-	 * this is called only internally, during the add method
+	 * true if the node is in the tree: it is an entry of its parent, and so on up to the root.
+	 * The nodes removed by condenseTree or by a new root keep their entries, so a leaf
+	 * remembered for a record has to be checked
 	 */
-	//@SuppressWarnings("unchecked")
-	private Node chooseLeaf(Node node, IndexRecord<?> record) {
-				
-		// if is leaf add
-		if(node.isLeaf) {
-			return node;
-		} else {
-			
-			// because the node is NOT a leaf then all the entries are references to other nodes
-			
-			// Use the first record to calculate the first enlargement			
-			// compare it with an empty in terms of dimensions, rectangle
-			long leastEnlargement = this.enlargement(new Rectangle(), node.entries.get(0).r);
-			
-			// the index in the cycle with the least enlargement and the smallest area
-			int bestIndex = 0;
-			
-			// max number of loops
-			int loopLimit = node.entries.size();
-			
-			// var for the cycle - Watch out !
-			// the var starts from 1 ! NOT from 0
-			// because we used the first entry as reference
-			int i;
-			for(i = 1; i < loopLimit; i++) {
-				
-				//calculate the union and the total area of the 2 rectangles
-				// use the previous rectangle and the current one
-				// this works because we start the cycle from 1 ! 
-				long enlargement = this.enlargement(record.r, node.entries.get(i).r);
-				
-				// if the new area is smaller or equal than the stored one then:
-				// - check if it is equal and take the index of the rectangle with the smallest area
-				if(enlargement <= leastEnlargement) {
-					
-					if(enlargement == leastEnlargement) {						
-						//take the index with the smallest area
-						if(this.area(node.entries.get(i).r) < this.area(node.entries.get(bestIndex).r)) {
-							bestIndex = i;
-						}
-					} else {
-						leastEnlargement = enlargement;
-						bestIndex = i;
-					}
-				}
+	private boolean isAttached(Node node) {
+		Node parent = node.getRootNode();
+		while(parent != null) {
+			if(parent.indexOf(node) < 0) {
+				return false;
 			}
-			
-			Node n = (Node) node.entries.get(bestIndex).record;
-			if(n.isLeaf) {
-				return n;
-			} else {
-				return chooseLeaf(n, record);
-			}
-		}		
+			node = parent;
+			parent = node.getRootNode();
+		}
+		return node == rootNode;
 	}
 	
-	
-	private Node splitNode(Node n) {
-		
-		// group 1 is the origin node		
-		Node group1 = n;
-		// the root node of the new node, is the parent of Node n
-		Node group2 = new Node(nodeMaxSize, nodeMinSize, n.isLeaf, n.getRootNode());				
-		
-		// picks the seeds
-		int[] first2Entries = this.pickSeeds(n);		
-		int group2Entry = first2Entries[0];
-		int group1Entry = first2Entries[1];
-		
-		// get the records		
-		IndexRecord<?> record1 = n.entries.get(group1Entry);
-		IndexRecord<?> record2 = n.entries.get(group2Entry);
-		
-		// assign the seed to the second group
-		// the first group has already the seed so no point to remove it
-		group2.add(record2);
-		
-		// remove the seed assigned to group 2 from group 1
-		group1.remove(record2);
-		
-		// copy the entries in another array so we can safely process them
-		ArrayList<IndexRecord<?>> copyOfEntries = new ArrayList<IndexRecord<?>>(group1.entries);
-		
-		// get the rectangle of each entry
-		Rectangle group1Rectangle = record1.r;
-		Rectangle group2Rectangle = record2.r;
-		
+	/*
+	 * Find Leaf:
+	 * the leaf containing the record at the point (x, y), null if the record is not in the tree
+	 */
+	private Node findLeaf(Node node, Object record, int x, int y) {
 		
-		int totalEntries = copyOfEntries.size();
+		if(node.isLeaf) {
+			return this.indexOf(node, record, x, y) >= 0 ? node : null;
+		}
 		
+		int limit = node.size();
 		int i;
-		for(i=0; i < totalEntries; i++) {
-			
-			// if the second group reached already the minimum size
-			// we can exit the loop
-			if(group2.entries.size() >= group2.nodeMinSize) {
-				break;
+		for(i = 0; i < limit; i++) {
+			if(node.minX[i] <= x && x <= node.maxX[i] && node.minY[i] <= y && y <= node.maxY[i]) {
+				Node leaf = this.findLeaf((Node) node.children[i], record, x, y);
+				if(leaf != null) {
+					return leaf;
+				}
 			}
-			
-			int nextEntryIndex = this.pickNext(copyOfEntries, group1Rectangle, group2Rectangle);
-			IndexRecord<?> nextRecord = copyOfEntries.get(nextEntryIndex);
-			short group = this.detectGroupAssignement(nextRecord, group1Rectangle, group2Rectangle, 
-					group1.entries.size(), group2.entries.size());
-			
-			if(group == 3) { // means both				
-				
-				// add to both groups
-				// group 1 already has the entry so no point to add it				
-				this.addToGroup(group2, nextRecord);
-				
-			} else if(group == 2) { // means group2
-				//add to group2
-				this.addToGroup(group2, nextRecord);
-				
-				// remove it from group 1
-				group1.remove(nextRecord);
-
-			} // else would mean add it to group 1, but it contains the record already so nothing to do
-			
-			copyOfEntries.remove(nextRecord);
 		}
-		
-		return group2;
+		return null;
 	}
 	
-	// add the node to the right group
-	private void addToGroup(Node n, IndexRecord<?> nextRecord ) {
-		if(!n.entries.contains(nextRecord)) {
-			n.add(nextRecord);
+	/*
+	 * Index of the record at the point (x, y) in the leaf, -1 if it is not there
+	 */
+	private int indexOf(Node leaf, Object record, int x, int y) {
+		int limit = leaf.size();
+		int i;
+		for(i = 0; i < limit; i++) {
+			if(leaf.minX[i] == x && leaf.maxX[i] == x && leaf.minY[i] == y && leaf.maxY[i] == y 
+					&& record.equals(leaf.children[i])) {
+				return i;
+			}
 		}
+		return -1;
 	}
 	
-	// detect in which group the node falls
-	private short detectGroupAssignement(IndexRecord<?> record , Rectangle group1, Rectangle group2, 
-		int group1Size, int group2Size) {
-		
-		short group = 1;
-		
-		// detect which rectangle has to be enlarged the least between group1 and group 2 
-		// rectangles and the record
+	/*
+	 * Condense Tree:
+	 * a record has been removed from the leaf n, go up to the root removing the nodes with too few entries
+	 * and shrinking the bounding boxes. The entries of the removed nodes are inserted again.
+	 */
+	private void condenseTree(Node n) {
 		
-		long enlarged1 = this.enlargement(group1, record.r);
-		long enlarged2 = this.enlargement(group2, record.r);
+		// [CT1] the set of eliminated nodes
+		List<Node> eliminated = new ArrayList<Node>();
 		
-		if(enlarged1 == enlarged2) {
-			// both groups
-			group = 3;
-			
-			long areaGroup1 = this.area(group1); 
-			long areaGroup2 = this.area(group2);
+		while(n.getRootNode() != null) {
 			
-			if(areaGroup1 < areaGroup2) {
-				group = 1;
-			} else if(areaGroup1 > areaGroup2) {
-				group = 2;
+			// [CT3]
+			Node parent = n.getRootNode();
+			if(n.size() < nodeMinSize) {
+				// [CT4] eliminate under-full node
+				parent.remove(parent.indexOf(n));
+				n.setRootNode(null);
+				eliminated.add(n);
 			} else {
-				if(group1Size > group2Size) {
-					group = 2;
-				} else if(group1Size < group2Size) {
-					group = 1;
-				}
+				// [CT5] adjust covering box
+				this.calculateMBB(n);
 			}
 			
-		} else if(enlarged1 > enlarged2) {
-			group = 2;
-		} // else the group is = 1, but because we have set the variable we do not have to do anything 				
+			// [CT2]
+			n = parent;
+		}
 		
-		return group;
+		// [CT6] reinsert orphaned entries
+		// the entries of a leaf are records, the entries of the other nodes are subtrees
+		// which go back at their level, so the tree stays balanced
+		for(Node orphan : eliminated) {
+			int limit = orphan.size();
+			int i;
+			for(i = 0; i < limit; i++) {
+				this.insert(orphan.minX[i], orphan.minY[i], orphan.maxX[i], orphan.maxY[i], orphan.children[i], orphan.level);
+			}
+		}
 	}
 	
-	
-	
 	/*
-	 * PickSeeds
+	 * This method print the TREE
+	 * WARNING: if the tree is big this will take a lot of time and resources !
+	 * it should be used only for debugging purposes
 	 */
-	private int[] pickSeeds(Node n) {
-		
-		// max number of loops
-		int loopLimit = n.entries.size();
+	private void print(Node node, String separator) {
 		
-		long wasteFull = Long.MIN_VALUE;
-		int[] watseFullPairsIndex = new int[2];
+		if(node == null) {
+			node = this.rootNode;
+		}
 		
+		String space = separator + " - ";
 		int i;
-		for(i = 0; i < loopLimit; i++) {
-						
-			Seed seed = this.combine(n, i, wasteFull);
-			if(seed.wasteFull > wasteFull) {
-				wasteFull = seed.wasteFull;
-				watseFullPairsIndex[0] = seed.bestIndex[0];
-				watseFullPairsIndex[1] = seed.bestIndex[1];
-			}			
+		for(i = 0; i < node.size(); i++) {
+			if(!node.isLeaf) {
+				Node n = (Node)node.children[i];
+				System.out.println(space + n.hashCode() + " " + node.entryBox(i));
+				this.print(n,space);
+			} else {
+				System.out.println(space + node.children[i] + " " + node.entryBox(i));
+			}
 		}
-		
-		return watseFullPairsIndex;
+	}
+	
+	
+	/*
+	 * Choose Leaf:
+	 * this is called only internally, during the add method
+	 * it returns the node at the given level (the leaves are at level 0) where the box fits best
+	 */
+	private Node chooseLeaf(Node node, int minX, int minY, int maxX, int maxY, int level) {
+				
+		// if is leaf add
+		if(node.level == level) {
+			return node;
+		}
+		return chooseLeaf((Node) node.children[RTree.chooseSubtree(node, minX, minY, maxX, maxY)], minX, minY, maxX, maxY, level);
 	}
 	
 	/*
-	 * Get the best index from the combination of all entries
+	 * The index of the entry of the internal node which needs the least enlargement to include the box,
+	 * ties are resolved by the smallest area. It only depends on the node, so the other trees use it as well
 	 */
-	private Seed combine(Node n, int startIndex, long wasteFull) {
+	static int chooseSubtree(Node node, int minX, int minY, int maxX, int maxY) {
 		
-		IndexRecord<?> r1 = n.entries.get(startIndex);
-		int limit = n.entries.size();
-		int start = startIndex + 1;
-		int i;
+		// because the node is NOT a leaf then all the entries are references to other nodes
 		
-		Seed seed = new Seed();
+		// Use the first entry to calculate the first enlargement			
+		long leastEnlargement = BoundingBox.enlargement(node.minX[0], node.minY[0], node.maxX[0], node.maxY[0],
+				minX, minY, maxX, maxY);
+		long leastArea = BoundingBox.area(node.minX[0], node.minY[0], node.maxX[0], node.maxY[0]);
 		
-		for(i=start; i < limit; i++) {
-						
-			IndexRecord<?> r2 = n.entries.get(i);
-			
-			long areaR1	= this.area(r1.r);
-			long areaR2	= this.area(r2.r);
-			
-			//first we need to compose a rectangle which include the 2 of them			
-			Rectangle unionRectangle = r1.r.union(r2.r);  // now r1 is the UNION of r1 and r2 rectangles
+		// the index in the cycle with the least enlargement and the smallest area
+		int bestIndex = 0;
+		
+		// max number of loops
+		int loopLimit = node.size();
+		
+		// var for the cycle - Watch out !
+		// the var starts from 1 ! NOT from 0
+		// because we used the first entry as reference
+		int i;
+		for(i = 1; i < loopLimit; i++) {
 			
-			long areaUnion = this.area(unionRectangle);			
-			long d = Math.abs(areaUnion - areaR1 - areaR2);
+			//calculate the area the current entry has to be enlarged by
+			// in order to include the new record
+			long enlargement = BoundingBox.enlargement(node.minX[i], node.minY[i], node.maxX[i], node.maxY[i],
+					minX, minY, maxX, maxY);
 			
-			if(d > wasteFull) {
-				seed.bestIndex[0] = startIndex;
-				seed.bestIndex[1] = i;
-				seed.wasteFull = d;
+			// if the new area is smaller or equal than the stored one then:
+			// - check if it is equal and take the index of the box with the smallest area
+			if(enlargement <= leastEnlargement) {
 				
-			}			
+				long area = BoundingBox.area(node.minX[i], node.minY[i], node.maxX[i], node.maxY[i]);
+				if(enlargement < leastEnlargement || area < leastArea) {						
+					leastEnlargement = enlargement;
+					leastArea = area;
+					bestIndex = i;
+				}
+			}
 		}
 		
-		return seed;
+		return bestIndex;
 	}
 	
 	
 	/*
-	 * PickNext
-	 * in the list parameter the assigned entries must have been removed
+	 * Split Node:
+	 * divide the entries of the overflowing node n in 2 groups with the split strategy.
+	 * The first group stays in n, the second one is returned as a new node
 	 */
-	
-	private int pickNext(List<IndexRecord<?>> entries, Rectangle group1, Rectangle group2) {
+	private Node splitNode(Node n) {
 		
-		long maxDifference = Long.MIN_VALUE;
-		int bestIndex = 0;
+		// the root node of the new node, is the parent of Node n
+		Node group2 = new Node(nodeMaxSize, nodeMinSize, n.level, n.getRootNode(), n.latch != null);
+		splitStrategy.split(n, group2);
+		stats.split(n.level);
 		
-		for(IndexRecord<?> record : entries) {
-			
-			//calculate area increase required to cover the group1 rectangle and the group 2 rectangle
-			
-			Rectangle r = (Rectangle) record.r;			
-			long d1 = this.enlargement(group1, r);
-			long d2 = this.enlargement(group2, r);
-			
-			long difference = Math.abs(d1 - d2);
-			if(difference > maxDifference) {
-				maxDifference = difference;
-				bestIndex = entries.indexOf(record);
+		// the child nodes moved to the new node get it as parent, the records get it as leaf
+		int limit = group2.size();
+		int i;
+		for(i = 0; i < limit; i++) {
+			if(group2.isLeaf) {
+				this.setLeaf(group2.children[i], group2);
+			} else {
+				((Node)group2.children[i]).setRootNode(group2);
 			}
 		}
+		return group2;
+	}
 	
-		return bestIndex;
+	/*
+	 * Reinsert:
+	 * remove from the overflowing node n the entries farthest from the center of its box
+	 * and insert them again at the same level, the closest ones first.
+	 * The entries may find a better node, so the split is delayed or avoided
+	 */
+	private void reinsert(Node n, boolean[] reinserted) {
+		
+		int size = n.size();
+		int count = Math.min(Math.max(1, Math.round(size * splitStrategy.reinsertFraction())), size - nodeMinSize);
+		
+		// [RI1] the distance between the centers of the entries and the center of the node
+		// the coordinates are doubled, so the centers stay integers
+		BoundingBox b = n.mbb();
+		long cx = (long)b.minX + b.maxX;
+		long cy = (long)b.minY + b.maxY;
+		double[] distance = new double[size];
+		int i;
+		for(i = 0; i < size; i++) {
+			double dx = (long)n.minX[i] + n.maxX[i] - cx;
+			double dy = (long)n.minY[i] + n.maxY[i] - cy;
+			distance[i] = dx * dx + dy * dy;
+		}
+		
+		// [RI2] sort the entries by decreasing distance and take the first count
+		Integer[] order = new Integer[size];
+		for(i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		final double[] d = distance;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(d[o2], d[o1]);
+			}
+		});
+		
+		// [RI3] copy them in order of decreasing distance and remove them from the node,
+		// the highest index first because the last entry takes the place of the removed one
+		Node orphans = new Node(nodeMaxSize, nodeMinSize, n.level, null);
+		int[] removed = new int[count];
+		for(i = 0; i < count; i++) {
+			int e = order[i];
+			orphans.add(n.minX[e], n.minY[e], n.maxX[e], n.maxY[e], n.children[e]);
+			removed[i] = e;
+		}
+		Arrays.sort(removed);
+		for(i = count - 1; i >= 0; i--) {
+			n.remove(removed[i]);
+		}
+		
+		// the boxes from n up to the root must not cover the removed entries any more
+		Node c = n;
+		while(c.getRootNode() != null) {
+			this.calculateMBB(c);
+			c = c.getRootNode();
+		}
 		
+		// [RI4] insert the removed entries again, the closest to the center first (close reinsert)
+		for(i = count - 1; i >= 0; i--) {
+			this.insert(orphans.minX[i], orphans.minY[i], orphans.maxX[i], orphans.maxY[i], orphans.children[i], 
+					n.level, reinserted);
+		}
 	}
 	
 	
 	/*
-	 * Adjust Tree
+	 * Adjust Tree:
+	 * go from the node n up to the root fixing the bounding boxes.
+	 * An overflowing node is treated with a forced reinsertion, if the split strategy uses it
+	 * and it did not happen yet at its level during this insertion, otherwise it is split
 	 */
-	private Node adjustTree(Node n, Node nn) {
+	private void adjustTree(Node n, boolean[] reinserted) {
 		
 		// the root node has its root node == null
 		// because it is the first node and it does not have parents
-		Node newNode = null;
-		while(n.getRootNode() != null) {
+		while(true) {
+			
+			// [OT1] overflow treatment
+			Node nn = null;
+			if(n.size() > nodeMaxSize) {
+				if(reinserted != null && n != rootNode && n.level < reinserted.length && !reinserted[n.level]) {
+					// the reinsertion fixes the tree up to the root
+					reinserted[n.level] = true;
+					this.reinsert(n, reinserted);
+					return;
+				}
+				nn = this.splitNode(n);
+			}
+			
+			Node parent = n.getRootNode();
+			if(parent == null) {
+				/*
+				 * [ I4 ]
+				 * [Grow  tree  taller  ]  If  node  split  propagation
+				 * caused  the  root  to  split
+				 * create  a  new  root  whose  children  are 
+				 * the  two  resulting  nodes 
+				 */
+				if(nn != null) {
+					this.growTree(nn);
+				}
+				return;
+			}
 			
 			// [AT3]
-			// get the root node of N
-			Node parent = n.getRootNode();		
 			// fix the enclosing bounding box
-			this.calculateMBB(n);						
+			boolean changed = parent.setBounds(parent.indexOf(n), n);
 			
-			// assign NN to the root node entries if there is space and calculate bounding box
+			// assign NN to the root node entries, the parent is split at the next step if there is no space
 			// [AT4]
-			
 			if(nn != null) {
-				IndexRecord<Node> record = new IndexRecord<Node>(this.calculateMaxPoint(nn), nn);
-				if(parent.hasSpace()) {
-					parent.add(record);
-				}
-				else {  //if not space split
-					// but still add the record, because it will get split on splitNode and we are using arraylist
-					// which auto increments (even though the performance might suffer from it)
-					parent.add(record);
-					newNode = splitNode(parent);
-				}
+				// add the entry in any case, because it will get split on splitNode
+				// and the arrays of the node have room for MAX ENTRIES + 1
+				parent.setBounds(parent.add(0, 0, 0, 0, nn), nn);
+			} else if(!changed) {
+				// nothing changed in the parent, so the rest of the path is already right
+				return;
 			}
 			
 			// assign to n variable the parent so we go from the bottom to the top
 			n = parent;
-			nn = newNode;
+			stats.propagated();
 		}
-		
-		return newNode;
 	}
 	
 	
@@ -612,64 +1701,77 @@ public class RTree<T> {
 	 * 
 	 */	
 	private void calculateMBB(Node child) {
-						
-		Point maxPoint = this.calculateMaxPoint(child);
 		
 		Node parent = child.getRootNode();
-		int limit = parent.entries.size();
-		int i;
-		
-		for(i=0; i < limit; i++) {
-			
-			IndexRecord<?> nodeRecord = parent.entries.get(i);			
-									
-			if(nodeRecord.record.equals(child)) {				
-				IndexRecord<Node> newIndex = new IndexRecord<Node>(maxPoint, child);
-				parent.entries.set(i, newIndex);				
-				break;
-			}
+		int i = parent.indexOf(child);
+		if(i >= 0) {
+			parent.setBounds(i, child);
 		}
 	}
 	
-	/*
-	 * Get the max point between all entries of a node
-	 */
-	private Point calculateMaxPoint(Node node) {				
+	// a change of the records made while the tree is rebuilt, the box of a delete is the point of the record
+	private static class Change {
+		final boolean insert;
+		final Object record;
+		final int minX;
+		final int minY;
+		final int maxX;
+		final int maxY;
 		
-		int maxX = node.xMax();
-		int maxY = node.yMax();
-		return new Point(maxX, maxY);
+		Change(boolean insert, Object record, int minX, int minY, int maxX, int maxY) {
+			this.insert = insert;
+			this.record = record;
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+		}
 	}
 	
-	/*
-	 * This calculate the union of 2 rectangle and the total area
-	 */
-	private long enlargement(Rectangle baseR, Rectangle newR) {
+	// the entries of the leaves copied by a rebuild, in arrays growing as needed
+	private static class LeafEntries {
+		int[] minX = new int[1024];
+		int[] minY = new int[1024];
+		int[] maxX = new int[1024];
+		int[] maxY = new int[1024];
+		Object[] children = new Object[1024];
+		int size;
 		
-		if(baseR.contains(newR)) {
-			//System.out.println("the second rectangle is contained !!! - the result will be zero !");
-			return 0;
+		void add(int x0, int y0, int x1, int y1, Object child) {
+			if(size == children.length) {
+				int capacity = size * 2;
+				minX = Arrays.copyOf(minX, capacity);
+				minY = Arrays.copyOf(minY, capacity);
+				maxX = Arrays.copyOf(maxX, capacity);
+				maxY = Arrays.copyOf(maxY, capacity);
+				children = Arrays.copyOf(children, capacity);
+			}
+			minX[size] = x0;
+			minY[size] = y0;
+			maxX[size] = x1;
+			maxY[size] = y1;
+			children[size] = child;
+			size++;
 		}
-		
-		Rectangle r = baseR.union(newR);
-		
-		long baseArea = this.area(baseR);
-		long extendedArea = this.area(r);
-		
-		return Math.abs(extendedArea - baseArea);
 	}
 	
-	/*
-	 * Calculate rectangle area
-	 */
-	private long area(Rectangle r) {
-		return (long)r.height * (long)r.width;
-	}
-	
-	//Private inner class for the Seed object
-	class Seed {
-		public int[] bestIndex = new int[2];
-		public long wasteFull;
+	//Private inner class for the entries of the nearest neighbour priority queue
+	//the item is a Node, or a record if isRecord is true
+	static class NearestEntry implements Comparable<NearestEntry> {
+		final Object item;
+		final boolean isRecord;
+		final double distance;
+		
+		NearestEntry(Object item, boolean isRecord, double distance) {
+			this.item = item;
+			this.isRecord = isRecord;
+			this.distance = distance;
+		}
+		
+		@Override
+		public int compareTo(NearestEntry o) {
+			return Double.compare(distance, o.distance);
+		}
 	}
 	
 	/*
@@ -677,8 +1779,10 @@ public class RTree<T> {
 	 *  therefore I multiply the doubles I get from the client side as coordinates
 	 *  so we can work with INTEGERS only
 	 *  We keep the precision up to a 1 meter (  0.5 < x < 0.5 ) at the equator
+	 *  The sign is kept, so west longitudes and south latitudes do not collide with east and north.
+	 *  It is the conversion of all the indexes, 1 unit is 1 / GeoDistance.UNITS_PER_DEGREE of degree
 	 */
-	private int increaseUnit(double value) {
-		return (int)(Math.abs(value) * 100000);		
+	public static int increaseUnit(double value) {
+		return (int)(value * GeoDistance.UNITS_PER_DEGREE);
 	}
 }
@@ -0,0 +1,419 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.idx.rtree;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Statistics of an RTree, to tell the slow queries caused by a degraded tree from the ones caused by the load.
+ *
+ * The counters are updated by the tree during the operations. A query counts the nodes it visits 
+ * and the entries it tests in local variables, and adds them to the histograms once at its end,
+ * so the cost is a few atomic increments per operation and the statistics can stay on in production.
+ *
+ * The structure is measured walking the whole tree, so it is computed when it is asked
+ * and kept for STRUCTURE_MAX_AGE: a JMX console reading all the attributes walks the tree only once.
+ * The walk latches one node at a time, so the writers of a concurrent tree are not stopped by it.
+ * A tree which is not concurrent cannot be walked by another thread while its owner modifies it:
+ * its structure is measured only by refresh, called by the owner, and the getters return the last
+ * measure, an empty one until the first refresh
+ */
+public class RTreeStats implements RTreeStatsMBean {
+
+	// the levels with a split counter, the splits of the higher levels are counted in the last one
+	private final static int MAX_LEVELS = 32;
+	// a bucket for 0 and one for every bit of a positive int
+	private final static int BUCKETS = 32;
+	// milliseconds a measure of the structure is reused
+	private final static long STRUCTURE_MAX_AGE = 5000;
+	// 1 degree is 100000 units, so a square degree is 10^10 square units
+	private final static double SQUARE_UNITS_PER_DEGREE = 1e10;
+	// the structure of a tree which is not concurrent before its first refresh
+	private final static Structure EMPTY = new Structure(0, 0);
+
+	private final RTree<?> tree;
+
+	private final LongAdder inserts = new LongAdder();
+	private final LongAdder deletes = new LongAdder();
+	private final LongAdder[] splits = RTreeStats.adders(MAX_LEVELS);
+	private final LongAdder propagations = new LongAdder();
+	private final LongAdder rootGrowths = new LongAdder();
+	private final LongAdder rebuilds = new LongAdder();
+	private final LongAdder queries = new LongAdder();
+	private final LongAdder nodesVisited = new LongAdder();
+	private final LongAdder entriesTested = new LongAdder();
+	private final LongAdder[] nodesHistogram = RTreeStats.adders(BUCKETS);
+	private final LongAdder[] entriesHistogram = RTreeStats.adders(BUCKETS);
+
+	private volatile Structure structure;
+
+	private ObjectName name;
+
+
+	RTreeStats(RTree<?> tree) {
+		this.tree = tree;
+	}
+
+	private static LongAdder[] adders(int length) {
+		LongAdder[] adders = new LongAdder[length];
+		int i;
+		for(i = 0; i < length; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	/**
+	 *  Register the statistics in the platform MBean server,
+	 *  with the name io.idx.rtree:type=RTree,name=<name>
+	 *
+	 * @param  name the name of the tree, it must be unique in the JVM
+	 * @return      the name of the MBean
+	 */
+	public synchronized ObjectName register(String name) throws JMException {
+		if(this.name != null) {
+			throw new IllegalStateException("the statistics are already registered as " + this.name);
+		}
+		ObjectName objectName = new ObjectName("io.idx.rtree:type=RTree,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		this.name = objectName;
+		return objectName;
+	}
+
+	/*
+	 * Remove the statistics from the platform MBean server, if they are registered
+	 */
+	public synchronized void unregister() throws JMException {
+		if(name != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.unregisterMBean(name);
+			name = null;
+		}
+	}
+
+	void inserted(int count) {
+		inserts.add(count);
+	}
+
+	void deleted() {
+		deletes.increment();
+	}
+
+	void split(int level) {
+		splits[Math.min(level, MAX_LEVELS - 1)].increment();
+	}
+
+	void propagated() {
+		propagations.increment();
+	}
+
+	void grown() {
+		rootGrowths.increment();
+	}
+
+	// the tree has been rebuilt, the last measure of the structure is not valid any more
+	void rebuilt() {
+		rebuilds.increment();
+		structure = null;
+	}
+
+	/*
+	 * End of a query which visited nodes nodes and compared the query with entries entries
+	 */
+	void query(int nodes, int entries) {
+		queries.increment();
+		nodesVisited.add(nodes);
+		entriesTested.add(entries);
+		nodesHistogram[RTreeStats.bucket(nodes)].increment();
+		entriesHistogram[RTreeStats.bucket(entries)].increment();
+	}
+
+	// the bucket of the histograms for the value, the number of bits needed to write it
+	static int bucket(int value) {
+		return Math.min(32 - Integer.numberOfLeadingZeros(Math.max(value, 0)), BUCKETS - 1);
+	}
+
+	@Override
+	public long getInserts() {
+		return inserts.sum();
+	}
+
+	@Override
+	public long getDeletes() {
+		return deletes.sum();
+	}
+
+	@Override
+	public long[] getSplits() {
+		return RTreeStats.toArray(splits);
+	}
+
+	@Override
+	public long getPropagations() {
+		return propagations.sum();
+	}
+
+	@Override
+	public long getRootGrowths() {
+		return rootGrowths.sum();
+	}
+
+	@Override
+	public long getRebuilds() {
+		return rebuilds.sum();
+	}
+
+	@Override
+	public long getQueries() {
+		return queries.sum();
+	}
+
+	@Override
+	public long[] getNodesVisitedHistogram() {
+		return RTreeStats.toArray(nodesHistogram);
+	}
+
+	@Override
+	public long[] getEntriesTestedHistogram() {
+		return RTreeStats.toArray(entriesHistogram);
+	}
+
+	@Override
+	public double getMeanNodesVisited() {
+		long n = queries.sum();
+		return n == 0 ? 0 : (double) nodesVisited.sum() / n;
+	}
+
+	@Override
+	public double getMeanEntriesTested() {
+		long n = queries.sum();
+		return n == 0 ? 0 : (double) entriesTested.sum() / n;
+	}
+
+	@Override
+	public void reset() {
+		inserts.reset();
+		deletes.reset();
+		propagations.reset();
+		rootGrowths.reset();
+		rebuilds.reset();
+		queries.reset();
+		nodesVisited.reset();
+		entriesTested.reset();
+		int i;
+		for(i = 0; i < MAX_LEVELS; i++) {
+			splits[i].reset();
+		}
+		for(i = 0; i < BUCKETS; i++) {
+			nodesHistogram[i].reset();
+			entriesHistogram[i].reset();
+		}
+	}
+
+	private static long[] toArray(LongAdder[] counters) {
+		long[] values = new long[counters.length];
+		int i;
+		for(i = 0; i < counters.length; i++) {
+			values[i] = counters[i].sum();
+		}
+		// the trailing empty buckets are left out
+		int length = values.length;
+		while(length > 1 && values[length - 1] == 0) {
+			length--;
+		}
+		return length == values.length ? values : Arrays.copyOf(values, length);
+	}
+
+	@Override
+	public int getHeight() {
+		return this.structure().nodes.length;
+	}
+
+	@Override
+	public long[] getNodesPerLevel() {
+		return this.structure().nodes.clone();
+	}
+
+	@Override
+	public long getRecords() {
+		return this.structure().records;
+	}
+
+	@Override
+	public double getAverageFill() {
+		Structure s = this.structure();
+		long nodes = 0;
+		for(long n : s.nodes) {
+			nodes += n;
+		}
+		return nodes == 0 ? 0 : (double) s.entries / ((double) nodes * s.nodeMaxSize);
+	}
+
+	@Override
+	public double getTotalOverlap() {
+		return this.structure().overlap / SQUARE_UNITS_PER_DEGREE;
+	}
+
+	@Override
+	public double getOverlapRatio() {
+		Structure s = this.structure();
+		return s.entryArea == 0 ? 0 : s.overlap / s.entryArea;
+	}
+
+	@Override
+	public double getCoverage() {
+		Structure s = this.structure();
+		return s.rootArea == 0 ? 0 : s.leafArea / s.rootArea;
+	}
+
+	/**
+	 *  Measure the structure now, the getters return this measure until it gets too old.
+	 *  If the tree is not concurrent it must be called by the thread which modifies the tree,
+	 *  and the getters return this measure until the next refresh
+	 *
+	 * @return      void
+	 */
+	public void refresh() {
+		structure = this.measure();
+	}
+
+	/*
+	 * The last measure of the structure, measured again if it is too old.
+	 * The structure of a tree which is not concurrent is only measured by refresh
+	 */
+	private Structure structure() {
+		Structure s = structure;
+		if(!tree.isConcurrent()) {
+			return s == null ? EMPTY : s;
+		}
+		if(s == null || System.currentTimeMillis() - s.time > STRUCTURE_MAX_AGE) {
+			s = this.measure();
+			structure = s;
+		}
+		return s;
+	}
+
+	/*
+	 * Walk the tree latching one node at a time: the children of a node are copied under its latch,
+	 * which is released before they are visited. In concurrent mode a writer waits at most for the
+	 * measure of one node, the measure is approximate if the tree changes during the walk
+	 */
+	private Structure measure() {
+		Node root = tree.lockForRead();
+		Structure s;
+		// the children of the node being visited at every level
+		Node[][] children;
+		int limit;
+		try {
+			s = new Structure(root.level + 1, root.nodeMaxSize);
+			if(root.size() > 0) {
+				BoundingBox b = root.mbb();
+				s.rootArea = BoundingBox.area(b.minX, b.minY, b.maxX, b.maxY);
+			}
+			children = new Node[root.level + 1][];
+			limit = RTreeStats.measure(root, s, children);
+		} finally {
+			tree.unlockForRead(root);
+		}
+		this.measure(children[root.level], limit, s, children);
+		return s;
+	}
+
+	private void measure(Node[] nodes, int count, Structure s, Node[][] children) {
+		int i;
+		for(i = 0; i < count; i++) {
+			Node node = nodes[i];
+			int limit;
+			tree.lockForRead(node);
+			try {
+				limit = RTreeStats.measure(node, s, children);
+			} finally {
+				tree.unlockForRead(node);
+			}
+			if(limit > 0) {
+				this.measure(children[node.level], limit, s, children);
+			}
+		}
+	}
+
+	/*
+	 * Measure the entries of a node, which is read latched by the caller.
+	 * The children of an internal node are copied in children[node.level], return their number
+	 */
+	private static int measure(Node node, Structure s, Node[][] children) {
+		
+		int limit = node.size();
+		s.nodes[node.level]++;
+		s.entries += limit;
+		
+		// the area of the entries and the area shared by every pair of them
+		int i;
+		int j;
+		for(i = 0; i < limit; i++) {
+			double area = BoundingBox.area(node.minX[i], node.minY[i], node.maxX[i], node.maxY[i]);
+			s.entryArea += area;
+			if(node.level == 1) {
+				s.leafArea += area;
+			}
+			for(j = i + 1; j < limit; j++) {
+				long w = (long)Math.min(node.maxX[i], node.maxX[j]) - Math.max(node.minX[i], node.minX[j]);
+				long h = (long)Math.min(node.maxY[i], node.maxY[j]) - Math.max(node.minY[i], node.minY[j]);
+				if(w > 0 && h > 0) {
+					s.overlap += (double) w * h;
+				}
+			}
+		}
+		
+		if(node.isLeaf) {
+			s.records += limit;
+			return 0;
+		}
+		if(children[node.level] == null) {
+			children[node.level] = new Node[node.children.length];
+		}
+		for(i = 0; i < limit; i++) {
+			children[node.level][i] = (Node) node.children[i];
+		}
+		return limit;
+	}
+
+	// a measure of the structure of the tree
+	private static class Structure {
+		final long time = System.currentTimeMillis();
+		final int nodeMaxSize;
+		final long[] nodes;
+		long entries;
+		long records;
+		double overlap;
+		double entryArea;
+		// the sum of the areas of the leaves, and the area of the whole tree
+		double leafArea;
+		double rootArea;
+		
+		Structure(int height, int nodeMaxSize) {
+			this.nodes = new long[height];
+			this.nodeMaxSize = nodeMaxSize;
+		}
+	}
+}
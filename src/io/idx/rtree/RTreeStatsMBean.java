@@ -0,0 +1,83 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.idx.rtree;
+
+/*
+ * Management interface of the statistics of an RTree, registered in JMX by RTreeStats.register.
+ *
+ * The counters are collected all the time and go up from the creation of the tree or the last reset.
+ * The histograms have a bucket per power of 2: the bucket 0 counts the queries with a value of 0,
+ * the bucket i the queries with a value from 2^(i-1) to 2^i - 1.
+ * The structure of the tree is measured walking all the nodes, at most once in a few seconds.
+ * If the tree is not concurrent it is the measure of the last RTreeStats.refresh
+ */
+public interface RTreeStatsMBean {
+
+	// records added
+	long getInserts();
+
+	// records deleted
+	long getDeletes();
+
+	// the splits of the nodes, indexed by level (0 are the leaves)
+	long[] getSplits();
+
+	// the steps up the tree of the overflows and of the changes of the bounding boxes during the inserts
+	long getPropagations();
+
+	// the times the root has been split and the tree grew taller
+	long getRootGrowths();
+
+	// the times the tree has been rebuilt
+	long getRebuilds();
+
+	// searches, window, nearest and distance searches
+	long getQueries();
+
+	long[] getNodesVisitedHistogram();
+
+	long[] getEntriesTestedHistogram();
+
+	double getMeanNodesVisited();
+
+	double getMeanEntriesTested();
+
+	// the number of levels, 1 if the root is a leaf
+	int getHeight();
+
+	// the nodes of the tree, indexed by level (0 are the leaves)
+	long[] getNodesPerLevel();
+
+	// the records in the leaves
+	long getRecords();
+
+	// the average number of entries of a node divided by the maximum number
+	double getAverageFill();
+
+	// the sum of the areas shared by every pair of entries of the same node, in square degrees
+	double getTotalOverlap();
+
+	// the total overlap divided by the sum of the areas of all the entries
+	double getOverlapRatio();
+
+	// the sum of the areas of the leaves divided by the area of the tree, above 1 the leaves overlap
+	double getCoverage();
+
+	// set the counters and the histograms to 0
+	void reset();
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Sort-Tile-Recursive packing
+ * Reference for the implementation:
+ * Leutenegger, Lopez, Edgington - STR: A Simple and Efficient Algorithm for R-Tree Packing
+ *
+ * The entries are sorted by the X of their center and cut in vertical slices,
+ * every slice is sorted by the Y of the center and cut in nodes of nodeMaxSize entries.
+ * The nodes of a level are the entries of the level above, until a single node is left.
+ *
+ * All the nodes are full, except the last 2 of a slice which share the remaining entries
+ * so none of them goes below nodeMinSize.
+ */
+class STRPacker {
+
+	private final int nodeMaxSize;
+	private final int nodeMinSize;
+	// true if the packed nodes belong to a tree in concurrent mode
+	private final boolean latched;
+
+
+	STRPacker(int nodeMaxSize, int nodeMinSize) {
+		this(nodeMaxSize, nodeMinSize, false);
+	}
+
+	STRPacker(int nodeMaxSize, int nodeMinSize, boolean latched) {
+		this.nodeMaxSize = nodeMaxSize;
+		this.nodeMinSize = nodeMinSize;
+		this.latched = latched;
+	}
+
+	/*
+	 * Pack the first n entries of the arrays in a tree
+	 * the entries are records if level is 0, otherwise nodes of level - 1
+	 * return the root of the packed tree, its parent is null
+	 */
+	Node pack(int[] minX, int[] minY, int[] maxX, int[] maxY, Object[] children, int n, int level) {
+		return this.pack(minX, minY, maxX, maxY, children, n, level, Integer.MAX_VALUE)[0];
+	}
+
+	/*
+	 * Pack the first n entries of the arrays up to the nodes of topLevel, or until a single node is left.
+	 * Return the nodes of the last level packed, their parent is null
+	 */
+	Node[] pack(int[] minX, int[] minY, int[] maxX, int[] maxY, Object[] children, int n, int level, int topLevel) {
+
+		while(true) {
+			Node[] nodes = this.packLevel(minX, minY, maxX, maxY, children, n, level);
+			if(nodes.length == 1 || level >= topLevel) {
+				return nodes;
+			}
+
+			// the nodes just created are the entries of the next level
+			n = nodes.length;
+			minX = new int[n];
+			minY = new int[n];
+			maxX = new int[n];
+			maxY = new int[n];
+			children = nodes;
+
+			int i;
+			for(i = 0; i < n; i++) {
+				BoundingBox b = nodes[i].mbb();
+				minX[i] = b.minX;
+				minY[i] = b.minY;
+				maxX[i] = b.maxX;
+				maxY[i] = b.maxY;
+			}
+			level++;
+		}
+	}
+
+	/*
+	 * Cut the first n entries in about tileCount groups of close entries, the same way a level is packed:
+	 * vertical slices by the X of the center, every slice cut by the Y of the center.
+	 * Return the indexes of the entries of every group
+	 */
+	int[][] partition(int[] minX, int[] minY, int[] maxX, int[] maxY, int n, int tileCount) {
+
+		int sliceCount = (int)Math.ceil(Math.sqrt(tileCount));
+		int sliceSize = (n + sliceCount - 1) / sliceCount;
+		int tileSize = (sliceSize + sliceCount - 1) / sliceCount;
+
+		int[] order = this.sort(minX, maxX, null, 0, n);
+		int[][] tiles = new int[sliceCount * sliceCount][];
+		int created = 0;
+
+		int start;
+		for(start = 0; start < n; start += sliceSize) {
+			int end = Math.min(start + sliceSize, n);
+			int[] slice = this.sort(minY, maxY, order, start, end);
+			int offset;
+			for(offset = 0; offset < slice.length; offset += tileSize) {
+				tiles[created++] = Arrays.copyOfRange(slice, offset, Math.min(offset + tileSize, slice.length));
+			}
+		}
+		return Arrays.copyOf(tiles, created);
+	}
+
+	/*
+	 * Pack a single level and return its nodes
+	 */
+	private Node[] packLevel(int[] minX, int[] minY, int[] maxX, int[] maxY, Object[] children, int n, int level) {
+
+		int nodeCount = (n + nodeMaxSize - 1) / nodeMaxSize;
+		int sliceCount = (int)Math.ceil(Math.sqrt(nodeCount));
+		int sliceSize = ((nodeCount + sliceCount - 1) / sliceCount) * nodeMaxSize;
+
+		// sort all the entries by the X of the center
+		int[] order = this.sort(minX, maxX, null, 0, n);
+
+		Node[] nodes = new Node[nodeCount + sliceCount];
+		int created = 0;
+
+		int start = 0;
+		while(start < n) {
+			int end = Math.min(start + sliceSize, n);
+			// a last slice smaller than a node goes with the previous one
+			if(n - end < nodeMaxSize) {
+				end = n;
+			}
+
+			// sort the slice by the Y of the center and cut it in nodes
+			int[] slice = this.sort(minY, maxY, order, start, end);
+			int length = end - start;
+			int offset = 0;
+			while(offset < length) {
+				int size = Math.min(nodeMaxSize, length - offset);
+				int left = length - offset - size;
+				if(left > 0 && left < nodeMinSize) {
+					// the last 2 nodes share the remaining entries
+					size = (length - offset) / 2;
+				}
+
+				Node node = new Node(nodeMaxSize, nodeMinSize, level, null, latched);
+				int i;
+				for(i = offset; i < offset + size; i++) {
+					int e = slice[i];
+					node.add(minX[e], minY[e], maxX[e], maxY[e], children[e]);
+					if(level > 0) {
+						((Node)children[e]).setRootNode(node);
+					}
+				}
+				nodes[created++] = node;
+				offset += size;
+			}
+			start = end;
+		}
+
+		return Arrays.copyOf(nodes, created);
+	}
+
+	/*
+	 * Sort the entries from start to end by the center of the (min, max) coordinates
+	 * if order is null the entries are start ... end, otherwise order holds their indexes.
+	 * The result holds the indexes of the entries in sorted order
+	 * The center and the index are packed in a long, so a primitive sort can be used
+	 */
+	private int[] sort(int[] min, int[] max, int[] order, int start, int end) {
+
+		int length = end - start;
+		long[] keys = new long[length];
+		int i;
+		for(i = 0; i < length; i++) {
+			int e = order == null ? start + i : order[start + i];
+			long center = ((long)min[e] + max[e]) >> 1;
+			keys[i] = (center << 32) | (e & 0xffffffffL);
+		}
+		Arrays.sort(keys);
+
+		int[] sorted = new int[length];
+		for(i = 0; i < length; i++) {
+			sorted[i] = (int)keys[i];
+		}
+		return sorted;
+	}
+
+	/*
+	 * Fork/join task packing a group of entries up to topLevel,
+	 * so the groups of a partition are packed in parallel
+	 */
+	static class PackTask extends RecursiveTask<Node[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final STRPacker packer;
+		private final int[] minX;
+		private final int[] minY;
+		private final int[] maxX;
+		private final int[] maxY;
+		private final Object[] children;
+		private final int[] entries;
+		private final int level;
+		private final int topLevel;
+
+		PackTask(STRPacker packer, int[] minX, int[] minY, int[] maxX, int[] maxY, Object[] children,
+				int[] entries, int level, int topLevel) {
+			this.packer = packer;
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+			this.children = children;
+			this.entries = entries;
+			this.level = level;
+			this.topLevel = topLevel;
+		}
+
+		@Override
+		protected Node[] compute() {
+			// copy the entries of the group, the arrays are shared by all the tasks
+			int n = entries.length;
+			int[] x0 = new int[n];
+			int[] y0 = new int[n];
+			int[] x1 = new int[n];
+			int[] y1 = new int[n];
+			Object[] c = new Object[n];
+			int i;
+			for(i = 0; i < n; i++) {
+				int e = entries[i];
+				x0[i] = minX[e];
+				y0[i] = minY[e];
+				x1[i] = maxX[e];
+				y1[i] = maxY[e];
+				c[i] = children[e];
+			}
+			return packer.pack(x0, y0, x1, y1, c, n, level, topLevel);
+		}
+	}
+}
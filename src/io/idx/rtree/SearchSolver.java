@@ -16,80 +16,157 @@
 
 package io.idx.rtree;
 
-import java.awt.Point;
-import java.awt.Rectangle;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Callable;
+import java.util.concurrent.RecursiveTask;
 
-public class SearchSolver<T> implements Callable<List<T>>{
+/*
+ * Fork/join search of the records inside a window.
+ *
+ * Every task searches a subtree and collects the records in its own list, so no list is shared
+ * between threads. A matching child node is forked as a new task only if it is not a leaf
+ * and the worker has few queued tasks not stolen yet by the others, otherwise it is searched
+ * by the same task: the split can happen at any level and it stops by itself when all the workers are busy.
+ * The lists of the forked tasks are appended to the list of the parent when they are joined.
+ *
+ * In concurrent mode (latched) every node is read latched while its subtree is searched,
+ * and the tasks forked from a node are joined before its latch is released.
+ * A latch is released by the thread which took it, so a forked task latches its own node.
+ *
+ * Every task counts the nodes it visits and the entries it tests, the counts of the forked tasks
+ * are added to the ones of the parent when they are joined
+ */
+public class SearchSolver<T> extends RecursiveTask<List<T>> {
 
+	private static final long serialVersionUID = 1L;
 
-	private final Node node;
-	private final Point p;
-	private final Rectangle mbb;
-	private final List<T> qualifiedRecords;
+	// above this number of queued tasks the worker has enough work for the thieves
+	private final static int SURPLUS_THRESHOLD = 3;
 
+	private final Node node;
+	private final int minX;
+	private final int minY;
+	private final int maxX;
+	private final int maxY;
+	// if true a record matches only if its box is the window (search of a point)
+	private final boolean exact;
+	// if true the nodes are read latched
+	private final boolean latched;
+	// if true the task latches its node, otherwise the caller did it
+	private final boolean lockNode;
 	
-	
-	public SearchSolver(Node node, Point point, List<T> qualifiedRecords) {
+	private int nodesVisited;
+	private int entriesTested;
+
+
+	public SearchSolver(Node node, int minX, int minY, int maxX, int maxY, boolean exact) {
+		this(node, minX, minY, maxX, maxY, exact, false, false);
+	}
+
+	/*
+	 * Constructor of a search in a tree in concurrent mode if latched is true,
+	 * the node must be already read latched by the caller
+	 */
+	public SearchSolver(Node node, int minX, int minY, int maxX, int maxY, boolean exact, boolean latched) {
+		this(node, minX, minY, maxX, maxY, exact, latched, false);
+	}
+
+	private SearchSolver(Node node, int minX, int minY, int maxX, int maxY, boolean exact, boolean latched, boolean lockNode) {
 		this.node = node;
-		this.p = point;
-		mbb = new Rectangle(0, 0, p.x, p.y);
-		this.qualifiedRecords = qualifiedRecords;
-		
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.exact = exact;
+		this.latched = latched;
+		this.lockNode = lockNode;
+	}
+
+	// the nodes visited by the search, valid after the task has been joined
+	int nodesVisited() {
+		return nodesVisited;
 	}
 	
-	
+	// the entries of the visited nodes compared with the window
+	int entriesTested() {
+		return entriesTested;
+	}
+
 	@Override
-	public List<T> call() throws Exception {
-		// TODO Auto-generated method stub
-		this.search(p, node, qualifiedRecords);
+	protected List<T> compute() {
+		
+		List<T> qualifiedRecords = new ArrayList<T>();
+		
+		if(lockNode) {
+			node.latch.readLock().lock();
+		}
+		try {
+			this.search(node, qualifiedRecords);
+		} finally {
+			if(lockNode) {
+				node.latch.readLock().unlock();
+			}
+		}
 		return qualifiedRecords;
 	}
-	
-	
+
 	@SuppressWarnings("unchecked")
-	private void search(Point p, Node node, List<T> qualifiedRecords) {				
-		
-		// minimum bounding box of point p		
-		//Rectangle mbb = new Rectangle(0, 0, p.x, p.y);
-		
-		
-		
+	private void search(Node node, List<T> qualifiedRecords) {				
 		
 		// S1 [search subtree]
-		// T = root node of the RTree
-		// if T is NOT a leaf, check all entries and see if mbb overlaps
+		// if T is NOT a leaf, check all entries and see if the window overlaps
 		// For all overlapping entries call SEARCH
 		
 		// S2 [search leaf node]
-		// if T is leaf, check all entries and see if mbb overlaps
+		// if T is leaf, check all entries and see if the window overlaps
 		// if yes then it is a qualified record
-		
-		//qualifiedRecords.addAll(new SearchSolver<T>(node, p).invoke());
-		// [S1]
-		// not the best to "!" a boolean, but I want to follow the comments order
+		int limit = node.size();
+		nodesVisited++;
+		entriesTested += limit;
+		int i;
 		if(!node.isLeaf) {
-			for(IndexRecord<?> r : node.entries ) {
-				if(mbb.contains(r.r) || mbb.intersects(r.r)) {
-					IndexRecord<Node> entry = (IndexRecord<Node>)r;					
-					//qualifiedRecords.addAll(search(p,entry.record));
-					search(p,entry.record,qualifiedRecords);
+			List<SearchSolver<T>> forked = null;
+			for(i = 0; i < limit; i++) {
+				if(node.minX[i] <= maxX && minX <= node.maxX[i] && node.minY[i] <= maxY && minY <= node.maxY[i]) {
+					Node child = (Node) node.children[i];
+					if(!child.isLeaf && getSurplusQueuedTaskCount() <= SURPLUS_THRESHOLD) {
+						SearchSolver<T> task = new SearchSolver<T>(child, minX, minY, maxX, maxY, exact, latched, latched);
+						task.fork();
+						if(forked == null) {
+							forked = new ArrayList<SearchSolver<T>>();
+						}
+						forked.add(task);
+					} else {
+						if(latched) {
+							child.latch.readLock().lock();
+						}
+						try {
+							search(child, qualifiedRecords);
+						} finally {
+							if(latched) {
+								child.latch.readLock().unlock();
+							}
+						}
+					}
+				}
+			}
+			
+			// join the last forked task first, the first ones are the most likely to be stolen
+			if(forked != null) {
+				for(i = forked.size() - 1; i >= 0; i--) {
+					SearchSolver<T> task = forked.get(i);
+					qualifiedRecords.addAll(task.join());
+					nodesVisited += task.nodesVisited;
+					entriesTested += task.entriesTested;
 				}
 			}
 		} else { // [S2]			
-			for(IndexRecord<?> r : node.entries ) {
-				if(mbb.contains(r.r) || mbb.intersects(r.r)) {					
-					//IndexRecord<?> entry = (IndexRecord<?>)r;
-					//IndexRecord<T> entry = (IndexRecord<T>)r;
-					if(r.r.equals(mbb)) {
-						qualifiedRecords.add((T) r.record);
-					}
+			for(i = 0; i < limit; i++) {
+				if(exact ? (node.minX[i] == minX && node.minY[i] == minY && node.maxX[i] == maxX && node.maxY[i] == maxY)
+						: (node.minX[i] <= maxX && minX <= node.maxX[i] && node.minY[i] <= maxY && minY <= node.maxY[i])) {
+					qualifiedRecords.add((T) node.children[i]);
 				}
 			}			
 		}
-		//return Collections.unmodifiableList(qualifiedRecords);
-		//return qualifiedRecords;
 	}
-
 }
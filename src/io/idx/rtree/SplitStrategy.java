@@ -0,0 +1,41 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+/*
+ * Policy used by the RTree when a node overflows.
+ *
+ * The node is split in 2 groups, or part of its entries are inserted again
+ * in the tree when reinsertFraction is bigger than 0 (forced reinsertion of the R*-tree).
+ */
+public interface SplitStrategy {
+
+	/*
+	 * Divide the nodeMaxSize + 1 entries of the overflowing node n in 2 groups:
+	 * the first group stays in n, the second one is added to the empty node group2.
+	 * Every group must have at least nodeMinSize entries.
+	 * The parent of the child nodes is fixed by the tree after the split
+	 */
+	void split(Node n, Node group2);
+
+	/*
+	 * The fraction of the entries which are removed from an overflowing node and inserted again,
+	 * instead of splitting it, the first time a level overflows during an insertion.
+	 * 0 disables the forced reinsertion
+	 */
+	float reinsertFraction();
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/*
+ * Binary image of the nodes of a tree, written and read in a single sequential pass.
+ *
+ *   int magic, int version, int nodeMaxSize, int nodeMinSize, int level of the root
+ *   the nodes, level by level from the root:
+ *     int count
+ *     count bounding boxes as 4 int: minX, minY, maxX, maxY
+ *     for a leaf, count records written by the PayloadCodec
+ *
+ * The children of a node are not referenced: they are the next nodes of the level below,
+ * in the same order as the entries. So the reader creates the children of a node when it
+ * reads the node and fills them when their turn comes.
+ * The bounding boxes of a node are a single block, read and written with one call.
+ */
+class TreeImage {
+
+	final static int MAGIC = 0x52545249;
+	final static int VERSION = 1;
+
+	// size of the buffers of the streams
+	final static int BUFFER_SIZE = 1 << 16;
+
+	private final static int BOX_SIZE = 16;
+
+	// a deeper tree would index more than 2^63 records
+	private final static int MAX_LEVEL = 63;
+
+	private TreeImage() {
+	}
+
+	/*
+	 * Write the tree rooted at root, the stream is not closed.
+	 * If latched is true the root is read latched by the caller, which keeps the writers out of the tree,
+	 * and every other node is read latched while it is written
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> void write(Node root, DataOutputStream out, PayloadCodec<? super T> codec, boolean latched) 
+			throws IOException {
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(root.nodeMaxSize);
+		out.writeInt(root.nodeMinSize);
+		out.writeInt(root.level);
+
+		ByteBuffer boxes = ByteBuffer.allocate(root.nodeMaxSize * BOX_SIZE);
+		ArrayDeque<Node> queue = new ArrayDeque<Node>();
+		queue.add(root);
+
+		while(!queue.isEmpty()) {
+			Node node = queue.poll();
+			boolean latch = latched && node != root;
+			if(latch) {
+				node.latch.readLock().lock();
+			}
+			try {
+				int limit = node.size();
+				boxes.clear();
+				int i;
+				for(i = 0; i < limit; i++) {
+					boxes.putInt(node.minX[i]);
+					boxes.putInt(node.minY[i]);
+					boxes.putInt(node.maxX[i]);
+					boxes.putInt(node.maxY[i]);
+				}
+				out.writeInt(limit);
+				out.write(boxes.array(), 0, boxes.position());
+
+				for(i = 0; i < limit; i++) {
+					if(node.isLeaf) {
+						codec.write(out, (T) node.children[i]);
+					} else {
+						queue.add((Node) node.children[i]);
+					}
+				}
+			} finally {
+				if(latch) {
+					node.latch.readLock().unlock();
+				}
+			}
+		}
+		out.flush();
+	}
+
+	/*
+	 * Check the header of an image and return nodeMaxSize
+	 */
+	static int readHeader(DataInputStream in) throws IOException {
+		if(in.readInt() != MAGIC) {
+			throw new IOException("not an rtree image");
+		}
+		int version = in.readInt();
+		if(version != VERSION) {
+			throw new IOException("unsupported rtree image version " + version);
+		}
+		int nodeMaxSize = in.readInt();
+		// the trees never have nodes of 5 entries or less
+		if(nodeMaxSize <= 5) {
+			throw new IOException("corrupted rtree image, node max size " + nodeMaxSize);
+		}
+		return nodeMaxSize;
+	}
+
+	/*
+	 * Read the nodes of an image after its header and return the root,
+	 * the nodes are latched if they are read for a tree in concurrent mode
+	 */
+	static <T> Node read(DataInputStream in, PayloadCodec<? extends T> codec, int nodeMaxSize, boolean latched) 
+			throws IOException {
+
+		int nodeMinSize = in.readInt();
+		int level = in.readInt();
+		if(nodeMinSize < 1 || nodeMinSize > nodeMaxSize / 2) {
+			throw new IOException("corrupted rtree image, node min size " + nodeMinSize + " of " + nodeMaxSize);
+		}
+		if(level < 0 || level > MAX_LEVEL) {
+			throw new IOException("corrupted rtree image, root of level " + level);
+		}
+		Node root = new Node(nodeMaxSize, nodeMinSize, level, null, latched);
+
+		byte[] bytes = new byte[nodeMaxSize * BOX_SIZE];
+		ByteBuffer boxes = ByteBuffer.wrap(bytes);
+		ArrayDeque<Node> queue = new ArrayDeque<Node>();
+		queue.add(root);
+
+		while(!queue.isEmpty()) {
+			Node node = queue.poll();
+			int limit = in.readInt();
+			if(limit < 0 || limit > nodeMaxSize) {
+				throw new IOException("corrupted rtree image, node of " + limit + " entries");
+			}
+			in.readFully(bytes, 0, limit * BOX_SIZE);
+			boxes.clear();
+
+			int i;
+			for(i = 0; i < limit; i++) {
+				int minX = boxes.getInt();
+				int minY = boxes.getInt();
+				int maxX = boxes.getInt();
+				int maxY = boxes.getInt();
+				if(node.isLeaf) {
+					node.add(minX, minY, maxX, maxY, null);
+				} else {
+					Node child = new Node(nodeMaxSize, nodeMinSize, node.level - 1, node, latched);
+					node.add(minX, minY, maxX, maxY, child);
+					queue.add(child);
+				}
+			}
+			if(node.isLeaf) {
+				for(i = 0; i < limit; i++) {
+					node.children[i] = codec.read(in);
+				}
+			}
+		}
+		return root;
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.idx.rtree;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Background maintenance of a concurrent RTree.
+ *
+ * An insert chooses the subtree which needs the least enlargement and a full node is split locally,
+ * so after a long series of inserts and deletes the nodes overlap more, are less full and cover more
+ * dead space than the nodes of a packed tree, and the searches visit more nodes.
+ * At every period the structure of the tree is measured through its RTreeStats, and the tree is rebuilt
+ * with RTree.rebuild when one of the measures is past its threshold:
+ *  - the overlap ratio is above maxOverlapRatio
+ *  - the average fill is below minFill
+ *  - the coverage is above maxCoverage
+ * A check walks the whole tree to measure it, latching one node at a time: a writer waits
+ * at most for the measure of a node, but the walk runs the pairwise overlap of the entries
+ * of every node, so the period must be long compared to that work.
+ * The searches go on during the rebuild, the writers wait only while the records are copied.
+ * Both the searches and the writers are blocked while the last changes are applied and the root
+ * is replaced, which RTree.rebuild keeps to a few milliseconds. A tree with a single node is never rebuilt
+ */
+public class TreeMaintenance implements Closeable {
+
+	// random points inserted with the quadratic split give an overlap ratio of 0.28 - 0.55 and a coverage
+	// of 1.4 - 2.4, the same points packed 0.08 - 0.17 and 0.82 - 0.95
+	public final static double DEFAULT_MAX_OVERLAP_RATIO = 0.3;
+	public final static double DEFAULT_MIN_FILL = 0.55;
+	public final static double DEFAULT_MAX_COVERAGE = 1.25;
+
+	private final RTree<?> tree;
+	private final double maxOverlapRatio;
+	private final double minFill;
+	private final double maxCoverage;
+	private final ScheduledExecutorService executor;
+
+	// the last exception thrown by a scheduled check, the next checks are run anyway
+	private volatile RuntimeException failure;
+
+
+	public TreeMaintenance(RTree<?> tree) {
+		this(tree, DEFAULT_MAX_OVERLAP_RATIO, DEFAULT_MIN_FILL, DEFAULT_MAX_COVERAGE);
+	}
+
+	/*
+	 * Maintenance of a tree in concurrent mode, a threshold is disabled
+	 * with a maximum of Double.MAX_VALUE or a minimum of 0
+	 */
+	public TreeMaintenance(RTree<?> tree, double maxOverlapRatio, double minFill, double maxCoverage) {
+		if(!tree.isConcurrent()) {
+			throw new IllegalArgumentException("the maintenance runs in background, the tree must be concurrent");
+		}
+		this.tree = tree;
+		this.maxOverlapRatio = maxOverlapRatio;
+		this.minFill = minFill;
+		this.maxCoverage = maxCoverage;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "rtree-maintenance");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/** 
+	 *  Check the tree with a fixed delay, in a background thread:
+	 *  a long rebuild delays the next check instead of making the checks pile up
+	 *
+	 * @param  period the time between the end of a check and the start of the next one
+	 * @param  unit the unit of the period
+	 * @return      void
+	 */
+	public void start(long period, TimeUnit unit) {
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					TreeMaintenance.this.check();
+				} catch(RuntimeException e) {
+					failure = e;
+				}
+			}
+		}, period, period, unit);
+	}
+
+	/** 
+	 *  Measure the tree and rebuild it if a measure is past its threshold
+	 *
+	 * @return      true if the tree has been rebuilt, false if it did not need it
+	 *              or if the rebuild has been abandoned because of the writers
+	 */
+	public boolean check() {
+		RTreeStats stats = tree.stats();
+		stats.refresh();
+		if(stats.getHeight() < 2) {
+			return false;
+		}
+		if(stats.getOverlapRatio() > maxOverlapRatio || stats.getAverageFill() < minFill 
+				|| stats.getCoverage() > maxCoverage) {
+			return tree.rebuild();
+		}
+		return false;
+	}
+
+	public RuntimeException lastFailure() {
+		return failure;
+	}
+
+	/*
+	 * Stop the checks, a rebuild already running is completed
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.rtree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/*
+ * Append only log of the changes of a tree, every change is on disk before append returns.
+ *
+ * Every entry is:
+ *   int length of the body
+ *   int CRC32 of the body
+ *   the body
+ * A crash can leave a torn entry at the end of the file: the log is read up to the first
+ * entry which is incomplete or has a wrong checksum, and the rest is cut when the log is opened.
+ *
+ * Group commit: the threads appending at the same time share a single fsync.
+ * The appended entries are buffered, the first thread which needs them on disk becomes the leader
+ * and writes the whole buffer with one force, while the others wait for it and keep buffering.
+ * When a write completes, every entry it covered is durable, so the cost of an fsync is spread
+ * over all the entries which arrived while the previous one was running.
+ */
+class WriteAheadLog implements Closeable {
+
+	private final static int ENTRY_HEADER = 8;
+
+	private final FileChannel channel;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition flushed = lock.newCondition();
+
+	// entries appended but not written yet, guarded by lock
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	// sequence of the last appended entry and of the last durable one
+	private long appended;
+	private long durable;
+	// true while a leader is writing
+	private boolean flushing;
+	// forces made by the leaders, fewer than the appended entries when they are shared
+	private long forces;
+	// the log cannot be used after a failed write
+	private IOException failure;
+
+
+	/*
+	 * Open the log for append, cutting what follows the first length bytes
+	 */
+	WriteAheadLog(Path file, long length) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if(channel.size() > length) {
+			channel.truncate(length);
+			channel.force(true);
+		}
+		channel.position(length);
+	}
+
+	/*
+	 * Append an entry and wait until it is on disk.
+	 * Return the sequence of the entry in the log, the first entry appended is 1
+	 */
+	long append(byte[] body) throws IOException {
+
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, body.length);
+		byte[] header = ByteBuffer.allocate(ENTRY_HEADER).putInt(body.length).putInt((int) crc.getValue()).array();
+
+		lock.lock();
+		try {
+			this.checkFailure();
+			pending.write(header, 0, header.length);
+			pending.write(body, 0, body.length);
+			long sequence = ++appended;
+
+			while(durable < sequence) {
+				this.checkFailure();
+				if(flushing) {
+					// a leader is writing, the entry goes with the next write
+					flushed.awaitUninterruptibly();
+					continue;
+				}
+
+				// leader: write everything buffered so far with a single force
+				flushing = true;
+				ByteArrayOutputStream batch = pending;
+				long last = appended;
+				pending = new ByteArrayOutputStream();
+				IOException error = null;
+				lock.unlock();
+				try {
+					ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+					while(buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+					channel.force(false);
+				} catch(IOException e) {
+					error = e;
+				} finally {
+					lock.lock();
+				}
+				flushing = false;
+				if(error != null) {
+					failure = error;
+				} else {
+					durable = last;
+					forces++;
+				}
+				flushed.signalAll();
+			}
+			return sequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Number of forces made by the appends so far
+	 */
+	long forces() {
+		lock.lock();
+		try {
+			return forces;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		if(failure != null) {
+			throw new IOException("write ahead log failed", failure);
+		}
+	}
+
+	/*
+	 * Read the next entry of a log, return its body or null at the end of the valid entries.
+	 * left is the number of bytes of the file after the entry, so a corrupted length is not allocated
+	 */
+	static byte[] read(DataInputStream in, long left) throws IOException {
+		try {
+			int length = in.readInt();
+			int checksum = in.readInt();
+			if(length < 0 || length > left - ENTRY_HEADER) {
+				return null;
+			}
+			byte[] body = new byte[length];
+			in.readFully(body);
+			CRC32 crc = new CRC32();
+			crc.update(body, 0, length);
+			if((int) crc.getValue() != checksum) {
+				return null;
+			}
+			return body;
+		} catch(EOFException e) {
+			// torn entry at the end of the log
+			return null;
+		}
+	}
+
+	/*
+	 * Size on disk of an entry with the given body
+	 */
+	static int entrySize(byte[] body) {
+		return ENTRY_HEADER + body.length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
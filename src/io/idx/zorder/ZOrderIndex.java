@@ -0,0 +1,459 @@
+/**
+ * Copyright [2012] [Silenteh]
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.idx.zorder;
+
+import io.idx.RecordVisitor;
+import io.idx.SpatialIndex;
+import io.idx.rtree.RTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/*
+ * Index of points sorted by their Morton (Z-order) key.
+ *
+ * The key interleaves the bits of X and Y, so the points of an aligned square cell
+ * of the plane have consecutive keys. A window query is decomposed in the cells covering it
+ * and every cell is a range of keys, scanned in a sorted array of longs: no tree is traversed,
+ * and the points close in the plane are close in memory.
+ *
+ * The keys are kept in 2 sorted runs: the main one, and a small one receiving the inserts.
+ * When the small run reaches about the square root of the size it is merged in the main one,
+ * so an insert moves O(sqrt(n)) keys. A delete from the main run leaves a null record,
+ * which is removed by the next merge. Both runs are searched by every query.
+ *
+ * Only points can be indexed. This class is not thread safe.
+ */
+public class ZOrderIndex<T> implements SpatialIndex<T> {
+
+	// bits of each coordinate in the key, the coordinates are moved to 0 ... 2^BITS - 1
+	private final static int BITS = 31;
+	private final static long OFFSET = 1L << (BITS - 1);
+	private final static long MAX_COORDINATE = (1L << BITS) - 1;
+
+	// a window is cut in cells down to 1 / 2^REFINE of its size, the border cells are filtered point by point
+	private final static int REFINE = 1;
+	private final static int MIN_BUFFER = 1024;
+	// first radius of the nearest search, in units
+	private final static long NEAREST_RADIUS = 1000;
+
+	// main run
+	private long[] keys = new long[0];
+	private Object[] records = new Object[0];
+	private int size;
+	private int deleted;
+
+	// run of the recent inserts
+	private long[] bufferKeys = new long[MIN_BUFFER];
+	private Object[] bufferRecords = new Object[MIN_BUFFER];
+	private int bufferSize;
+
+
+	/*
+	 * Number of records in the index
+	 */
+	public int size() {
+		return size - deleted + bufferSize;
+	}
+
+	@Override
+	public void addIndex(T record, double longitude, double latitude) {
+		long key = ZOrderIndex.key(RTree.increaseUnit(longitude), RTree.increaseUnit(latitude));
+
+		if(bufferSize == bufferKeys.length) {
+			this.merge();
+		}
+		// insert keeping the run sorted, after the equal keys
+		int i = ZOrderIndex.upperBound(bufferKeys, 0, bufferSize, key);
+		System.arraycopy(bufferKeys, i, bufferKeys, i + 1, bufferSize - i);
+		System.arraycopy(bufferRecords, i, bufferRecords, i + 1, bufferSize - i);
+		bufferKeys[i] = key;
+		bufferRecords[i] = record;
+		bufferSize++;
+	}
+
+	/*
+	 * Merge the recent inserts in the main run, dropping the deleted records,
+	 * and size the next buffer on the new size
+	 */
+	private void merge() {
+		int total = size - deleted + bufferSize;
+		long[] mergedKeys = new long[total];
+		Object[] mergedRecords = new Object[total];
+		int i = 0;
+		int j = 0;
+		int n = 0;
+		while(i < size || j < bufferSize) {
+			if(j == bufferSize || (i < size && keys[i] <= bufferKeys[j])) {
+				if(records[i] != null) {
+					mergedKeys[n] = keys[i];
+					mergedRecords[n++] = records[i];
+				}
+				i++;
+			} else {
+				mergedKeys[n] = bufferKeys[j];
+				mergedRecords[n++] = bufferRecords[j++];
+			}
+		}
+		keys = mergedKeys;
+		records = mergedRecords;
+		size = total;
+		deleted = 0;
+
+		int capacity = Math.max(MIN_BUFFER, (int) Math.sqrt(total) * 4);
+		bufferKeys = new long[capacity];
+		bufferRecords = new Object[capacity];
+		bufferSize = 0;
+	}
+
+	@Override
+	public boolean delete(T record, double longitude, double latitude) {
+		long key = ZOrderIndex.key(RTree.increaseUnit(longitude), RTree.increaseUnit(latitude));
+
+		int i;
+		for(i = ZOrderIndex.lowerBound(bufferKeys, 0, bufferSize, key); i < bufferSize && bufferKeys[i] == key; i++) {
+			if(record.equals(bufferRecords[i])) {
+				System.arraycopy(bufferKeys, i + 1, bufferKeys, i, bufferSize - i - 1);
+				System.arraycopy(bufferRecords, i + 1, bufferRecords, i, bufferSize - i - 1);
+				bufferRecords[--bufferSize] = null;
+				return true;
+			}
+		}
+		for(i = ZOrderIndex.lowerBound(keys, 0, size, key); i < size && keys[i] == key; i++) {
+			if(record.equals(records[i])) {
+				records[i] = null;
+				deleted++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<T> search(double longitude, double latitude) {
+		long key = ZOrderIndex.key(RTree.increaseUnit(longitude), RTree.increaseUnit(latitude));
+		List<T> result = new ArrayList<T>();
+		int i;
+		for(i = ZOrderIndex.lowerBound(keys, 0, size, key); i < size && keys[i] == key; i++) {
+			if(records[i] != null) {
+				result.add((T) records[i]);
+			}
+		}
+		for(i = ZOrderIndex.lowerBound(bufferKeys, 0, bufferSize, key); i < bufferSize && bufferKeys[i] == key; i++) {
+			result.add((T) bufferRecords[i]);
+		}
+		return result;
+	}
+
+	/** 
+	 *  This method search all the records inside a window, see SpatialIndex.searchWindow
+	 *
+	 * @param  minLongitude the west border of the window
+	 * @param  minLatitude the south border of the window
+	 * @param  maxLongitude the east border of the window
+	 * @param  maxLatitude the north border of the window
+	 * @return      a list of the records
+	 */
+	public List<T> searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude) {
+		final List<T> result = new ArrayList<T>();
+		this.searchWindow(minLongitude, minLatitude, maxLongitude, maxLatitude, new RecordVisitor<T>() {
+			public boolean visit(T record) {
+				result.add(record);
+				return true;
+			}
+		});
+		return result;
+	}
+
+	@Override
+	public boolean searchWindow(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude,
+			RecordVisitor<? super T> visitor) {
+		long x0 = ZOrderIndex.clamp(RTree.increaseUnit(Math.min(minLongitude, maxLongitude)));
+		long y0 = ZOrderIndex.clamp(RTree.increaseUnit(Math.min(minLatitude, maxLatitude)));
+		long x1 = ZOrderIndex.clamp(RTree.increaseUnit(Math.max(minLongitude, maxLongitude)));
+		long y1 = ZOrderIndex.clamp(RTree.increaseUnit(Math.max(minLatitude, maxLatitude)));
+		return this.searchWindow(x0, y0, x1, y1, visitor);
+	}
+
+	/*
+	 * Window search on coordinates already moved to 0 ... MAX_COORDINATE
+	 */
+	private boolean searchWindow(long x0, long y0, long x1, long y1, RecordVisitor<? super T> visitor) {
+		long[] ranges = this.ranges(x0, y0, x1, y1);
+		return this.scan(keys, records, size, ranges, x0, y0, x1, y1, visitor)
+				&& this.scan(bufferKeys, bufferRecords, bufferSize, ranges, x0, y0, x1, y1, visitor);
+	}
+
+	/*
+	 * Visit the records of a run inside the key ranges and inside the window.
+	 * The ranges are sorted, so the scan only moves forward in the run
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean scan(long[] keys, Object[] records, int size, long[] ranges, long x0, long y0, long x1, long y1,
+			RecordVisitor<? super T> visitor) {
+		int position = 0;
+		int r;
+		for(r = 0; r < ranges.length && position < size; r += 2) {
+			position = ZOrderIndex.lowerBound(keys, position, size, ranges[r]);
+			long end = ranges[r + 1];
+			while(position < size && keys[position] <= end) {
+				long key = keys[position];
+				Object record = records[position++];
+				if(record == null) {
+					continue;
+				}
+				long x = ZOrderIndex.compact(key);
+				long y = ZOrderIndex.compact(key >>> 1);
+				if(x0 <= x && x <= x1 && y0 <= y && y <= y1 && !visitor.visit((T) record)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * The key ranges of the cells covering the window, as start, end pairs in increasing order.
+	 * The adjacent ranges are joined
+	 */
+	private long[] ranges(long x0, long y0, long x1, long y1) {
+		long extent = Math.max(x1 - x0, y1 - y0) + 1;
+		int stopLevel = Math.max(0, 64 - Long.numberOfLeadingZeros(extent) - 1 - REFINE);
+		Ranges ranges = new Ranges();
+		this.decompose(0, 0, BITS, x0, y0, x1, y1, stopLevel, ranges);
+		return Arrays.copyOf(ranges.values, ranges.count);
+	}
+
+	/*
+	 * Add the ranges of the cell of side 2^level with the low corner (x, y)
+	 */
+	private void decompose(long x, long y, int level, long x0, long y0, long x1, long y1, int stopLevel, Ranges ranges) {
+
+		long last = (1L << level) - 1;
+		if(x > x1 || x + last < x0 || y > y1 || y + last < y0) {
+			return;
+		}
+
+		boolean inside = x0 <= x && x + last <= x1 && y0 <= y && y + last <= y1;
+		if(inside || level <= stopLevel) {
+			// the keys of an aligned cell are consecutive
+			long start = ZOrderIndex.key(x, y);
+			ranges.add(start, start + (last << level) + last);
+			return;
+		}
+
+		// the 4 children in the order of their keys
+		long half = 1L << (level - 1);
+		this.decompose(x, y, level - 1, x0, y0, x1, y1, stopLevel, ranges);
+		this.decompose(x + half, y, level - 1, x0, y0, x1, y1, stopLevel, ranges);
+		this.decompose(x, y + half, level - 1, x0, y0, x1, y1, stopLevel, ranges);
+		this.decompose(x + half, y + half, level - 1, x0, y0, x1, y1, stopLevel, ranges);
+	}
+
+	/*
+	 * Growing list of key ranges
+	 */
+	private static class Ranges {
+		long[] values = new long[16];
+		int count;
+
+		void add(long start, long end) {
+			if(count > 0 && values[count - 1] + 1 == start) {
+				values[count - 1] = end;
+				return;
+			}
+			if(count == values.length) {
+				values = Arrays.copyOf(values, count * 2);
+			}
+			values[count++] = start;
+			values[count++] = end;
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<T> nearest(double longitude, double latitude, int k) {
+		final List<T> result = new ArrayList<T>();
+		if(k <= 0 || this.size() == 0) {
+			return result;
+		}
+
+		long x = ZOrderIndex.clamp(RTree.increaseUnit(longitude));
+		long y = ZOrderIndex.clamp(RTree.increaseUnit(latitude));
+		double xScale = Math.cos(Math.toRadians(latitude));
+
+		// search windows growing around the point: a record outside the window is farther than radius,
+		// so when k records are within radius they are the closest ones
+		long radius = NEAREST_RADIUS;
+		while(true) {
+			long xRadius = (long) Math.min(MAX_COORDINATE, radius / Math.max(xScale, 1e-9));
+			long x0 = Math.max(0, x - xRadius);
+			long x1 = Math.min(MAX_COORDINATE, x + xRadius);
+			long y0 = Math.max(0, y - radius);
+			long y1 = Math.min(MAX_COORDINATE, y + radius);
+			boolean everything = x0 == 0 && y0 == 0 && x1 == MAX_COORDINATE && y1 == MAX_COORDINATE;
+
+			PriorityQueue<Candidate> closest = new PriorityQueue<Candidate>();
+			long[] ranges = this.ranges(x0, y0, x1, y1);
+			this.collect(keys, records, size, ranges, x0, y0, x1, y1, x, y, xScale, closest, k);
+			this.collect(bufferKeys, bufferRecords, bufferSize, ranges, x0, y0, x1, y1, x, y, xScale, closest, k);
+
+			double maxDistance = (double) radius * radius;
+			if(everything || (closest.size() == k && closest.peek().distance <= maxDistance)) {
+				// the queue gives the farthest first
+				Object[] sorted = new Object[closest.size()];
+				int i;
+				for(i = sorted.length - 1; i >= 0; i--) {
+					sorted[i] = closest.poll().record;
+				}
+				for(Object record : sorted) {
+					result.add((T) record);
+				}
+				return result;
+			}
+			radius *= 2;
+		}
+	}
+
+	/*
+	 * Keep in closest the limit records of the run inside the window closest to (x, y),
+	 * the head of the queue is the farthest one
+	 */
+	private void collect(long[] keys, Object[] records, int size, long[] ranges, long x0, long y0, long x1, long y1,
+			long x, long y, double xScale, PriorityQueue<Candidate> closest, int limit) {
+		int position = 0;
+		int r;
+		for(r = 0; r < ranges.length && position < size; r += 2) {
+			position = ZOrderIndex.lowerBound(keys, position, size, ranges[r]);
+			long end = ranges[r + 1];
+			while(position < size && keys[position] <= end) {
+				long key = keys[position];
+				Object record = records[position++];
+				if(record == null) {
+					continue;
+				}
+				long px = ZOrderIndex.compact(key);
+				long py = ZOrderIndex.compact(key >>> 1);
+				if(px < x0 || px > x1 || py < y0 || py > y1) {
+					continue;
+				}
+				double dx = (px - x) * xScale;
+				double dy = py - y;
+				double distance = dx * dx + dy * dy;
+				if(closest.size() < limit) {
+					closest.add(new Candidate(record, distance));
+				} else if(distance < closest.peek().distance) {
+					closest.poll();
+					closest.add(new Candidate(record, distance));
+				}
+			}
+		}
+	}
+
+	/*
+	 * A record found by the nearest search, the queue orders them from the farthest
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+		final Object record;
+		final double distance;
+
+		Candidate(Object record, double distance) {
+			this.record = record;
+			this.distance = distance;
+		}
+
+		@Override
+		public int compareTo(Candidate o) {
+			return Double.compare(o.distance, distance);
+		}
+	}
+
+	// ---------------------------------------------------------------------
+	// keys
+
+	// move a coordinate in units to 0 ... MAX_COORDINATE
+	private static long clamp(int value) {
+		return Math.max(0, Math.min(MAX_COORDINATE, value + OFFSET));
+	}
+
+	/*
+	 * Morton key of a point in units, X in the even bits and Y in the odd bits
+	 */
+	private static long key(int x, int y) {
+		long ux = x + OFFSET;
+		long uy = y + OFFSET;
+		if(ux < 0 || ux > MAX_COORDINATE || uy < 0 || uy > MAX_COORDINATE) {
+			throw new IllegalArgumentException("coordinate out of range: " + x + ", " + y);
+		}
+		return ZOrderIndex.key(ux, uy);
+	}
+
+	private static long key(long x, long y) {
+		return ZOrderIndex.spread(x) | (ZOrderIndex.spread(y) << 1);
+	}
+
+	// move the 32 low bits of v to the even bits
+	private static long spread(long v) {
+		v &= 0xffffffffL;
+		v = (v | (v << 16)) & 0x0000ffff0000ffffL;
+		v = (v | (v << 8)) & 0x00ff00ff00ff00ffL;
+		v = (v | (v << 4)) & 0x0f0f0f0f0f0f0f0fL;
+		v = (v | (v << 2)) & 0x3333333333333333L;
+		v = (v | (v << 1)) & 0x5555555555555555L;
+		return v;
+	}
+
+	// inverse of spread: gather the even bits of v
+	private static long compact(long v) {
+		v &= 0x5555555555555555L;
+		v = (v | (v >>> 1)) & 0x3333333333333333L;
+		v = (v | (v >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+		v = (v | (v >>> 4)) & 0x00ff00ff00ff00ffL;
+		v = (v | (v >>> 8)) & 0x0000ffff0000ffffL;
+		v = (v | (v >>> 16)) & 0x00000000ffffffffL;
+		return v;
+	}
+
+	// first index from start with a key >= key
+	private static int lowerBound(long[] keys, int start, int end, long key) {
+		while(start < end) {
+			int middle = (start + end) >>> 1;
+			if(keys[middle] < key) {
+				start = middle + 1;
+			} else {
+				end = middle;
+			}
+		}
+		return start;
+	}
+
+	// first index from start with a key > key
+	private static int upperBound(long[] keys, int start, int end, long key) {
+		while(start < end) {
+			int middle = (start + end) >>> 1;
+			if(keys[middle] <= key) {
+				start = middle + 1;
+			} else {
+				end = middle;
+			}
+		}
+		return start;
+	}
+}
@@ -0,0 +1,45 @@
+package io.idx;
+import static org.junit.Assert.assertEquals;
+
+import io.idx.rtree.RTree;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Check of the nearest neighbour search of an index against the one of the RTree.
+ * 2 records can be at the same distance from the point, and the indexes may return either of them,
+ * so the sorted distances of the records are compared instead of the records.
+ * The records are the positions of their coordinates in the arrays
+ */
+public class NearestAssert {
+
+	public static void assertSameDistances(double longitude, double latitude, List<Integer> expected, List<Integer> found,
+			double[] longitudes, double[] latitudes) {
+		
+		double[] expectedDistances = distances(longitude, latitude, expected, longitudes, latitudes);
+		double[] foundDistances = distances(longitude, latitude, found, longitudes, latitudes);
+		assertEquals(expectedDistances.length, foundDistances.length);
+		int i;
+		for(i = 0; i < expectedDistances.length; i++) {
+			assertEquals(expectedDistances[i], foundDistances[i], expectedDistances[i] * 1e-9);
+		}
+	}
+	
+	// same distance used by the indexes: equirectangular at the latitude of the point, in fixed point units
+	private static double[] distances(double longitude, double latitude, List<Integer> records, 
+			double[] longitudes, double[] latitudes) {
+		
+		double xScale = Math.cos(Math.toRadians(latitude));
+		double[] distances = new double[records.size()];
+		int i;
+		for(i = 0; i < distances.length; i++) {
+			int record = records.get(i);
+			double dx = ((long)RTree.increaseUnit(longitudes[record]) - RTree.increaseUnit(longitude)) * xScale;
+			double dy = (long)RTree.increaseUnit(latitudes[record]) - RTree.increaseUnit(latitude);
+			distances[i] = dx * dx + dy * dy;
+		}
+		Arrays.sort(distances);
+		return distances;
+	}
+}
@@ -0,0 +1,96 @@
+package io.idx;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.idx.rtree.RTree;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/*
+ * Check of the operations of SpatialIndex against the ones of the RTree, used as reference.
+ * The records are the positions of their coordinates in the arrays, the caller draws them in the area
+ * its index covers. All the records are added and looked up, the windows and the nearest searches are compared,
+ * then half of the records are deleted and everything is compared again.
+ * The query points are drawn around the records, so they follow the distribution of the data
+ */
+public class SpatialIndexContract {
+	
+	private final static int QUERIES = 200;
+	
+	private final static int NEAREST = 10;
+	
+	private static Random rnd = new Random();
+	
+	/*
+	 * Check the index, empty, with the records of the arrays.
+	 * The windows are at most windowDegrees wide.
+	 * It returns the reference, holding the same records of the index, for the checks specific to the index
+	 */
+	public static RTree<Integer> check(SpatialIndex<Integer> index, double[] longitudes, double[] latitudes, double windowDegrees) {
+		
+		RTree<Integer> reference = new RTree<Integer>(50);
+		int i;
+		for(i = 0; i < longitudes.length; i++) {
+			index.addIndex(i, longitudes[i], latitudes[i]);
+			reference.addIndex(i, longitudes[i], latitudes[i]);
+		}
+		for(i = 0; i < longitudes.length; i++) {
+			assertTrue(index.search(longitudes[i], latitudes[i]).contains(i));
+		}
+		SpatialIndexContract.compare(index, reference, longitudes, latitudes, windowDegrees);
+		
+		for(i = 0; i < longitudes.length; i += 2) {
+			assertTrue(index.delete(i, longitudes[i], latitudes[i]));
+			assertTrue(!index.delete(i, longitudes[i], latitudes[i]));
+			reference.delete(i, longitudes[i], latitudes[i]);
+		}
+		for(i = 0; i < longitudes.length; i++) {
+			assertEquals(i % 2 == 1, index.search(longitudes[i], latitudes[i]).contains(i));
+		}
+		SpatialIndexContract.compare(index, reference, longitudes, latitudes, windowDegrees);
+		return reference;
+	}
+	
+	private static void compare(SpatialIndex<Integer> index, RTree<Integer> reference, double[] longitudes, double[] latitudes,
+			double windowDegrees) {
+		
+		int i;
+		for(i = 0; i < QUERIES; i++) {
+			int record = rnd.nextInt(longitudes.length);
+			double lon = longitudes[record] + (rnd.nextDouble() - 0.5) * windowDegrees;
+			double lat = latitudes[record] + (rnd.nextDouble() - 0.5) * windowDegrees;
+			double size = rnd.nextDouble() * windowDegrees;
+			assertEquals(SpatialIndexContract.window(reference, lon, lat, lon + size, lat + size),
+					SpatialIndexContract.window(index, lon, lat, lon + size, lat + size));
+			
+			NearestAssert.assertSameDistances(lon, lat, reference.nearest(lon, lat, NEAREST), index.nearest(lon, lat, NEAREST),
+					longitudes, latitudes);
+		}
+		
+		// the whole Earth holds all the records, and the visitor can stop the search at the first one
+		assertEquals(SpatialIndexContract.window(reference, -180, -90, 180, 90), SpatialIndexContract.window(index, -180, -90, 180, 90));
+		final int[] visited = new int[1];
+		assertTrue(!index.searchWindow(-180, -90, 180, 90, new RecordVisitor<Integer>() {
+			public boolean visit(Integer record) {
+				visited[0]++;
+				return false;
+			}
+		}));
+		assertEquals(1, visited[0]);
+	}
+	
+	private static Set<Integer> window(SpatialIndex<Integer> index, double minLongitude, double minLatitude,
+			double maxLongitude, double maxLatitude) {
+		
+		final Set<Integer> found = new HashSet<Integer>();
+		index.searchWindow(minLongitude, minLatitude, maxLongitude, maxLatitude, new RecordVisitor<Integer>() {
+			public boolean visit(Integer record) {
+				found.add(record);
+				return true;
+			}
+		});
+		return found;
+	}
+}
@@ -0,0 +1,49 @@
+package io.idx.grid;
+import static org.junit.Assert.assertEquals;
+
+import io.idx.NearestAssert;
+import io.idx.SpatialIndexContract;
+import io.idx.rtree.RTree;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class GridIndexTest {
+	
+	private final static int MAX_FAKE_ENTRIES = 200000;
+	
+	// a city sized area, with cells of about 1 km
+	private final static double MIN_LONGITUDE = 2.0;
+	private final static double MIN_LATITUDE = 48.6;
+	private final static double MAX_LONGITUDE = 2.7;
+	private final static double MAX_LATITUDE = 49.1;
+	private final static double CELL_DEGREES = 0.01;
+	
+	private static Random rnd = new Random();
+	
+	@Test
+	public void testAgainstRTree() {
+		
+		GridIndex<Integer> grid = new GridIndex<Integer>(MIN_LONGITUDE, MIN_LATITUDE, MAX_LONGITUDE, MAX_LATITUDE, CELL_DEGREES);
+		double[] longitudes = new double[MAX_FAKE_ENTRIES];
+		double[] latitudes = new double[MAX_FAKE_ENTRIES];
+		int i;
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			longitudes[i] = MIN_LONGITUDE + rnd.nextDouble() * (MAX_LONGITUDE - MIN_LONGITUDE);
+			latitudes[i] = MIN_LATITUDE + rnd.nextDouble() * (MAX_LATITUDE - MIN_LATITUDE);
+		}
+		RTree<Integer> reference = SpatialIndexContract.check(grid, longitudes, latitudes, 0.05);
+		assertEquals(MAX_FAKE_ENTRIES / 2, grid.size());
+		
+		// a point outside of the area is searched like the others
+		NearestAssert.assertSameDistances(0, 0, reference.nearest(0, 0, 3), grid.nearest(0, 0, 3), longitudes, latitudes);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutsideOfTheArea() {
+		GridIndex<Integer> grid = new GridIndex<Integer>(MIN_LONGITUDE, MIN_LATITUDE, MAX_LONGITUDE, MAX_LATITUDE, CELL_DEGREES);
+		grid.addIndex(1, 10, 10);
+	}
+}
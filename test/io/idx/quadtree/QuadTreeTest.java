@@ -0,0 +1,46 @@
+package io.idx.quadtree;
+import static org.junit.Assert.assertEquals;
+
+import io.idx.SpatialIndexContract;
+
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+public class QuadTreeTest {
+	
+	private final static int MAX_FAKE_ENTRIES = 100000;
+	
+	// most of the points are around a few cities, the others are spread on the whole Earth
+	private final static double[][] CITIES = {{-74.0, 40.7}, {2.35, 48.85}, {139.7, 35.7}, {-46.6, -23.5}, {77.2, 28.6}};
+	private final static double CITY_SHARE = 0.9;
+	private final static double CITY_RADIUS = 0.2;
+	
+	private static Random rnd = new Random();
+	private static double[] longitudes = new double[MAX_FAKE_ENTRIES];
+	private static double[] latitudes = new double[MAX_FAKE_ENTRIES];
+	
+	@BeforeClass
+	public static void init() {
+		int i;
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			if(rnd.nextDouble() < CITY_SHARE) {
+				double[] city = CITIES[rnd.nextInt(CITIES.length)];
+				longitudes[i] = city[0] + rnd.nextGaussian() * CITY_RADIUS;
+				latitudes[i] = city[1] + rnd.nextGaussian() * CITY_RADIUS;
+			} else {
+				longitudes[i] = rnd.nextDouble() * 360 - 180;
+				latitudes[i] = rnd.nextDouble() * 180 - 90;
+			}
+		}
+	}
+	
+	@Test
+	public void testAgainstRTree() {
+		QuadTree<Integer> tree = new QuadTree<Integer>();
+		SpatialIndexContract.check(tree, longitudes, latitudes, 1);
+		assertEquals(MAX_FAKE_ENTRIES / 2, tree.size());
+	}
+}
@@ -0,0 +1,170 @@
+package io.idx.rtree;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+
+public class DiskRTreeTest {
+	
+	private final static int MAX_NODE_SIZE = 16;
+	
+	private final static int MAX_FAKE_ENTRIES = 50000;
+	
+	private final static int CACHE_PAGES = 64;
+	
+	private static Random rnd = new Random();
+	
+	@Test
+	public void testSearchThroughCache() throws IOException {
+		
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		Record[] records = new Record[MAX_FAKE_ENTRIES];
+		int i;
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			records[i] = new Record(i, rnd.nextDouble() * 360 - 180, rnd.nextDouble() * 180 - 90);
+			tree.addIndex(records[i], records[i].longitude, records[i].latitude);
+		}
+		
+		Path file = Files.createTempFile("rtree", ".pages");
+		try {
+			PagedRTree.write(tree, new IdExtractor<Record>() {
+				public long id(Record record) {
+					return record.id;
+				}
+			}, file);
+			PagedRTree paged = PagedRTree.open(file);
+			DiskRTree disk = DiskRTree.open(file, CACHE_PAGES, 2);
+			
+			for(i = 0; i < 200; i++) {
+				double lon = rnd.nextDouble() * 340 - 170;
+				double lat = rnd.nextDouble() * 160 - 80;
+				assertEquals(window(paged, lon, lat), window(disk, lon, lat));
+				assertArrayEquals(paged.nearest(lon, lat, 5), disk.nearest(lon, lat, 5));
+			}
+			
+			// the file is much bigger than the cache
+			PageCache cache = disk.cache();
+			assertTrue(cache.misses() > CACHE_PAGES);
+			assertTrue(cache.hits() > 0);
+			assertTrue(cache.evictions() > 0);
+			
+			// the deleted records are written back
+			for(i = 0; i < MAX_FAKE_ENTRIES; i += 2) {
+				assertTrue(disk.delete(i, records[i].longitude, records[i].latitude));
+			}
+			assertTrue(!disk.delete(0, records[0].longitude, records[0].latitude));
+			disk.close();
+			assertTrue(cache.writes() > 0);
+			
+			paged = PagedRTree.open(file);
+			assertEquals(MAX_FAKE_ENTRIES / 2, paged.size());
+			final Set<Long> left = new HashSet<Long>();
+			paged.searchWindow(-180, -90, 180, 90, new PayloadVisitor() {
+				public boolean visit(long id) {
+					left.add(id);
+					return true;
+				}
+			});
+			assertEquals(MAX_FAKE_ENTRIES / 2, left.size());
+			for(Long id : left) {
+				assertTrue(id % 2 == 1);
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void testParallelSearches() throws Exception {
+		
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		int i;
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			Record r = new Record(i, rnd.nextDouble() * 360 - 180, rnd.nextDouble() * 180 - 90);
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		
+		Path file = Files.createTempFile("rtree", ".pages");
+		try {
+			PagedRTree.write(tree, new IdExtractor<Record>() {
+				public long id(Record record) {
+					return record.id;
+				}
+			}, file);
+			final PagedRTree paged = PagedRTree.open(file);
+			// the resident root and a single path below it: the threads wait for each other
+			final DiskRTree disk = DiskRTree.open(file, paged.height() + 1, 1);
+			
+			ExecutorService executor = Executors.newFixedThreadPool(4);
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			int t;
+			for(t = 0; t < 4; t++) {
+				final Random random = new Random(t);
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						int j;
+						for(j = 0; j < 200; j++) {
+							double lon = random.nextDouble() * 340 - 170;
+							double lat = random.nextDouble() * 160 - 80;
+							assertEquals(window(paged, lon, lat), window(disk, lon, lat));
+						}
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> f : futures) {
+				f.get();
+			}
+			executor.shutdown();
+			disk.close();
+			
+			// a cache without room for a path is refused
+			try {
+				DiskRTree.open(file, paged.height(), 1);
+				fail("cache too small accepted");
+			} catch(IllegalArgumentException e) {
+				// expected
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	private static Set<Long> window(PagedRTree tree, double lon, double lat) {
+		final Set<Long> found = new HashSet<Long>();
+		tree.searchWindow(lon, lat, lon + 10, lat + 10, new PayloadVisitor() {
+			public boolean visit(long id) {
+				found.add(id);
+				return true;
+			}
+		});
+		return found;
+	}
+	
+	private static Set<Long> window(DiskRTree tree, double lon, double lat) throws IOException {
+		final Set<Long> found = new HashSet<Long>();
+		tree.searchWindow(lon, lat, lon + 10, lat + 10, new PayloadVisitor() {
+			public boolean visit(long id) {
+				found.add(id);
+				return true;
+			}
+		});
+		return found;
+	}
+}
@@ -0,0 +1,175 @@
+package io.idx.rtree;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+
+public class DurableRTreeTest {
+	
+	private final static int MAX_NODE_SIZE = 16;
+	
+	private final static int MAX_FAKE_ENTRIES = 20000;
+	
+	private final static int WRITERS = 8;
+	
+	// the records are the integers, placed on a grid
+	private final static PayloadCodec<Integer> codec = new PayloadCodec<Integer>() {
+		public void write(DataOutput out, Integer record) throws IOException {
+			out.writeInt(record);
+		}
+		public Integer read(DataInput in) throws IOException {
+			return in.readInt();
+		}
+	};
+	
+	@Test
+	public void testRecovery() throws Exception {
+		
+		Path directory = Files.createTempDirectory("durable");
+		try {
+			final DurableRTree<Integer> tree = DurableRTree.open(directory, MAX_NODE_SIZE, codec);
+			
+			// the writers share the fsyncs of the log
+			ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			int w;
+			for(w = 0; w < WRITERS; w++) {
+				final int writer = w;
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						int i;
+						for(i = writer; i < MAX_FAKE_ENTRIES; i += WRITERS) {
+							tree.addIndex(i, longitude(i), latitude(i));
+						}
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> f : futures) {
+				f.get();
+			}
+			executor.shutdown();
+			// every add is an entry of the log, and the concurrent ones shared a force
+			assertTrue(tree.log().forces() < MAX_FAKE_ENTRIES);
+			
+			int i;
+			for(i = 0; i < MAX_FAKE_ENTRIES; i += 3) {
+				assertTrue(tree.delete(i, longitude(i), latitude(i)));
+			}
+			tree.close();
+			
+			// the log alone rebuilds the tree
+			DurableRTree<Integer> recovered = DurableRTree.open(directory, MAX_NODE_SIZE, codec);
+			check(recovered.tree(), MAX_FAKE_ENTRIES);
+			
+			// after a checkpoint the snapshot and the new log rebuild it
+			recovered.checkpoint();
+			for(i = MAX_FAKE_ENTRIES; i < MAX_FAKE_ENTRIES + 100; i++) {
+				recovered.addIndex(i, longitude(i), latitude(i));
+			}
+			recovered.close();
+			
+			// a torn entry at the end of the log is ignored
+			Path log = directory.resolve("log-1");
+			Files.write(log, new byte[] {0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+			
+			recovered = DurableRTree.open(directory, MAX_NODE_SIZE, codec);
+			check(recovered.tree(), MAX_FAKE_ENTRIES + 100);
+			assertTrue(!Files.exists(directory.resolve("log-0")));
+			
+			// and it is cut, so the next entries are found
+			recovered.addIndex(-1, 1, 1);
+			recovered.close();
+			recovered = DurableRTree.open(directory, MAX_NODE_SIZE, codec);
+			assertTrue(recovered.tree().search(1, 1).contains(-1));
+			recovered.close();
+		} finally {
+			DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+			for(Path file : files) {
+				Files.delete(file);
+			}
+			files.close();
+			Files.delete(directory);
+		}
+	}
+	
+	@Test
+	public void testLogOrder() throws Exception {
+		
+		Path directory = Files.createTempDirectory("durable");
+		try {
+			final DurableRTree<Integer> tree = DurableRTree.open(directory, MAX_NODE_SIZE, codec);
+			
+			// the writers delete and add the same record, which is often missing when it is deleted:
+			// the tree must end as the replay of the log
+			ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			int w;
+			for(w = 0; w < WRITERS; w++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						int i;
+						for(i = 0; i < 2000; i++) {
+							tree.delete(0, longitude(0), latitude(0));
+							tree.addIndex(0, longitude(0), latitude(0));
+						}
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> f : futures) {
+				f.get();
+			}
+			executor.shutdown();
+			List<Integer> live = tree.tree().searchWindow(-180, -90, 180, 90);
+			tree.close();
+			
+			DurableRTree<Integer> recovered = DurableRTree.open(directory, MAX_NODE_SIZE, codec);
+			List<Integer> replayed = recovered.tree().searchWindow(-180, -90, 180, 90);
+			recovered.close();
+			Collections.sort(live);
+			Collections.sort(replayed);
+			assertEquals(live, replayed);
+		} finally {
+			DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+			for(Path file : files) {
+				Files.delete(file);
+			}
+			files.close();
+			Files.delete(directory);
+		}
+	}
+	
+	private static void check(RTree<Integer> tree, int count) {
+		int i;
+		for(i = 0; i < count; i++) {
+			boolean deleted = i < MAX_FAKE_ENTRIES && i % 3 == 0;
+			assertEquals(!deleted, tree.search(longitude(i), latitude(i)).contains(i));
+		}
+		assertEquals(count - (MAX_FAKE_ENTRIES + 2) / 3, tree.searchWindow(-180, -90, 180, 90).size());
+	}
+	
+	private static double longitude(int i) {
+		return (i % 300) - 150;
+	}
+	
+	private static double latitude(int i) {
+		return (i / 300) * 0.5 - 80;
+	}
+}
@@ -0,0 +1,63 @@
+package io.idx.rtree;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.idx.SpatialIndexContract;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class HilbertRTreeTest {
+	
+	private final static int MAX_NODE_SIZE = 50;
+	
+	private final static int MAX_FAKE_ENTRIES = 50000;
+	
+	private static Random rnd = new Random();
+	
+	@Test
+	public void testHilbertCurve() {
+		
+		// the cells of an aligned 4x4 block are 16 consecutive steps of the curve
+		// and every step moves to a neighbour cell
+		long[] cells = new long[16];
+		int[] xs = new int[16];
+		int[] ys = new int[16];
+		long min = Long.MAX_VALUE;
+		int x, y;
+		for(x = 0; x < 4; x++) {
+			for(y = 0; y < 4; y++) {
+				min = Math.min(min, HilbertCurve.index(x, y));
+			}
+		}
+		for(x = 0; x < 4; x++) {
+			for(y = 0; y < 4; y++) {
+				int step = (int)(HilbertCurve.index(x, y) - min);
+				assertTrue(step < 16 && cells[step] == 0);
+				cells[step] = 1;
+				xs[step] = x;
+				ys[step] = y;
+			}
+		}
+		int i;
+		for(i = 1; i < 16; i++) {
+			assertEquals(1, Math.abs(xs[i] - xs[i - 1]) + Math.abs(ys[i] - ys[i - 1]));
+		}
+	}
+	
+	@Test
+	public void testAgainstRTree() {
+		
+		HilbertRTree<Integer> tree = new HilbertRTree<Integer>(MAX_NODE_SIZE);
+		double[] longitudes = new double[MAX_FAKE_ENTRIES];
+		double[] latitudes = new double[MAX_FAKE_ENTRIES];
+		int i;
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			longitudes[i] = rnd.nextDouble() * 360 - 180;
+			latitudes[i] = rnd.nextDouble() * 180 - 90;
+		}
+		SpatialIndexContract.check(tree, longitudes, latitudes, 30);
+	}
+}
@@ -0,0 +1,47 @@
+package io.idx.rtree;
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class LongIntMapTest {
+	
+	private final static int CAPACITY = 1000;
+	
+	@Test
+	public void testSameAsHashMap() {
+		LongIntMap map = new LongIntMap(CAPACITY);
+		Map<Long, Integer> expected = new HashMap<Long, Integer>();
+		Random rnd = new Random(1);
+		int i;
+		for(i = 0; i < 200000; i++) {
+			// few distinct keys, so the runs of the table fill and empty all the time
+			long key = rnd.nextInt(3 * CAPACITY);
+			if(expected.size() < CAPACITY && rnd.nextBoolean()) {
+				map.put(key, i);
+				expected.put(key, i);
+			} else {
+				map.remove(key);
+				expected.remove(key);
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		long key;
+		for(key = 0; key < 3 * CAPACITY; key++) {
+			Integer value = expected.get(key);
+			assertEquals(value == null ? -1 : value.intValue(), map.get(key));
+		}
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testFull() {
+		LongIntMap map = new LongIntMap(2);
+		map.put(1, 1);
+		map.put(2, 2);
+		map.put(3, 3);
+	}
+}
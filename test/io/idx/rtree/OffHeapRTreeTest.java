@@ -0,0 +1,66 @@
+package io.idx.rtree;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.idx.RecordVisitor;
+import io.idx.SpatialIndexContract;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class OffHeapRTreeTest {
+	
+	private final static int MAX_NODE_SIZE = 16;
+	
+	private final static int MAX_FAKE_ENTRIES = 50000;
+	
+	private static Random rnd = new Random();
+	
+	@Test
+	public void testInsertSearchDelete() {
+		
+		OffHeapRTree<Integer> tree = new OffHeapRTree<Integer>(MAX_NODE_SIZE);
+		double[] longitudes = new double[MAX_FAKE_ENTRIES];
+		double[] latitudes = new double[MAX_FAKE_ENTRIES];
+		int i;
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			longitudes[i] = rnd.nextDouble() * 360 - 180;
+			latitudes[i] = rnd.nextDouble() * 180 - 90;
+		}
+		RTree<Integer> reference = SpatialIndexContract.check(tree, longitudes, latitudes, 10);
+		assertEquals(MAX_FAKE_ENTRIES / 2, tree.size());
+		
+		for(i = 0; i < 100; i++) {
+			double lon = rnd.nextDouble() * 340 - 170;
+			double lat = rnd.nextDouble() * 160 - 80;
+			final List<Integer> near = new ArrayList<Integer>();
+			tree.withinDistance(lon, lat, 300000, new RecordVisitor<Integer>() {
+				public boolean visit(Integer record) {
+					near.add(record);
+					return true;
+				}
+			});
+			final List<Integer> expected = new ArrayList<Integer>();
+			reference.withinDistance(lon, lat, 300000, new RecordVisitor<Integer>() {
+				public boolean visit(Integer record) {
+					expected.add(record);
+					return true;
+				}
+			});
+			assertEquals(new HashSet<Integer>(expected), new HashSet<Integer>(near));
+		}
+		
+		// the slots of the deleted records and nodes are reused
+		for(i = 0; i < MAX_FAKE_ENTRIES; i += 2) {
+			tree.addIndex(i, longitudes[i], latitudes[i]);
+		}
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			assertTrue(tree.search(longitudes[i], latitudes[i]).contains(i));
+		}
+	}
+}
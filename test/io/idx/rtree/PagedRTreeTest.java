@@ -0,0 +1,176 @@
+package io.idx.rtree;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.idx.RecordVisitor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+
+public class PagedRTreeTest {
+	
+	private final static int MAX_NODE_SIZE = 16;
+	
+	private final static int MAX_FAKE_ENTRIES = 50000;
+	
+	private static Random rnd = new Random();
+	
+	@Test
+	public void testWriteAndSearch() throws IOException {
+		
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		List<Record> records = new ArrayList<Record>();
+		int i;
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			Record r = new Record(i, rnd.nextDouble() * 360 - 180, rnd.nextDouble() * 180 - 90);
+			records.add(r);
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		
+		Path file = Files.createTempFile("rtree", ".pages");
+		try {
+			PagedRTree.write(tree, new IdExtractor<Record>() {
+				public long id(Record record) {
+					return record.id;
+				}
+			}, file);
+			PagedRTree paged = PagedRTree.open(file);
+			assertEquals(MAX_FAKE_ENTRIES, paged.size());
+			
+			for(i = 0; i < 100; i++) {
+				double lon = rnd.nextDouble() * 340 - 170;
+				double lat = rnd.nextDouble() * 160 - 80;
+				
+				Set<Long> expected = new HashSet<Long>();
+				for(Record r : tree.searchWindow(lon, lat, lon + 10, lat + 10)) {
+					expected.add((long)r.id);
+				}
+				final Set<Long> found = new HashSet<Long>();
+				PayloadVisitor collector = new PayloadVisitor() {
+					public boolean visit(long id) {
+						found.add(id);
+						return true;
+					}
+				};
+				assertTrue(paged.searchWindow(lon, lat, lon + 10, lat + 10, collector));
+				assertEquals(expected, found);
+				
+				final Set<Long> near = new HashSet<Long>();
+				tree.withinDistance(lon, lat, 500000, new RecordVisitor<Record>() {
+					public boolean visit(Record record) {
+						near.add((long)record.id);
+						return true;
+					}
+				});
+				found.clear();
+				paged.withinDistance(lon, lat, 500000, collector);
+				assertEquals(near, found);
+				
+				List<Record> nearest = tree.nearest(lon, lat, 5);
+				long[] ids = paged.nearest(lon, lat, 5);
+				assertEquals(nearest.size(), ids.length);
+				int j;
+				for(j = 0; j < ids.length; j++) {
+					Record r = records.get((int)ids[j]);
+					Record e = nearest.get(j);
+					// records at the same distance can come in any order
+					assertEquals(distance(e, lon, lat), distance(r, lon, lat), 1e-9);
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test(expected = IOException.class)
+	public void testOpenInvalidFile() throws IOException {
+		Path file = Files.createTempFile("rtree", ".pages");
+		try {
+			Files.write(file, new byte[8192]);
+			PagedRTree.open(file);
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test(expected = IOException.class)
+	public void testOpenWrongRootLevel() throws IOException {
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		int i;
+		for(i = 0; i < 1000; i++) {
+			tree.addIndex(new Record(i, rnd.nextDouble() * 360 - 180, rnd.nextDouble() * 180 - 90), 0, 0);
+		}
+		Path file = Files.createTempFile("rtree", ".pages");
+		try {
+			PagedRTree.write(tree, new IdExtractor<Record>() {
+				public long id(Record record) {
+					return record.id;
+				}
+			}, file);
+			// the header says the root is one level higher than it is
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+			try {
+				ByteBuffer height = ByteBuffer.allocate(4).order(PagedRTree.ORDER);
+				height.putInt(0, tree.root().level + 1);
+				channel.write(height, PagedRTree.HEADER_HEIGHT);
+			} finally {
+				channel.close();
+			}
+			PagedRTree.open(file);
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test(expected = IOException.class)
+	public void testOpenOverflowingPageCount() throws IOException {
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		int i;
+		for(i = 0; i < 1000; i++) {
+			Record r = new Record(i, rnd.nextDouble() * 360 - 180, rnd.nextDouble() * 180 - 90);
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		Path file = Files.createTempFile("rtree", ".pages");
+		try {
+			PagedRTree.write(tree, new IdExtractor<Record>() {
+				public long id(Record record) {
+					return record.id;
+				}
+			}, file);
+			// a page count whose byte length wraps around to the real one
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				ByteBuffer header = ByteBuffer.allocate(PagedRTree.HEADER_SIZE).order(PagedRTree.ORDER);
+				channel.read(header, 0);
+				int pageSize = header.getInt(PagedRTree.HEADER_PAGE_SIZE);
+				ByteBuffer pages = ByteBuffer.allocate(8).order(PagedRTree.ORDER);
+				pages.putLong(0, header.getLong(PagedRTree.HEADER_PAGES)
+						+ (1L << (64 - Integer.numberOfTrailingZeros(pageSize))));
+				channel.write(pages, PagedRTree.HEADER_PAGES);
+			} finally {
+				channel.close();
+			}
+			PagedRTree.open(file);
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	private static double distance(Record r, double lon, double lat) {
+		double dx = (RTree.increaseUnit(r.longitude) - RTree.increaseUnit(lon)) * Math.cos(Math.toRadians(lat));
+		double dy = RTree.increaseUnit(r.latitude) - RTree.increaseUnit(lat);
+		return dx * dx + dy * dy;
+	}
+}
@@ -0,0 +1,67 @@
+package io.idx.rtree;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.idx.SpatialIndexContract;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class PersistentRTreeTest {
+	
+	private final static int MAX_NODE_SIZE = 8;
+	
+	private final static int MAX_FAKE_ENTRIES = 20000;
+	
+	private static Random rnd = new Random();
+	
+	@Test
+	public void testAgainstRTree() {
+		
+		PersistentRTree<Integer> tree = new PersistentRTree<Integer>(MAX_NODE_SIZE);
+		double[] longitudes = new double[MAX_FAKE_ENTRIES];
+		double[] latitudes = new double[MAX_FAKE_ENTRIES];
+		int i;
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			longitudes[i] = rnd.nextDouble() * 360 - 180;
+			latitudes[i] = rnd.nextDouble() * 180 - 90;
+		}
+		SpatialIndexContract.check(tree, longitudes, latitudes, 10);
+	}
+	
+	@Test
+	public void testSnapshot() {
+		
+		PersistentRTree<Record> tree = new PersistentRTree<Record>(MAX_NODE_SIZE);
+		List<Record> records = new ArrayList<Record>();
+		int i;
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			Record r = new Record(i, rnd.nextDouble() * 360 - 180, rnd.nextDouble() * 180 - 90);
+			records.add(r);
+			if(i < MAX_FAKE_ENTRIES / 2) {
+				tree.addIndex(r, r.longitude, r.latitude);
+			}
+		}
+		
+		// the snapshot keeps the first half of the records, whatever happens to the tree later
+		PersistentRTree.Snapshot<Record> snapshot = tree.snapshot();
+		for(i = MAX_FAKE_ENTRIES / 2; i < MAX_FAKE_ENTRIES; i++) {
+			Record r = records.get(i);
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		for(i = 0; i < MAX_FAKE_ENTRIES / 2; i++) {
+			Record r = records.get(i);
+			assertTrue(tree.delete(r, r.longitude, r.latitude));
+		}
+		
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			Record r = records.get(i);
+			assertEquals(i < MAX_FAKE_ENTRIES / 2, snapshot.search(r.longitude, r.latitude).contains(r));
+			assertEquals(i >= MAX_FAKE_ENTRIES / 2, tree.search(r.longitude, r.latitude).contains(r));
+		}
+	}
+}
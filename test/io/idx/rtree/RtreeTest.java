@@ -1,10 +1,31 @@
 package io.idx.rtree;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.idx.RecordVisitor;
 import io.idx.rtree.RTree;
 import io.idx.rtree.Record;
 
+import java.awt.Point;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -71,6 +92,7 @@ public class RtreeTest {
 		System.out.println("-----------");
 		System.out.println("Search finished in: " + (end -start));
 		
+		assertTrue(result.contains(r));
 		
 		
 		
@@ -139,6 +161,600 @@ public class RtreeTest {
 		//fail("Not yet implemented");
 	}
 	
+	@Test
+	public void testHemispheres() {
+		
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		
+		// the same coordinates in the 4 hemispheres must not be confused
+		Record ne = new Record(1, 14.42076, 50.08804);
+		Record nw = new Record(2, -14.42076, 50.08804);
+		Record se = new Record(3, 14.42076, -50.08804);
+		Record sw = new Record(4, -14.42076, -50.08804);
+		
+		for(Record r : new Record[] {ne, nw, se, sw}) {
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		
+		// enough records around them to split the root a few times
+		int i;
+		for(i = 0; i < MAX_NODE_SIZE * MAX_NODE_SIZE; i++) {
+			Record r = new Record(100 + i, generateCoordinate() - 45, generateCoordinate() - 45);
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		
+		for(Record r : new Record[] {ne, nw, se, sw}) {
+			List<Record> result = tree.search(r.longitude, r.latitude);
+			assertEquals(1, result.size());
+			assertEquals(r, result.get(0));
+		}
+	}
+	
+	@Test
+	public void testSearchWindow() {
+		
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		List<Record> records = new ArrayList<Record>();
+		int i;
+		for(i = 0; i < 20000; i++) {
+			Record r = new Record(i, generateCoordinate(), generateCoordinate());
+			records.add(r);
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		
+		final Set<Record> found = new HashSet<Record>();
+		RecordVisitor<Record> visitor = new RecordVisitor<Record>() {
+			@Override
+			public boolean visit(Record record) {
+				found.add(record);
+				return true;
+			}
+		};
+		
+		for(i = 0; i < 100; i++) {
+			double minLongitude = generateCoordinate();
+			double minLatitude = generateCoordinate();
+			double maxLongitude = minLongitude + rnd.nextDouble() * 10;
+			double maxLatitude = minLatitude + rnd.nextDouble() * 10;
+			
+			found.clear();
+			tree.searchWindow(minLongitude, minLatitude, maxLongitude, maxLatitude, visitor);
+			
+			// compare with a linear scan, using the same fixed point units of the tree
+			Set<Record> expected = new HashSet<Record>();
+			for(Record r : records) {
+				if(RTree.increaseUnit(minLongitude) <= RTree.increaseUnit(r.longitude)
+						&& RTree.increaseUnit(r.longitude) <= RTree.increaseUnit(maxLongitude)
+						&& RTree.increaseUnit(minLatitude) <= RTree.increaseUnit(r.latitude)
+						&& RTree.increaseUnit(r.latitude) <= RTree.increaseUnit(maxLatitude)) {
+					expected.add(r);
+				}
+			}
+			assertEquals(expected, found);
+		}
+	}
+	
+	@Test
+	public void testParallelSearchWindow() {
+		
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		int i;
+		for(i = 0; i < 50000; i++) {
+			Record r = new Record(i, generateCoordinate(), generateCoordinate());
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		
+		final List<Record> found = new ArrayList<Record>();
+		RecordVisitor<Record> visitor = new RecordVisitor<Record>() {
+			@Override
+			public boolean visit(Record record) {
+				found.add(record);
+				return true;
+			}
+		};
+		
+		// from small windows to the whole world, the forked tasks must not lose or repeat records
+		for(i = 0; i < 50; i++) {
+			double size = i < 49 ? rnd.nextDouble() * 90 : 360;
+			double minLongitude = generateCoordinate();
+			double minLatitude = generateCoordinate();
+			
+			found.clear();
+			tree.searchWindow(minLongitude, minLatitude, minLongitude + size, minLatitude + size, visitor);
+			List<Record> parallel = tree.searchWindow(minLongitude, minLatitude, minLongitude + size, minLatitude + size);
+			
+			assertEquals(found.size(), parallel.size());
+			assertEquals(new HashSet<Record>(found), new HashSet<Record>(parallel));
+		}
+	}
+	
+	@Test
+	public void testNearest() {
+		
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		List<Record> records = new ArrayList<Record>();
+		int i;
+		for(i = 0; i < 20000; i++) {
+			Record r = new Record(i, generateCoordinate(), generateCoordinate());
+			records.add(r);
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		
+		int k = 10;
+		for(i = 0; i < 100; i++) {
+			double longitude = generateCoordinate();
+			double latitude = generateCoordinate();
+			
+			List<Record> result = tree.nearest(longitude, latitude, k);
+			assertEquals(k, result.size());
+			
+			// the distances must be the k smallest ones, in ascending order
+			List<Double> expected = new ArrayList<Double>();
+			for(Record r : records) {
+				expected.add(distance(longitude, latitude, r));
+			}
+			Collections.sort(expected);
+			
+			int j;
+			for(j = 0; j < k; j++) {
+				assertEquals(expected.get(j), distance(longitude, latitude, result.get(j)), 0);
+			}
+		}
+		
+		assertTrue(tree.nearest(0, 0, 0).isEmpty());
+		assertEquals(records.size(), tree.nearest(0, 0, records.size() + 1).size());
+	}
+	
+	@Test
+	public void testWithinDistance() {
+		
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		List<Record> records = new ArrayList<Record>();
+		int i;
+		for(i = 0; i < 20000; i++) {
+			Record r = new Record(i, generateCoordinate(), generateCoordinate());
+			records.add(r);
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		
+		final Set<Record> found = new HashSet<Record>();
+		RecordVisitor<Record> visitor = new RecordVisitor<Record>() {
+			@Override
+			public boolean visit(Record record) {
+				found.add(record);
+				return true;
+			}
+		};
+		
+		for(i = 0; i < 100; i++) {
+			double longitude = generateCoordinate();
+			double latitude = generateCoordinate();
+			double meters = rnd.nextDouble() * 500000;
+			
+			found.clear();
+			tree.withinDistance(longitude, latitude, meters, visitor);
+			
+			Set<Record> expected = new HashSet<Record>();
+			for(Record r : records) {
+				double recordLatitude = RTree.increaseUnit(r.latitude) / GeoDistance.UNITS_PER_DEGREE;
+				double recordLongitude = RTree.increaseUnit(r.longitude) / GeoDistance.UNITS_PER_DEGREE;
+				if(GeoDistance.haversine(latitude, longitude, recordLatitude, recordLongitude) <= meters) {
+					expected.add(r);
+				}
+			}
+			assertEquals(expected, found);
+		}
+	}
+	
+	@Test
+	public void testDelete() {
+		
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		List<Record> records = new ArrayList<Record>();
+		int i;
+		for(i = 0; i < 20000; i++) {
+			Record r = new Record(i, generateCoordinate(), generateCoordinate());
+			records.add(r);
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		
+		// delete every other record, each one only once
+		for(i = 0; i < records.size(); i += 2) {
+			Record r = records.get(i);
+			assertTrue(tree.delete(r, r.longitude, r.latitude));
+			assertTrue(!tree.delete(r, r.longitude, r.latitude));
+		}
+		
+		for(i = 0; i < records.size(); i++) {
+			Record r = records.get(i);
+			assertEquals(i % 2 == 1, tree.search(r.longitude, r.latitude).contains(r));
+		}
+		
+		// empty the tree and use it again
+		for(i = 1; i < records.size(); i += 2) {
+			Record r = records.get(i);
+			assertTrue(tree.delete(r, r.longitude, r.latitude));
+		}
+		assertTrue(tree.nearest(0, 0, 1).isEmpty());
+		
+		Record r = records.get(0);
+		tree.addIndex(r, r.longitude, r.latitude);
+		assertEquals(r, tree.nearest(0, 0, 1).get(0));
+	}
+	
+	@Test
+	public void testUpdate() {
+		this.checkUpdate(false);
+	}
+	
+	@Test
+	public void testUpdateTrackingLeaves() {
+		this.checkUpdate(true);
+	}
+	
+	private void checkUpdate(boolean trackLeaves) {
+		
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		tree.setLeafTracking(trackLeaves);
+		List<Record> records = new ArrayList<Record>();
+		int i;
+		for(i = 0; i < 20000; i++) {
+			Record r = new Record(i, generateCoordinate(), generateCoordinate());
+			records.add(r);
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		
+		// mostly small moves, which stay in the same leaf, and some long ones
+		for(i = 0; i < 100000; i++) {
+			Record r = records.get(rnd.nextInt(records.size()));
+			double step = i % 10 == 0 ? 10 : 0.001;
+			double longitude = r.longitude + (rnd.nextDouble() - 0.5) * step;
+			double latitude = r.latitude + (rnd.nextDouble() - 0.5) * step;
+			
+			assertTrue(tree.update(r, r.longitude, r.latitude, longitude, latitude));
+			r.longitude = longitude;
+			r.latitude = latitude;
+		}
+		
+		for(Record r : records) {
+			assertTrue(tree.search(r.longitude, r.latitude).contains(r));
+		}
+		assertTrue(!tree.update(new Record(-1), 0, 0, 1, 1));
+		
+		// deletes and inserts split and condense the leaves the tree remembers for the records
+		for(i = 0; i < records.size(); i += 4) {
+			Record r = records.get(i);
+			assertTrue(tree.delete(r, r.longitude, r.latitude));
+			assertTrue(!tree.update(r, r.longitude, r.latitude, 0, 0));
+			r.longitude = generateCoordinate();
+			r.latitude = generateCoordinate();
+			if(i % 8 == 0) {
+				tree.addIndex(r, r.longitude, r.latitude);
+			}
+		}
+		for(i = 0; i < 100000; i++) {
+			Record r = records.get(rnd.nextInt(records.size()));
+			double longitude = r.longitude + (rnd.nextDouble() - 0.5) * (i % 10 == 0 ? 10 : 0.001);
+			double latitude = r.latitude + (rnd.nextDouble() - 0.5) * (i % 10 == 0 ? 10 : 0.001);
+			boolean indexed = r.id % 4 != 0 || r.id % 8 == 0;
+			assertEquals(indexed, tree.update(r, r.longitude, r.latitude, longitude, latitude));
+			if(indexed) {
+				r.longitude = longitude;
+				r.latitude = latitude;
+			}
+		}
+		for(Record r : records) {
+			boolean indexed = r.id % 4 != 0 || r.id % 8 == 0;
+			assertEquals(indexed, tree.search(r.longitude, r.latitude).contains(r));
+		}
+	}
+	
+	@Test
+	public void testRStarSplit() {
+		
+		// a small fanout, so the tree gets several levels and reinserts internal nodes too
+		RTree<Record> tree = new RTree<Record>(8, new RStarSplit());
+		List<Record> records = new ArrayList<Record>();
+		int i;
+		for(i = 0; i < 20000; i++) {
+			Record r = new Record(i, generateCoordinate(), generateCoordinate());
+			records.add(r);
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		
+		for(Record r : records) {
+			assertTrue(tree.search(r.longitude, r.latitude).contains(r));
+		}
+		
+		// the condensed tree reinserts through the same strategy
+		for(i = 0; i < records.size(); i += 2) {
+			Record r = records.get(i);
+			assertTrue(tree.delete(r, r.longitude, r.latitude));
+		}
+		for(i = 0; i < records.size(); i++) {
+			Record r = records.get(i);
+			assertEquals(i % 2 == 1, tree.search(r.longitude, r.latitude).contains(r));
+		}
+	}
+	
+	@Test
+	public void testConcurrentInsert() throws Exception {
+		
+		// a small fanout, so the splits go up to the root while the other threads insert and search
+		final RTree<Record> tree = new RTree<Record>(8, null, true);
+		List<Record> records = new ArrayList<Record>();
+		int i;
+		for(i = 0; i < 40000; i++) {
+			records.add(new Record(i, generateCoordinate(), generateCoordinate()));
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		// the failures of the tasks come back from their futures
+		List<Future<?>> tasks = new ArrayList<Future<?>>();
+		for(i = 0; i < records.size(); i++) {
+			final Record r = records.get(i);
+			tasks.add(executor.submit(new InsertSolver<Record>(new IndexRecord<Record>(new Point(RTree.increaseUnit(r.longitude), RTree.increaseUnit(r.latitude)), r), tree)));
+			if(i % 10 == 0) {
+				tasks.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						tree.searchWindow(r.longitude - 1, r.latitude - 1, r.longitude + 1, r.latitude + 1);
+						tree.nearest(r.longitude, r.latitude, 5);
+					}
+				}));
+			}
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+		for(Future<?> task : tasks) {
+			task.get();
+		}
+		
+		for(Record r : records) {
+			assertTrue(tree.search(r.longitude, r.latitude).contains(r));
+		}
+		assertEquals(records.size(), tree.searchWindow(-180, -90, 180, 90).size());
+	}
+	
+	@Test
+	public void testAddAll() {
+		
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		List<Record> records = new ArrayList<Record>();
+		int i;
+		for(i = 0; i < 20000; i++) {
+			Record r = new Record(i, generateCoordinate(), generateCoordinate());
+			records.add(r);
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		
+		// the batch is grafted in the populated tree
+		List<Record> batch = new ArrayList<Record>();
+		for(i = 0; i < 100000; i++) {
+			Record r = new Record(records.size(), generateCoordinate(), generateCoordinate());
+			records.add(r);
+			batch.add(r);
+		}
+		tree.addAll(batch, new CoordinateExtractor<Record>() {
+			@Override
+			public double longitude(Record record) {
+				return record.longitude;
+			}
+			
+			@Override
+			public double latitude(Record record) {
+				return record.latitude;
+			}
+		});
+		
+		for(Record r : records) {
+			assertTrue(tree.search(r.longitude, r.latitude).contains(r));
+		}
+		assertEquals(records.size(), tree.searchWindow(-180, -90, 180, 90).size());
+		
+		for(i = 0; i < records.size(); i += 2) {
+			Record r = records.get(i);
+			assertTrue(tree.delete(r, r.longitude, r.latitude));
+		}
+		assertEquals(records.size() / 2, tree.searchWindow(-180, -90, 180, 90).size());
+	}
+	
+	@Test
+	public void testBulkLoad() {
+		
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		List<Record> records = new ArrayList<Record>();
+		List<IndexRecord<Record>> indexRecords = new ArrayList<IndexRecord<Record>>();
+		int i;
+		for(i = 0; i < 20000; i++) {
+			Record r = new Record(i, generateCoordinate(), generateCoordinate());
+			records.add(r);
+			indexRecords.add(new IndexRecord<Record>(new Point(RTree.increaseUnit(r.longitude), RTree.increaseUnit(r.latitude)), r));
+		}
+		tree.bulkLoad(indexRecords);
+		
+		for(Record r : records) {
+			assertTrue(tree.search(r.longitude, r.latitude).contains(r));
+		}
+		
+		// the packed tree keeps working with the normal insert and delete
+		for(i = 0; i < records.size(); i += 2) {
+			Record r = records.get(i);
+			assertTrue(tree.delete(r, r.longitude, r.latitude));
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		for(i = 0; i < records.size(); i += 2) {
+			Record r = records.get(i);
+			assertTrue(tree.search(r.longitude, r.latitude).contains(r));
+		}
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testBulkLoadNotEmpty() {
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		tree.addIndex(new Record(1), 1, 1);
+		tree.bulkLoad(new ArrayList<IndexRecord<Record>>());
+	}
+	
+	@Test
+	public void testWriteReadImage() throws IOException {
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		List<Record> records = fakeData.subList(0, 200000);
+		for(Record r : records) {
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		
+		PayloadCodec<Record> codec = new PayloadCodec<Record>() {
+			public void write(DataOutput out, Record record) throws IOException {
+				out.writeInt(record.id);
+				out.writeDouble(record.longitude);
+				out.writeDouble(record.latitude);
+			}
+			public Record read(DataInput in) throws IOException {
+				return new Record(in.readInt(), in.readDouble(), in.readDouble());
+			}
+		};
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long start = System.currentTimeMillis();
+		tree.writeTo(out, codec);
+		long written = System.currentTimeMillis();
+		RTree<Record> loaded = RTree.readFrom(new ByteArrayInputStream(out.toByteArray()), codec);
+		long end = System.currentTimeMillis();
+		System.out.println("Image of " + out.size() + " bytes written in: " + (written - start) + " read in: " + (end - written));
+		
+		Set<Integer> ids = new HashSet<Integer>();
+		for(Record r : loaded.searchWindow(-180, -90, 180, 90)) {
+			ids.add(r.id);
+		}
+		assertEquals(records.size(), ids.size());
+		int i;
+		for(i = 0; i < 1000; i++) {
+			Record r = records.get(rnd.nextInt(records.size()));
+			assertTrue(loaded.search(r.longitude, r.latitude).size() > 0);
+			assertEquals(tree.search(r.longitude, r.latitude).size(), loaded.search(r.longitude, r.latitude).size());
+		}
+		
+		// the loaded tree keeps working with the normal insert and delete
+		Record r = records.get(0);
+		assertTrue(loaded.delete(loaded.search(r.longitude, r.latitude).get(0), r.longitude, r.latitude));
+		loaded.addIndex(r, r.longitude, r.latitude);
+		assertTrue(loaded.search(r.longitude, r.latitude).contains(r));
+	}
+	
+	@Test
+	public void testSearchWhileWriting() throws Exception {
+		final RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE, null, true);
+		final Record first = fakeData.get(0);
+		for(Record r : fakeData.subList(0, 10000)) {
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		
+		// the codec runs a search in another thread in the middle of the image
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			tree.writeTo(out, new PayloadCodec<Record>() {
+				public void write(DataOutput out, Record record) throws IOException {
+					if(record == first) {
+						Future<List<Record>> found = executor.submit(new Callable<List<Record>>() {
+							public List<Record> call() {
+								return tree.search(first.longitude, first.latitude);
+							}
+						});
+						try {
+							assertTrue(found.get(10, TimeUnit.SECONDS).contains(first));
+						} catch(Exception e) {
+							throw new IOException("the search waited for the image", e);
+						}
+					}
+					out.writeInt(record.id);
+				}
+				public Record read(DataInput in) throws IOException {
+					return null;
+				}
+			});
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue(out.size() > 10000 * 4);
+	}
+	
+	@Test(expected = IOException.class)
+	public void testReadInvalidImage() throws IOException {
+		RTree.readFrom(new ByteArrayInputStream(new byte[64]), new PayloadCodec<Record>() {
+			public void write(DataOutput out, Record record) throws IOException {
+			}
+			public Record read(DataInput in) throws IOException {
+				return null;
+			}
+		});
+	}
+	
+	@Test
+	public void testStats() throws Exception {
+		RTree<Record> tree = new RTree<Record>(MAX_NODE_SIZE);
+		RTreeStats stats = tree.stats();
+		List<Record> records = fakeData.subList(0, 100000);
+		for(Record r : records) {
+			tree.addIndex(r, r.longitude, r.latitude);
+		}
+		assertTrue(tree.delete(records.get(0), records.get(0).longitude, records.get(0).latitude));
+		
+		assertEquals(records.size(), stats.getInserts());
+		assertEquals(1, stats.getDeletes());
+		assertTrue(stats.getSplits()[0] > 0);
+		assertTrue(stats.getPropagations() > 0);
+		
+		// the tree is not concurrent, its structure is measured only when its owner asks
+		assertEquals(0, stats.getHeight());
+		stats.refresh();
+		
+		// without deletes shortening it, the tree grows only when the root is split
+		assertEquals(stats.getRootGrowths() + 1, stats.getHeight());
+		long[] nodes = stats.getNodesPerLevel();
+		assertEquals(1, nodes[nodes.length - 1]);
+		assertEquals(records.size() - 1, stats.getRecords());
+		assertTrue(stats.getAverageFill() > 0.45 && stats.getAverageFill() <= 1);
+		assertTrue(stats.getTotalOverlap() >= 0);
+		
+		int i;
+		for(i = 0; i < 100; i++) {
+			Record r = records.get(1 + rnd.nextInt(records.size() - 1));
+			tree.search(r.longitude, r.latitude);
+			tree.searchWindow(r.longitude - 1, r.latitude - 1, r.longitude + 1, r.latitude + 1);
+			tree.nearest(r.longitude, r.latitude, 10);
+		}
+		assertEquals(300, stats.getQueries());
+		long total = 0;
+		for(long count : stats.getNodesVisitedHistogram()) {
+			total += count;
+		}
+		assertEquals(300, total);
+		// every query visits at least the root
+		assertEquals(0, stats.getNodesVisitedHistogram()[0]);
+		assertTrue(stats.getMeanEntriesTested() >= stats.getMeanNodesVisited());
+		
+		// the same values through JMX
+		ObjectName name = stats.register("testStats");
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(300L, server.getAttribute(name, "Queries"));
+			server.invoke(name, "reset", null, null);
+			assertEquals(0, stats.getQueries());
+			assertEquals(stats.getHeight(), server.getAttribute(name, "Height"));
+		} finally {
+			stats.unregister();
+		}
+	}
+	
+	// same distance used by the tree: equirectangular at the latitude of the point, in fixed point units
+	private static double distance(double longitude, double latitude, Record r) {
+		double dx = (RTree.increaseUnit(r.longitude) - RTree.increaseUnit(longitude)) * Math.cos(Math.toRadians(latitude));
+		double dy = RTree.increaseUnit(r.latitude) - RTree.increaseUnit(latitude);
+		return dx * dx + dy * dy;
+	}
+	
 	private static double generateCoordinate() {
 		int intPart = rnd.nextInt(89);
 		double decPart = rnd.nextDouble();
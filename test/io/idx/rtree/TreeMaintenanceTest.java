@@ -0,0 +1,216 @@
+package io.idx.rtree;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+
+public class TreeMaintenanceTest {
+	
+	private final static int MAX_NODE_SIZE = 16;
+	
+	private final static int MAX_FAKE_ENTRIES = 50000;
+	
+	private final static int WRITERS = 2;
+	
+	private final static int WRITES = 50000;
+	
+	private static Random rnd = new Random();
+	
+	@Test
+	public void testRebuild() {
+		
+		RTree<Integer> tree = new RTree<Integer>(MAX_NODE_SIZE, null, true);
+		double[] longitudes = new double[MAX_FAKE_ENTRIES];
+		double[] latitudes = new double[MAX_FAKE_ENTRIES];
+		int i;
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			longitudes[i] = rnd.nextDouble() * 100 - 50;
+			latitudes[i] = rnd.nextDouble() * 100 - 50;
+			tree.addIndex(i, longitudes[i], latitudes[i]);
+		}
+		
+		// the quadratic split leaves the tree well past the default thresholds, the packed tree is not
+		RTreeStats stats = tree.stats();
+		TreeMaintenance maintenance = new TreeMaintenance(tree);
+		stats.refresh();
+		double overlap = stats.getOverlapRatio();
+		double coverage = stats.getCoverage();
+		assertTrue(maintenance.check());
+		assertEquals(1, stats.getRebuilds());
+		
+		stats.refresh();
+		assertTrue(stats.getOverlapRatio() < overlap);
+		assertTrue(stats.getCoverage() < coverage);
+		assertTrue(stats.getAverageFill() > 0.9);
+		assertEquals(MAX_FAKE_ENTRIES, stats.getRecords());
+		assertTrue(!maintenance.check());
+		maintenance.close();
+		
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			assertTrue(tree.search(longitudes[i], latitudes[i]).contains(i));
+		}
+		
+		// the rebuilt tree keeps working with the normal insert and delete
+		for(i = 0; i < MAX_FAKE_ENTRIES; i += 2) {
+			assertTrue(tree.delete(i, longitudes[i], latitudes[i]));
+		}
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			assertEquals(i % 2 == 1, tree.search(longitudes[i], latitudes[i]).contains(i));
+		}
+	}
+	
+	@Test
+	public void testRebuildWhileWriting() throws InterruptedException {
+		
+		final RTree<Integer> tree = new RTree<Integer>(MAX_NODE_SIZE, null, true);
+		int i;
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			tree.addIndex(i, rnd.nextDouble() * 100 - 50, rnd.nextDouble() * 100 - 50);
+		}
+		
+		// every writer inserts, moves and deletes its own records, the ids of the others are not touched
+		final AtomicInteger running = new AtomicInteger(WRITERS);
+		final AtomicBoolean stop = new AtomicBoolean();
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		final List<Set<Integer>> alive = new ArrayList<Set<Integer>>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for(i = 0; i < WRITERS; i++) {
+			final int writer = i;
+			final Set<Integer> ids = new HashSet<Integer>();
+			alive.add(ids);
+			threads.add(new Thread() {
+				public void run() {
+					try {
+						TreeMaintenanceTest.write(tree, writer, ids);
+					} catch(Throwable e) {
+						errors.add(e);
+					} finally {
+						running.decrementAndGet();
+					}
+				}
+			});
+		}
+		threads.add(new Thread() {
+			public void run() {
+				try {
+					while(!stop.get()) {
+						double lon = rnd.nextDouble() * 90 - 45;
+						double lat = rnd.nextDouble() * 90 - 45;
+						tree.searchWindow(lon, lat, lon + 5, lat + 5);
+						tree.nearest(lon, lat, 10);
+					}
+				} catch(Throwable e) {
+					errors.add(e);
+				}
+			}
+		});
+		
+		for(Thread thread : threads) {
+			thread.start();
+		}
+		// a rebuild can be abandoned if the writers are faster than the replay of their changes
+		int attempts = 0;
+		int rebuilds = 0;
+		do {
+			if(tree.rebuild()) {
+				rebuilds++;
+			}
+			attempts++;
+		} while(running.get() > 0);
+		stop.set(true);
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		
+		assertEquals(new ArrayList<Throwable>(), errors);
+		System.out.println("Rebuilds while writing: " + rebuilds + " of " + attempts);
+		// without writers there is nothing to replay
+		assertTrue(tree.rebuild());
+		
+		// nothing has been lost or duplicated by the rebuilds
+		Set<Integer> expected = new HashSet<Integer>();
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			expected.add(i);
+		}
+		for(Set<Integer> ids : alive) {
+			expected.addAll(ids);
+		}
+		List<Integer> found = tree.searchWindow(-180, -90, 180, 90);
+		assertEquals(expected.size(), found.size());
+		assertEquals(expected, new HashSet<Integer>(found));
+		// the abandoned rebuilds are not counted
+		assertEquals(rebuilds + 1, tree.stats().getRebuilds());
+	}
+	
+	@Test
+	public void testScheduled() throws InterruptedException {
+		RTree<Integer> tree = new RTree<Integer>(MAX_NODE_SIZE, null, true);
+		int i;
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			tree.addIndex(i, rnd.nextDouble() * 100 - 50, rnd.nextDouble() * 100 - 50);
+		}
+		
+		TreeMaintenance maintenance = new TreeMaintenance(tree);
+		maintenance.start(10, TimeUnit.MILLISECONDS);
+		try {
+			for(i = 0; i < 500 && tree.stats().getRebuilds() == 0; i++) {
+				Thread.sleep(10);
+			}
+		} finally {
+			maintenance.close();
+		}
+		assertEquals(1, tree.stats().getRebuilds());
+		assertEquals(null, maintenance.lastFailure());
+		assertEquals(MAX_FAKE_ENTRIES, tree.searchWindow(-180, -90, 180, 90).size());
+	}
+	
+	/*
+	 * Insert, move and delete the records of the writer, ids gets the ones still in the tree
+	 */
+	private static void write(RTree<Integer> tree, int writer, Set<Integer> ids) {
+		Random random = new Random(writer);
+		List<double[]> points = new ArrayList<double[]>();
+		int id = MAX_FAKE_ENTRIES + writer;
+		int i;
+		for(i = 0; i < WRITES; i++) {
+			double[] point = new double[] {random.nextDouble() * 100 - 50, random.nextDouble() * 100 - 50};
+			tree.addIndex(id, point[0], point[1]);
+			ids.add(id);
+			points.add(point);
+			id += WRITERS;
+			
+			int n = points.size();
+			if(n % 3 == 0) {
+				// move the record added 2 steps ago
+				int moved = id - 3 * WRITERS;
+				double[] from = points.get(n - 3);
+				double[] to = new double[] {random.nextDouble() * 100 - 50, random.nextDouble() * 100 - 50};
+				assertTrue(tree.update(moved, from[0], from[1], to[0], to[1]));
+				points.set(n - 3, to);
+			}
+			if(n % 5 == 0) {
+				int deleted = id - 5 * WRITERS;
+				double[] from = points.get(n - 5);
+				if(ids.remove(deleted)) {
+					assertTrue(tree.delete(deleted, from[0], from[1]));
+				}
+			}
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testNotConcurrent() {
+		new TreeMaintenance(new RTree<Integer>(MAX_NODE_SIZE));
+	}
+}
@@ -0,0 +1,31 @@
+package io.idx.zorder;
+import static org.junit.Assert.assertEquals;
+
+import io.idx.SpatialIndexContract;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class ZOrderIndexTest {
+	
+	private final static int MAX_FAKE_ENTRIES = 200000;
+	
+	private static Random rnd = new Random();
+	
+	@Test
+	public void testAgainstRTree() {
+		
+		ZOrderIndex<Integer> index = new ZOrderIndex<Integer>();
+		double[] longitudes = new double[MAX_FAKE_ENTRIES];
+		double[] latitudes = new double[MAX_FAKE_ENTRIES];
+		int i;
+		for(i = 0; i < MAX_FAKE_ENTRIES; i++) {
+			longitudes[i] = rnd.nextDouble() * 360 - 180;
+			latitudes[i] = rnd.nextDouble() * 180 - 90;
+		}
+		SpatialIndexContract.check(index, longitudes, latitudes, 20);
+		assertEquals(MAX_FAKE_ENTRIES / 2, index.size());
+	}
+}